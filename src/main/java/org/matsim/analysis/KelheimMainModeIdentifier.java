@@ -1,78 +1,191 @@
 package org.matsim.analysis;
 
 import com.google.inject.Inject;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.router.AnalysisMainModeIdentifier;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * Hierarchical main mode identifier.
+ * <p>
+ * The hierarchy is compiled into an immutable table from mode to rank at construction, helper modes such as transit_walk
+ * or drt_fallback are resolved to the rank of walk. The modes of a trip are collected in a bit mask, so that identifying
+ * the main mode does not allocate any objects.
+ * <p>
+ * The hierarchy can be configured with the {@link KelheimMainModeIdentifierConfigGroup}.
  */
 public final class KelheimMainModeIdentifier implements AnalysisMainModeIdentifier {
-	private final List<String> modeHierarchy = new ArrayList();
-	private final List<String> drtModes = Arrays.asList("drt", "kexi", "av", "drt_teleportation", "avDP", "avAS");
 	public static final String ANALYSIS_MAIN_MODE_PT_WITH_DRT_USED_FOR_ACCESS_OR_EGRESS = "pt_w_drt_used";
 	private static final Logger log = LogManager.getLogger(KelheimMainModeIdentifier.class);
 
-	@Inject
+	/**
+	 * Default drt modes of the scenario.
+	 */
+	static final List<String> DEFAULT_DRT_MODES = List.of("drt", "kexi", "av", "drt_teleportation", "avDP", "avAS");
+
+	/**
+	 * Rank of modes that are skipped.
+	 */
+	private static final int SKIP = -2;
+	private static final int UNKNOWN = -1;
+
+	/**
+	 * Modes by rank.
+	 */
+	private final String[] modeHierarchy;
+	/**
+	 * Rank of each mode, including aliases.
+	 */
+	private final Object2IntMap<String> modeRanks;
+	private final long drtModesMask;
+	private final long ptWalkMask;
+	private final int ptRank;
+
+	/**
+	 * Create an identifier with the default mode hierarchy of the scenario.
+	 */
 	public KelheimMainModeIdentifier() {
-		this.modeHierarchy.add("transit_walk");
-		this.modeHierarchy.add("walk");
-		this.modeHierarchy.add("bike");
-		this.modeHierarchy.add("bicycle");
-		this.modeHierarchy.add("ride");
-		this.modeHierarchy.add("car");
-		Iterator var1 = this.drtModes.iterator();
-
-		while (var1.hasNext()) {
-			String drtMode = (String) var1.next();
-			this.modeHierarchy.add(drtMode);
+		this(createDefaultHierarchy(DEFAULT_DRT_MODES), DEFAULT_DRT_MODES);
+	}
+
+	/**
+	 * Create an identifier with the mode hierarchy of the {@link KelheimMainModeIdentifierConfigGroup}, or the default if it is not configured.
+	 */
+	@Inject
+	public KelheimMainModeIdentifier(Config config) {
+		this(ConfigUtils.addOrGetModule(config, KelheimMainModeIdentifierConfigGroup.class));
+	}
+
+	/**
+	 * Create an identifier with the mode hierarchy of the given config group.
+	 */
+	public KelheimMainModeIdentifier(KelheimMainModeIdentifierConfigGroup configGroup) {
+		this(configGroup.getModeHierarchy(), configGroup.getDrtModes());
+	}
+
+	/**
+	 * Create an identifier for the given hierarchy (from lowest to highest priority). The drt modes need to be contained in the hierarchy.
+	 */
+	KelheimMainModeIdentifier(List<String> modeHierarchy, List<String> drtModes) {
+		if (new HashSet<>(modeHierarchy).size() != modeHierarchy.size()) {
+			throw new IllegalArgumentException("The mode hierarchy contains duplicate modes: " + modeHierarchy);
+		}
+		if (modeHierarchy.size() > Long.SIZE) {
+			throw new IllegalArgumentException("At most " + Long.SIZE + " modes are supported in the mode hierarchy");
 		}
 
-		this.modeHierarchy.add("pt");
-		this.modeHierarchy.add("freight");
+		this.modeHierarchy = modeHierarchy.toArray(String[]::new);
+		this.modeRanks = new Object2IntOpenHashMap<>();
+		this.modeRanks.defaultReturnValue(UNKNOWN);
+		for (int i = 0; i < this.modeHierarchy.length; i++) {
+			modeRanks.put(this.modeHierarchy[i], i);
+		}
+
+		int walkRank = modeRanks.getInt(TransportMode.walk);
+		this.ptRank = modeRanks.getInt(TransportMode.pt);
+		if (walkRank < 0 || ptRank < 0) {
+			throw new IllegalArgumentException("The mode hierarchy needs to contain walk and pt: " + modeHierarchy);
+		}
+
+		// helper modes are resolved once here
+		modeRanks.put(TransportMode.non_network_walk, SKIP);
+		modeRanks.put(TransportMode.transit_walk, walkRank);
+
+		long drtMask = 0;
+		for (String drtMode : drtModes) {
+			int rank = modeRanks.getInt(drtMode);
+			if (rank < 0) {
+				throw new IllegalArgumentException("drt mode " + drtMode + " is not part of the mode hierarchy");
+			}
+			drtMask |= 1L << rank;
+			// transit_walk / drt_walk / ... to be replaced by _fallback soon
+			modeRanks.put(drtMode + "_fallback", walkRank);
+		}
+		this.drtModesMask = drtMask;
+		this.ptWalkMask = (1L << ptRank) | (1L << walkRank);
+	}
+
+	static List<String> createDefaultHierarchy(List<String> drtModes) {
+		List<String> modeHierarchy = new ArrayList<>();
+		modeHierarchy.add("transit_walk");
+		modeHierarchy.add("walk");
+		modeHierarchy.add("bike");
+		modeHierarchy.add("bicycle");
+		modeHierarchy.add("ride");
+		modeHierarchy.add("car");
+		modeHierarchy.addAll(drtModes);
+		modeHierarchy.add("pt");
+		modeHierarchy.add("freight");
+		return modeHierarchy;
+	}
+
+	/**
+	 * Whether the mode is part of the hierarchy or one of the helper modes that are resolved by this identifier.
+	 */
+	public boolean isKnownMode(String mode) {
+		return modeRanks.getInt(mode) != UNKNOWN;
+	}
+
+	/**
+	 * Scan all plans of the population in parallel for leg modes that are not known to this identifier.
+	 *
+	 * @return number of legs by unknown mode, empty if all modes are known
+	 */
+	public Map<String, Long> findUnknownModes(Population population) {
+		return population.getPersons().values().parallelStream()
+			.flatMap(person -> person.getPlans().stream())
+			.flatMap(plan -> plan.getPlanElements().stream())
+			.filter(pe -> pe instanceof Leg leg && !isKnownMode(leg.getMode()))
+			.collect(Collectors.groupingByConcurrent(pe -> ((Leg) pe).getMode(), Collectors.counting()));
+	}
+
+	/**
+	 * Fail if the population contains leg modes that are not known to this identifier, instead of failing during the analysis of a
+	 * later iteration.
+	 */
+	public void checkPopulation(Population population) {
+		long start = System.currentTimeMillis();
+		Map<String, Long> unknownModes = findUnknownModes(population);
+		if (!unknownModes.isEmpty()) {
+			throw new IllegalStateException("The population contains modes that are not part of the main mode hierarchy " + Arrays.toString(modeHierarchy)
+				+ " (mode=number of legs): " + unknownModes);
+		}
+		log.info("Checked leg modes of " + population.getPersons().size() + " persons in " + (System.currentTimeMillis() - start) + " ms");
 	}
 
 	@Override
 	public String identifyMainMode(List<? extends PlanElement> planElements) {
 		int mainModeIndex = -1;
-		List<String> modesFound = new ArrayList<>();
-		for (PlanElement pe : planElements) {
-			int index;
-			String mode;
-			if (pe instanceof Leg) {
-				Leg leg = (Leg) pe;
-				mode = leg.getMode();
-			} else {
+		long modesFound = 0;
+		for (int i = 0; i < planElements.size(); i++) {
+			if (!(planElements.get(i) instanceof Leg leg)) {
 				continue;
 			}
-			if (mode.equals(TransportMode.non_network_walk)) {
+			String mode = leg.getMode();
+			int index = modeRanks.getInt(mode);
+			if (index == SKIP) {
 				// skip, this is only a helper mode for access, egress and pt transfers
 				continue;
 			}
-			if (mode.equals(TransportMode.transit_walk)) {
-				mode = TransportMode.walk;
-			} else {
-				for (String drtMode : drtModes) {
-					// transit_walk / drt_walk / ... to be replaced by _fallback soon
-					if (mode.equals(drtMode + "_fallback")) {
-						mode = TransportMode.walk;
-					}
-				}
-			}
-			modesFound.add(mode);
-			index = modeHierarchy.indexOf(mode);
 			if (index < 0) {
 				throw new RuntimeException("unknown mode=" + mode);
 			}
+			modesFound |= 1L << index;
 			if (index > mainModeIndex) {
 				mainModeIndex = index;
 			}
@@ -81,25 +194,16 @@ public final class KelheimMainModeIdentifier implements AnalysisMainModeIdentifi
 			throw new RuntimeException("no main mode found for trip " + planElements);
 		}
 
-		String mainMode = modeHierarchy.get(mainModeIndex);
 		// differentiate pt monomodal/intermodal
-		if (mainMode.equals(TransportMode.pt)) {
-			boolean isDrtPt = false;
-			for (String modeFound : modesFound) {
-				if (modeFound.equals(TransportMode.pt)) {
-					continue;
-				} else if (modeFound.equals(TransportMode.walk)) {
-					continue;
-				} else if (drtModes.contains(modeFound)) {
-					isDrtPt = true;
-				} else {
-					log.error("unknown intermodal pt trip: " + planElements);
-					throw new RuntimeException("unknown intermodal pt trip");
-				}
+		if (mainModeIndex == ptRank) {
+			long otherModes = modesFound & ~ptWalkMask;
+			if ((otherModes & ~drtModesMask) != 0) {
+				log.error("unknown intermodal pt trip: " + planElements);
+				throw new RuntimeException("unknown intermodal pt trip");
 			}
-			return isDrtPt ? ANALYSIS_MAIN_MODE_PT_WITH_DRT_USED_FOR_ACCESS_OR_EGRESS : TransportMode.pt;
+			return otherModes != 0 ? ANALYSIS_MAIN_MODE_PT_WITH_DRT_USED_FOR_ACCESS_OR_EGRESS : TransportMode.pt;
 		} else {
-			return mainMode;
+			return modeHierarchy[mainModeIndex];
 		}
 	}
 }
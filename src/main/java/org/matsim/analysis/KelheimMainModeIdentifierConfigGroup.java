@@ -0,0 +1,119 @@
+package org.matsim.analysis;
+
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ReflectiveConfigGroup;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Config group to specify the mode hierarchy of the {@link KelheimMainModeIdentifier}.
+ */
+public final class KelheimMainModeIdentifierConfigGroup extends ReflectiveConfigGroup {
+	public static final String GROUP_NAME = "kelheimMainModeIdentifier";
+	public static final String MODE_HIERARCHY = "modeHierarchy";
+	public static final String DRT_MODES = "drtModes";
+	public static final String CHECK_INPUT_PLANS = "checkInputPlans";
+
+	private List<String> drtModes = new ArrayList<>(KelheimMainModeIdentifier.DEFAULT_DRT_MODES);
+	private List<String> modeHierarchy = KelheimMainModeIdentifier.createDefaultHierarchy(drtModes);
+	private boolean checkInputPlans = true;
+
+	public KelheimMainModeIdentifierConfigGroup() {
+		super(GROUP_NAME);
+	}
+
+	@Override
+	public Map<String, String> getComments() {
+		Map<String, String> map = super.getComments();
+		map.put(MODE_HIERARCHY, "Comma separated list of all modes, ordered from lowest to highest priority. Needs to contain walk, pt and all drt modes.");
+		map.put(DRT_MODES, "Comma separated list of drt modes. Pt trips using one of these modes for access or egress are classified as "
+				+ KelheimMainModeIdentifier.ANALYSIS_MAIN_MODE_PT_WITH_DRT_USED_FOR_ACCESS_OR_EGRESS + ".");
+		map.put(CHECK_INPUT_PLANS, "If true, the input plans are checked for modes that are not part of the mode hierarchy before the simulation starts.");
+		return map;
+	}
+
+	@StringGetter(MODE_HIERARCHY)
+	private String getModeHierarchyAsString() {
+		return String.join(",", modeHierarchy);
+	}
+
+	@StringSetter(MODE_HIERARCHY)
+	private void setModeHierarchyAsString(String modeHierarchy) {
+		this.modeHierarchy = parseModes(modeHierarchy);
+	}
+
+	public List<String> getModeHierarchy() {
+		return modeHierarchy;
+	}
+
+	public void setModeHierarchy(List<String> modeHierarchy) {
+		this.modeHierarchy = new ArrayList<>(modeHierarchy);
+	}
+
+	@StringGetter(DRT_MODES)
+	private String getDrtModesAsString() {
+		return String.join(",", drtModes);
+	}
+
+	@StringSetter(DRT_MODES)
+	private void setDrtModesAsString(String drtModes) {
+		this.drtModes = parseModes(drtModes);
+	}
+
+	public List<String> getDrtModes() {
+		return drtModes;
+	}
+
+	public void setDrtModes(List<String> drtModes) {
+		this.drtModes = new ArrayList<>(drtModes);
+	}
+
+	@StringGetter(CHECK_INPUT_PLANS)
+	public boolean isCheckInputPlans() {
+		return checkInputPlans;
+	}
+
+	@StringSetter(CHECK_INPUT_PLANS)
+	public void setCheckInputPlans(boolean checkInputPlans) {
+		this.checkInputPlans = checkInputPlans;
+	}
+
+	@Override
+	protected void checkConsistency(Config config) {
+		super.checkConsistency(config);
+
+		Set<String> modes = new HashSet<>();
+		for (String mode : modeHierarchy) {
+			if (!modes.add(mode)) {
+				throw new IllegalArgumentException("Mode " + mode + " is contained more than once in the mode hierarchy: " + modeHierarchy);
+			}
+		}
+		if (modeHierarchy.size() > Long.SIZE) {
+			throw new IllegalArgumentException("At most " + Long.SIZE + " modes are supported in the mode hierarchy, got " + modeHierarchy.size());
+		}
+		if (!modes.contains(TransportMode.walk) || !modes.contains(TransportMode.pt)) {
+			throw new IllegalArgumentException("The mode hierarchy needs to contain walk and pt: " + modeHierarchy);
+		}
+		for (String drtMode : drtModes) {
+			if (!modes.contains(drtMode)) {
+				throw new IllegalArgumentException("drt mode " + drtMode + " is not part of the mode hierarchy: " + modeHierarchy);
+			}
+		}
+	}
+
+	private static List<String> parseModes(String modes) {
+		List<String> result = new ArrayList<>();
+		for (String mode : modes.split(",")) {
+			String trimmed = mode.trim();
+			if (!trimmed.isEmpty()) {
+				result.add(trimmed);
+			}
+		}
+		return result;
+	}
+}
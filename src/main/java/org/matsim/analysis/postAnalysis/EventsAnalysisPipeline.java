@@ -0,0 +1,162 @@
+package org.matsim.analysis.postAnalysis;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.analysis.postAnalysis.drt.DrtServiceQualityAnalysis;
+import org.matsim.analysis.postAnalysis.drt.DrtVehiclesRoadUsageAnalysis;
+import org.matsim.analysis.postAnalysis.events.ColumnarEvents;
+import org.matsim.analysis.postAnalysis.traffic.CongestionAnalysis;
+import org.matsim.analysis.postAnalysis.traffic.LinkTravelTimes;
+import org.matsim.application.MATSimAppCommand;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.EventHandler;
+import picocli.CommandLine;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static org.matsim.application.ApplicationUtils.globFile;
+
+/**
+ * Runs several analyses of a run directory with a single pass over the events file.
+ * <p>
+ * Analyses that need the events implement {@link EventsAnalysisStage}. The events are read once, and passed to the handlers of all selected
+ * stages, each stage on its own thread. Analyses that only need the link travel times run after the pass and load them from the file
+ * written by the travel times stage, see {@link LinkTravelTimes}.
+ */
+@CommandLine.Command(
+		name = "analyze-events",
+		description = "Run several events based analyses with a single pass over the events"
+)
+public class EventsAnalysisPipeline implements MATSimAppCommand {
+	private static final Logger log = LogManager.getLogger(EventsAnalysisPipeline.class);
+
+	private static final String ROAD_USAGE = "road-usage";
+	private static final String DRT_ROAD_USAGE = "drt-road-usage";
+	private static final String TRAVEL_TIMES = "travel-times";
+	private static final String CONGESTION = "congestion";
+	private static final String DRT_SERVICE_QUALITY = "drt-service-quality";
+
+	@CommandLine.Option(names = "--directory", description = "path to the directory of the simulation output", required = true)
+	private Path directory;
+
+	@CommandLine.Option(names = "--stages", split = ",", description = "analyses to run, any of: " + ROAD_USAGE + ", " + DRT_ROAD_USAGE + ", "
+			+ TRAVEL_TIMES + ", " + CONGESTION + ", " + DRT_SERVICE_QUALITY,
+			defaultValue = ROAD_USAGE + "," + DRT_ROAD_USAGE + "," + CONGESTION + "," + DRT_SERVICE_QUALITY)
+	private List<String> stageNames;
+
+	@CommandLine.Option(names = "--buffer-size", description = "number of events in the buffer between the reader and the stages, a power of two",
+			defaultValue = "65536")
+	private int bufferSize;
+
+	@CommandLine.Option(names = "--serial", defaultValue = "false", description = "process all stages on the thread reading the events")
+	private boolean serial;
+
+	@CommandLine.Option(names = "--write-columnar-events", defaultValue = "false",
+			description = "write the events in the columnar format during the pass, which is used by later analyses of the run")
+	private boolean writeColumnarEvents;
+
+	public static void main(String[] args) {
+		new EventsAnalysisPipeline().execute(args);
+	}
+
+	@Override
+	public Integer call() throws Exception {
+		Path networkPath = globFile(directory, "*output_network.*");
+		Path eventsPath = globFile(directory, "*output_events.*");
+
+		Map<String, EventsAnalysisStage> stages = new LinkedHashMap<>();
+		Map<String, Callable<Integer>> afterPass = new LinkedHashMap<>();
+		for (String name : stageNames) {
+			switch (name) {
+				case ROAD_USAGE -> stages.put(name, parse(new VehiclesRoadUsageAnalysis(), "--directory", directory.toString()));
+				case DRT_ROAD_USAGE -> stages.put(name, parse(new DrtVehiclesRoadUsageAnalysis(), "--directory", directory.toString()));
+				case TRAVEL_TIMES -> stages.put(name, LinkTravelTimes.stage(networkPath, eventsPath));
+				case CONGESTION -> afterPass.put(name, parse(new CongestionAnalysis(), "--network", networkPath.toString(),
+						"--events", eventsPath.toString(), "--output", directory.resolve("analysis").resolve("traffic").resolve("congestion.tsv").toString()));
+				case DRT_SERVICE_QUALITY -> afterPass.put(name, parse(new DrtServiceQualityAnalysis(), "--directory", directory.toString()));
+				default -> throw new IllegalArgumentException("Unknown stage " + name);
+			}
+		}
+		// analyses after the pass reuse the travel times of the events
+		if (!afterPass.isEmpty() && !stages.containsKey(TRAVEL_TIMES)) {
+			stages.put(TRAVEL_TIMES, LinkTravelTimes.stage(networkPath, eventsPath));
+		}
+
+		if (writeColumnarEvents) {
+			stages.put("columnar-events", ColumnarEvents.stage(eventsPath));
+		}
+
+		long start = System.currentTimeMillis();
+		List<List<EventHandler>> groups = new ArrayList<>();
+		for (Map.Entry<String, EventsAnalysisStage> stage : stages.entrySet()) {
+			long t = System.currentTimeMillis();
+			List<EventHandler> handlers = stage.getValue().prepare();
+			if (!handlers.isEmpty()) {
+				groups.add(handlers);
+			}
+			log.info("Prepared stage " + stage.getKey() + " in " + (System.currentTimeMillis() - t) + " ms");
+		}
+
+		if (!groups.isEmpty()) {
+			long t = System.currentTimeMillis();
+			readEvents(eventsPath, groups);
+			log.info("Processed " + eventsPath + " for " + groups.size() + " stages in " + (System.currentTimeMillis() - t) + " ms");
+		}
+
+		for (Map.Entry<String, EventsAnalysisStage> stage : stages.entrySet()) {
+			long t = System.currentTimeMillis();
+			stage.getValue().finish();
+			log.info("Finished stage " + stage.getKey() + " in " + (System.currentTimeMillis() - t) + " ms");
+		}
+
+		for (Map.Entry<String, Callable<Integer>> analysis : afterPass.entrySet()) {
+			long t = System.currentTimeMillis();
+			Integer result = analysis.getValue().call();
+			if (result != null && result != 0) {
+				log.error("Analysis " + analysis.getKey() + " failed with exit code " + result);
+				return result;
+			}
+			log.info("Finished analysis " + analysis.getKey() + " in " + (System.currentTimeMillis() - t) + " ms");
+		}
+
+		log.info("Finished all analyses in " + (System.currentTimeMillis() - start) + " ms");
+		return 0;
+	}
+
+	/**
+	 * Read the events once, preferring the columnar events. A single group or serial processing is handled on the reading thread.
+	 */
+	private void readEvents(Path eventsPath, List<List<EventHandler>> groups) throws InterruptedException {
+		EventsManager eventsManager = EventsUtils.createEventsManager();
+		List<EventHandler> handlers = groups.stream().flatMap(List::stream).toList();
+		if (serial || groups.size() == 1) {
+			handlers.forEach(eventsManager::addHandler);
+			eventsManager.initProcessing();
+			ColumnarEvents.read(eventsManager, handlers, eventsPath);
+			eventsManager.finishProcessing();
+			return;
+		}
+
+		EventsFanOut fanOut = new EventsFanOut(groups, bufferSize);
+		eventsManager.addHandler(fanOut);
+		eventsManager.initProcessing();
+		try {
+			// only events needed by the handlers of the stages are decoded and published
+			ColumnarEvents.read(eventsManager, handlers, eventsPath);
+			eventsManager.finishProcessing();
+		} finally {
+			fanOut.finish();
+		}
+	}
+
+	private static <T> T parse(T command, String... args) {
+		new CommandLine(command).parseArgs(args);
+		return command;
+	}
+}
@@ -0,0 +1,26 @@
+package org.matsim.analysis.postAnalysis;
+
+import org.matsim.core.events.handler.EventHandler;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Analysis of an events file that can run together with other stages in one pass over the events, see {@link EventsAnalysisPipeline}.
+ * <p>
+ * All handlers of a stage are called from the same thread, in the order of the events. Different stages may run concurrently.
+ */
+public interface EventsAnalysisStage {
+
+	/**
+	 * Prepare the analysis, e.g. read the network, and create the handlers that need the events.
+	 *
+	 * @return the handlers, may be empty if the stage does not need the events
+	 */
+	List<EventHandler> prepare() throws IOException;
+
+	/**
+	 * Write the results, after all events have been passed to the handlers.
+	 */
+	void finish() throws IOException;
+}
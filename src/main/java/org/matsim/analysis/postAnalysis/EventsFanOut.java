@@ -0,0 +1,131 @@
+package org.matsim.analysis.postAnalysis;
+
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.core.events.handler.EventHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Passes events from the reading thread to several groups of handlers, each processed by its own thread.
+ * <p>
+ * Events are published to a ring buffer with a single producer. Each group consumes all events in order and tracks its own position,
+ * the producer waits when the slowest group is a full buffer behind. This avoids a queue per group and any allocation per event.
+ */
+final class EventsFanOut implements BasicEventHandler {
+	private static final long IDLE_NANOS = 10_000;
+
+	private final Event[] ring;
+	private final int mask;
+	/**
+	 * Sequence of the last published event.
+	 */
+	private final AtomicLong cursor = new AtomicLong(-1);
+	/**
+	 * Sequence of the last event processed by each group.
+	 */
+	private final AtomicLong[] consumed;
+	private final List<Thread> threads = new ArrayList<>();
+
+	private long published = -1;
+	private long minConsumed = -1;
+	private volatile boolean finished;
+	private volatile Throwable failure;
+
+	/**
+	 * Create and start the consumer threads.
+	 *
+	 * @param capacity size of the ring buffer, needs to be a power of two
+	 */
+	EventsFanOut(List<List<EventHandler>> groups, int capacity) {
+		if (Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("The capacity needs to be a power of two, got " + capacity);
+		}
+		this.ring = new Event[capacity];
+		this.mask = capacity - 1;
+		this.consumed = new AtomicLong[groups.size()];
+		for (int i = 0; i < groups.size(); i++) {
+			consumed[i] = new AtomicLong(-1);
+			int group = i;
+			Thread thread = new Thread(() -> consume(group, groups.get(group)), "events-fan-out-" + i);
+			thread.setDaemon(true);
+			threads.add(thread);
+			thread.start();
+		}
+	}
+
+	@Override
+	public void handleEvent(Event event) {
+		long next = published + 1;
+		while (next - ring.length > minConsumed) {
+			long min = Long.MAX_VALUE;
+			for (AtomicLong sequence : consumed) {
+				min = Math.min(min, sequence.get());
+			}
+			minConsumed = min;
+			if (next - ring.length > minConsumed) {
+				checkFailure();
+				LockSupport.parkNanos(IDLE_NANOS);
+			}
+		}
+		ring[(int) (next & mask)] = event;
+		published = next;
+		cursor.lazySet(next);
+	}
+
+	/**
+	 * Wait until all groups have processed all events.
+	 */
+	void finish() throws InterruptedException {
+		finished = true;
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Any failure of a handler, including errors, needs to be passed to the reading thread, otherwise it would wait for this group forever.
+	 */
+	@SuppressWarnings("IllegalCatch")
+	private void consume(int group, List<EventHandler> handlers) {
+		EventsManager manager = EventsUtils.createEventsManager();
+		handlers.forEach(manager::addHandler);
+		manager.initProcessing();
+
+		AtomicLong sequence = consumed[group];
+		long next = 0;
+		try {
+			while (true) {
+				long available = cursor.get();
+				if (next > available) {
+					if (finished && next > cursor.get()) {
+						break;
+					}
+					LockSupport.parkNanos(IDLE_NANOS);
+					continue;
+				}
+				for (; next <= available; next++) {
+					manager.processEvent(ring[(int) (next & mask)]);
+				}
+				sequence.lazySet(available);
+			}
+			manager.finishProcessing();
+		} catch (Throwable t) {
+			failure = t;
+			// never block the producer again
+			sequence.set(Long.MAX_VALUE);
+		}
+	}
+
+	private void checkFailure() {
+		if (failure != null) {
+			throw new RuntimeException("Failed to process events", failure);
+		}
+	}
+}
@@ -3,6 +3,7 @@ package org.matsim.analysis.postAnalysis;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
+import org.matsim.analysis.postAnalysis.events.ColumnarEvents;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.events.LinkEnterEvent;
 import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
@@ -13,11 +14,12 @@ import org.matsim.api.core.v01.network.Network;
 import org.matsim.application.MATSimAppCommand;
 import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.events.EventsUtils;
-import org.matsim.core.events.MatsimEventsReader;
+import org.matsim.core.events.handler.EventHandler;
 import org.matsim.core.network.NetworkUtils;
 import picocli.CommandLine;
 
 import java.io.FileWriter;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -32,28 +34,41 @@ import static org.matsim.application.ApplicationUtils.globFile;
  *
  * @author Simon Meinhardt (simei94)
  */
-public class VehiclesRoadUsageAnalysis implements MATSimAppCommand {
+public class VehiclesRoadUsageAnalysis implements MATSimAppCommand, EventsAnalysisStage {
 	@CommandLine.Option(names = "--directory", description = "path to the directory of the simulation output", required = true)
 	private Path directory;
 
+	private final Map<Id<Link>, Integer> vehicleCount = new HashMap<>();
+	private Path outputFolder;
+
 	public static void main(String[] args) {
 		new VehiclesRoadUsageAnalysis().execute(args);
 	}
 
 	@Override
 	public Integer call() throws Exception {
-		Path networkPath = globFile(directory, "*output_network.*");
 		Path eventsFilePath = globFile(directory, "*output_events.*");
-		Path outputFolder = Path.of(directory.toString() + "/analysis-road-usage");
+
+		EventsManager eventsManager = EventsUtils.createEventsManager();
+		List<EventHandler> handlers = prepare();
+		handlers.forEach(eventsManager::addHandler);
+		ColumnarEvents.read(eventsManager, handlers, eventsFilePath);
+
+		finish();
+		return 0;
+	}
+
+	@Override
+	public List<EventHandler> prepare() throws IOException {
+		Path networkPath = globFile(directory, "*output_network.*");
+		outputFolder = Path.of(directory.toString() + "/analysis-road-usage");
 
 		if (!Files.exists(outputFolder)) {
 			Files.createDirectory(outputFolder);
 		}
 
 		Network network = NetworkUtils.readNetwork(networkPath.toString());
-		EventsManager eventsManager = EventsUtils.createEventsManager();
 
-		Map<Id<Link>, Integer> vehicleCount = new HashMap<>();
 		Map<String, Integer> blockedLinkCount = new HashMap<>();
 //        List<String> blockedLinks = Arrays.asList("-487456219#3", "487456219#3", "-487456219#2", "487456219#2", "-487456219#1", "487456219#1", "-920868265", "920868265", "-487456219#0", "487456219#0", "-376292750", "376292750");
 
@@ -67,12 +82,12 @@ public class VehiclesRoadUsageAnalysis implements MATSimAppCommand {
 			}
 		}
 
-		VehicleLinkUsageCounter vehicleLinkUsageCounter = new VehicleLinkUsageCounter(network, vehicleCount, blockedLinkCount);
-		eventsManager.addHandler(vehicleLinkUsageCounter);
-
-		MatsimEventsReader reader = new MatsimEventsReader(eventsManager);
-		reader.readFile(eventsFilePath.toString());
+		vehicleCount.clear();
+		return List.of(new VehicleLinkUsageCounter(network, vehicleCount, blockedLinkCount));
+	}
 
+	@Override
+	public void finish() throws IOException {
 		//writeResults
 		String vehicleRoadUsageFile = outputFolder + "/" + "allModes_vehicle_road_usage.tsv";
 		CSVPrinter vehicleRoadUsageWriter = new CSVPrinter(new FileWriter(vehicleRoadUsageFile), CSVFormat.TDF);
@@ -89,7 +104,6 @@ public class VehiclesRoadUsageAnalysis implements MATSimAppCommand {
 			vehicleRoadUsageWriter.printRecord(vehicleEntry);
 		}
 		vehicleRoadUsageWriter.close();
-		return 0;
 	}
 
 	static class VehicleLinkUsageCounter implements VehicleEntersTrafficEventHandler, LinkEnterEventHandler {
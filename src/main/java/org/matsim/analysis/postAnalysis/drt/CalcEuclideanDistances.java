@@ -33,9 +33,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
 /**
  * Write Euclidean trip distances into trips.csv.
@@ -59,7 +57,8 @@ final class CalcEuclideanDistances {
 			writer = new CSVPrinter(new FileWriter(output), CSVFormat.DEFAULT.withDelimiter(';'));
 
 
-			for (CSVRecord row : parser.getRecords()) {
+			// records are streamed, the file is never held in memory
+			for (CSVRecord row : parser) {
 
 				Coord fromCoord = new Coord(Double.parseDouble(row.get(4)), Double.parseDouble(row.get(5)));
 				Coord toCoord = new Coord(Double.parseDouble(row.get(7)), Double.parseDouble(row.get(8)));
@@ -72,7 +71,6 @@ final class CalcEuclideanDistances {
 
 				double euclideanDistance = DistanceUtils.calculateDistance(fromCoord, toCoord);
 
-				List<String> outputRow = new ArrayList<>();
 				writer.printRecord(Arrays.stream(row.values()).toList(), euclideanDistance);
 			}
 			parser.close();
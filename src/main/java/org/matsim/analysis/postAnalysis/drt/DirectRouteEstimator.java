@@ -0,0 +1,104 @@
+package org.matsim.analysis.postAnalysis.drt;
+
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.config.Config;
+import org.matsim.core.router.costcalculators.RandomizingTimeDistanceTravelDisutilityFactory;
+import org.matsim.core.router.speedy.SpeedyALTFactory;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Estimates the direct route of drt trips on a network with given travel times.
+ * <p>
+ * Trips are routed concurrently, each thread uses its own router. The routers share the graph and the ALT landmarks of one
+ * {@link SpeedyALTFactory}, which are computed only once. Each route only depends on its trip, so the results are the same for any
+ * number of threads.
+ */
+final class DirectRouteEstimator implements AutoCloseable {
+	private final Network network;
+	private final TravelTime travelTime;
+	private final RandomizingTimeDistanceTravelDisutilityFactory disutilityFactory;
+	private final SpeedyALTFactory routerFactory = new SpeedyALTFactory();
+	private final ThreadLocal<LeastCostPathCalculator> routers = ThreadLocal.withInitial(this::createRouter);
+	private final ForkJoinPool pool;
+
+	/**
+	 * Create the estimator.
+	 *
+	 * @param config  config of the run, the routing randomness is expected to be disabled
+	 * @param threads number of threads, 1 to route all trips on the calling thread
+	 */
+	DirectRouteEstimator(Network network, TravelTime travelTime, Config config, int threads) {
+		this.network = network;
+		this.travelTime = travelTime;
+		this.disutilityFactory = new RandomizingTimeDistanceTravelDisutilityFactory(TransportMode.car, config);
+		this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		// build the graph and the landmarks before any concurrent access
+		routers.get();
+	}
+
+	/**
+	 * Estimate the direct routes of all trips, the results have the same order as the trips.
+	 */
+	DirectRoute[] estimate(List<Trip> trips, Vehicle vehicle) throws InterruptedException {
+		DirectRoute[] result = new DirectRoute[trips.size()];
+		if (pool == null) {
+			for (int i = 0; i < result.length; i++) {
+				result[i] = estimate(trips.get(i), vehicle);
+			}
+			return result;
+		}
+
+		try {
+			pool.submit(() -> IntStream.range(0, result.length).parallel()
+				.forEach(i -> result[i] = estimate(trips.get(i), vehicle))).get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Could not estimate direct routes", e.getCause());
+		}
+		return result;
+	}
+
+	private DirectRoute estimate(Trip trip, Vehicle vehicle) {
+		Link toLink = trip.toLink();
+		LeastCostPathCalculator.Path path = routers.get().calcLeastCostPath(trip.fromLink().getToNode(), toLink.getFromNode(),
+			trip.departureTime(), null, vehicle);
+		path.links.add(toLink);
+		double inVehicleTime = path.travelTime + travelTime.getLinkTravelTime(toLink, path.travelTime + trip.departureTime(), null, null) + 2;
+		double distance = path.links.stream().map(Link::getLength).mapToDouble(l -> l).sum();
+		return new DirectRoute(inVehicleTime, distance);
+	}
+
+	private LeastCostPathCalculator createRouter() {
+		// the factory caches the graph and landmarks, but is not meant to be used concurrently
+		synchronized (routerFactory) {
+			return routerFactory.createPathCalculator(network, disutilityFactory.createTravelDisutility(travelTime), travelTime);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Drt trip from the end of the from link to the end of the to link.
+	 */
+	record Trip(Link fromLink, Link toLink, double departureTime) {
+	}
+
+	/**
+	 * Estimated in-vehicle time and distance of the direct route.
+	 */
+	record DirectRoute(double inVehicleTime, double distance) {
+	}
+}
@@ -4,7 +4,6 @@ import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.csv.CSVRecord;
-import org.apache.commons.math.stat.StatUtils;
 import org.apache.commons.math3.util.Precision;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -12,7 +11,6 @@ import org.locationtech.jts.geom.Geometry;
 import org.matsim.analysis.postAnalysis.traffic.TrafficAnalysis;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.application.MATSimAppCommand;
@@ -23,15 +21,10 @@ import org.matsim.contrib.drt.run.MultiModeDrtConfigGroup;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.network.NetworkUtils;
-import org.matsim.core.router.costcalculators.RandomizingTimeDistanceTravelDisutilityFactory;
-import org.matsim.core.router.speedy.SpeedyALTFactory;
-import org.matsim.core.router.util.LeastCostPathCalculator;
-import org.matsim.core.router.util.TravelDisutility;
 import org.matsim.core.router.util.TravelTime;
 import org.matsim.core.utils.gis.ShapeFileReader;
 import org.matsim.core.utils.gis.ShapeFileWriter;
 import org.matsim.core.utils.io.IOUtils;
-import org.matsim.utils.gis.shp2matsim.ShpGeometryUtils;
 import org.matsim.vehicles.Vehicle;
 import org.matsim.vehicles.VehicleType;
 import org.matsim.vehicles.VehicleUtils;
@@ -39,11 +32,11 @@ import org.opengis.feature.simple.SimpleFeature;
 import picocli.CommandLine;
 
 import java.io.FileWriter;
+import java.io.IOException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
 
 import static org.matsim.application.ApplicationUtils.globFile;
 
@@ -58,17 +51,28 @@ public class DrtServiceQualityAnalysis implements MATSimAppCommand {
 	private static final String FEATURE_DESTINATIONS_ATTRIBUTE_NAME = "ends";
 	private static final String FEATURE_MEAN_WAIT_ATTRIBUTE_NAME = "meanWait";
 	private static final String FEATURE_95PCT_WAIT_ATTRIBUTE_NAME = "95pctWait";
+	private static final int BATCH_SIZE = 10_000;
+	/**
+	 * Waiting times are binned by second up to one day, percentiles are exact up to {@link QuantileSketch#DEFAULT_EXACT_LIMIT} legs.
+	 */
+	private static final int WAITING_TIME_BINS = 24 * 3600;
 	@CommandLine.Option(names = "--directory", description = "path to matsim output directory", required = true)
 	private Path directory;
 	@CommandLine.Option(names = "--only-shape", defaultValue = "false", description = "only read drt legs file and write shp file")
 	private boolean onlyShape;
+	@CommandLine.Option(names = "--threads", defaultValue = "0", description = "number of threads for the estimation of direct routes, 0 for all available processors")
+	private int threads;
+
+	private Network network;
+	private DirectRouteEstimator directRouteEstimator;
+	private Vehicle avVehicle;
+	private ZoneIndex zoneIndex;
 
 	public static void main(String[] args) {
 		new DrtServiceQualityAnalysis().execute(args);
 	}
 
 	@Override
-	@SuppressWarnings("JavaNCSS")
 	public Integer call() throws Exception {
 		Path configPath = globFile(directory, "*output_config.*");
 		Path networkPath = globFile(directory, "*output_network.*");
@@ -81,7 +85,6 @@ public class DrtServiceQualityAnalysis implements MATSimAppCommand {
 
 		Config config = ConfigUtils.loadConfig(configPath.toString(), new MultiModeDrtConfigGroup(DrtWithExtensionsConfigGroup::new));
 		int lastIteration = config.controller().getLastIteration();
-		String runId = config.controller().getRunId();
 		Path folderOfLastIteration = Path.of(directory.toString() + "/ITERS/it." + lastIteration);
 		MultiModeDrtConfigGroup multiModeDrtConfigGroup = ConfigUtils.addOrGetModule(config, MultiModeDrtConfigGroup.class);
 		List<String> modes = new ArrayList<>();
@@ -91,186 +94,240 @@ public class DrtServiceQualityAnalysis implements MATSimAppCommand {
 
 		VehicleType vehicleTypeAv = VehicleUtils.createVehicleType(Id.create("av_type_for_route_calculation", VehicleType.class));
 		vehicleTypeAv.setMaximumVelocity(5.0);
-		Vehicle avVehicle = VehicleUtils.createVehicle(Id.create("dummy_av_vehicle", Vehicle.class), vehicleTypeAv);
-		Network network = null;
-		TravelTime travelTime = null;
-		LeastCostPathCalculator router = null;
+		avVehicle = VehicleUtils.createVehicle(Id.create("dummy_av_vehicle", Vehicle.class), vehicleTypeAv);
 		if (!onlyShape) {
 			network = NetworkUtils.readNetwork(networkPath.toString());
-			travelTime = TrafficAnalysis.analyzeTravelTimeFromEvents(network, eventPath.toString());
+			TravelTime travelTime = TrafficAnalysis.analyzeTravelTimeFromEvents(network, eventPath.toString());
 
 			config.routing().setRoutingRandomness(0);
-			TravelDisutility travelDisutility = new RandomizingTimeDistanceTravelDisutilityFactory(TransportMode.car, config)
-					.createTravelDisutility(travelTime);
-			router = new SpeedyALTFactory().
-					createPathCalculator(network, travelDisutility, travelTime);
+			directRouteEstimator = new DirectRouteEstimator(network, travelTime, config,
+					threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
 			// a quick fix for the AV speed calculation
 		}
 
-		for (String mode : modes) {
-			Path tripsFile = globFile(folderOfLastIteration, "*drt_legs_" + mode + ".*");
-			Path outputTripsPath = Path.of(outputFolder + "/" + mode + "_trips.tsv");
-			Path outputStatsPath = Path.of(outputFolder + "/" + mode + "_KPI.tsv");
-
-			List<Double> allWaitingTimes = new ArrayList<>();
+		List<SimpleFeature> shpFeatures = new ArrayList<>(ShapeFileReader.getAllFeatures(SHPFILE));
+		zoneIndex = new ZoneIndex(shpFeatures.stream().map(feature -> (Geometry) feature.getDefaultGeometry()).toList());
 
-			Map<SimpleFeature, ArrayList<Double>> shpWaitingTimes = null;
-			Set<SimpleFeature> shpFeatures = new HashSet<>(ShapeFileReader.getAllFeatures(SHPFILE));
-			for (SimpleFeature shpFeature : shpFeatures) {
-				shpFeature.setAttribute(FEATURE_ORIGINS_ATTRIBUTE_NAME, 0.d);
-				shpFeature.setAttribute(FEATURE_DESTINATIONS_ATTRIBUTE_NAME, 0.d);
+		try {
+			for (String mode : modes) {
+				Path tripsFile = globFile(folderOfLastIteration, "*drt_legs_" + mode + ".*");
+				ModeStatistics stats = new ModeStatistics(zoneIndex.size());
+				readLegs(tripsFile, mode, stats, Path.of(outputFolder + "/" + mode + "_trips.tsv"));
+				if (!onlyShape) {
+					writeKPIs(Path.of(outputFolder + "/" + mode + "_KPI.tsv"), stats);
+				}
+				writeServiceZones(shpFeatures, stats, outputFolder + "/" + mode + "_serviceZones_waitStats.shp");
 			}
-			shpWaitingTimes = shpFeatures.stream().collect(Collectors.toMap(feature -> feature, feature -> new ArrayList<Double>()));
-
-			List<Double> onboardDelayRatios = new ArrayList<>();
-			List<Double> detourDistanceRatios = new ArrayList<>();
-			List<Double> euclideanDistances = new ArrayList<>();
-			List<Double> directDistances = new ArrayList<>();
-			List<Double> inVehicleTravelTimes = new ArrayList<>();
-			List<Double> totalTravelTimes = new ArrayList<>();
-
-			CSVPrinter tsvWriter = null;
-			if (!onlyShape) {
-				tsvWriter = new CSVPrinter(new FileWriter(outputTripsPath.toString()), CSVFormat.TDF);
-				List<String> titleRow = Arrays.asList(
+		} finally {
+			if (directRouteEstimator != null) {
+				directRouteEstimator.close();
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Read the legs of the mode and write one row per leg, unless only the shape file is written.
+	 */
+	private void readLegs(Path tripsFile, String mode, ModeStatistics stats, Path outputTripsPath) throws IOException {
+		try (CSVParser parser = new CSVParser(Files.newBufferedReader(tripsFile), CSVFormat.DEFAULT.withDelimiter(';').withFirstRecordAsHeader());
+			 CSVPrinter tsvWriter = onlyShape ? null : new CSVPrinter(new FileWriter(outputTripsPath.toString()), CSVFormat.TDF)) {
+			if (tsvWriter != null) {
+				tsvWriter.printRecord(Arrays.asList(
 						"departure_time", "waiting_time", "in_vehicle_time", "total_travel_time",
 						"est_direct_in_vehicle_time", "actual_travel_distance", "est_direct_drive_distance",
-						"euclidean_distance", "onboard_delay_ratio", "detour_distance_ratio");
-				tsvWriter.printRecord(titleRow);
+						"euclidean_distance", "onboard_delay_ratio", "detour_distance_ratio"));
 			}
 
-			int numOfTrips = 0;
-			try (CSVParser parser = new CSVParser(Files.newBufferedReader(tripsFile),
-					CSVFormat.DEFAULT.withDelimiter(';').withFirstRecordAsHeader())) {
-				for (CSVRecord row : parser.getRecords()) {
-					double waitingTime = Double.parseDouble(row.get(9));
-
-					if (!onlyShape) {
-						Link fromLink = network.getLinks().get(Id.createLinkId(row.get(3)));
-						Link toLink = network.getLinks().get(Id.createLinkId(row.get(6)));
-						double departureTime = Double.parseDouble(row.get(0));
-						Vehicle vehicle = null;
-						if (mode.equals("av")) {
-							vehicle = avVehicle;
-						}
-						LeastCostPathCalculator.Path path = router.calcLeastCostPath(fromLink.getToNode(), toLink.getFromNode(),
-								departureTime, null, vehicle);
-						path.links.add(toLink);
-						double estimatedDirectInVehicleTime = path.travelTime + travelTime.getLinkTravelTime(toLink, path.travelTime + departureTime, null, null) + 2;
-						double estimatedDirectTravelDistance = path.links.stream().map(Link::getLength).mapToDouble(l -> l).sum();
-						double actualInVehicleTime = Double.parseDouble(row.get(11));
-						double totalTravelTime = waitingTime + actualInVehicleTime;
-						double actualTravelDistance = Double.parseDouble(row.get(12));
-						double euclideanDistance = DistanceUtils.calculateDistance(fromLink.getToNode().getCoord(), toLink.getToNode().getCoord());
-						double onboardDelayRatio = actualInVehicleTime / estimatedDirectInVehicleTime - 1;
-						double detourRatioDistance = actualTravelDistance / estimatedDirectTravelDistance - 1;
-
-						allWaitingTimes.add(waitingTime);
-						onboardDelayRatios.add(onboardDelayRatio);
-						detourDistanceRatios.add(detourRatioDistance);
-						euclideanDistances.add(euclideanDistance);
-						directDistances.add(estimatedDirectTravelDistance);
-						inVehicleTravelTimes.add(actualInVehicleTime);
-						totalTravelTimes.add(totalTravelTime);
-
-						List<String> outputRow = new ArrayList<>();
-						outputRow.add(Double.toString(departureTime));
-						outputRow.add(Double.toString(waitingTime));
-						outputRow.add(Double.toString(actualInVehicleTime));
-						outputRow.add(Double.toString(totalTravelTime));
-						outputRow.add(Double.toString(estimatedDirectInVehicleTime));
-						outputRow.add(Double.toString(actualTravelDistance));
-						outputRow.add(Double.toString(estimatedDirectTravelDistance));
-						outputRow.add(Double.toString(euclideanDistance));
-						outputRow.add(Double.toString(onboardDelayRatio));
-						outputRow.add(Double.toString(detourRatioDistance));
-
-						tsvWriter.printRecord(outputRow);
-					}
-
-					//-------------spatial analysis
-					Coord fromCoord = new Coord(Double.parseDouble(row.get(4)), Double.parseDouble(row.get(5)));
-					Coord toCoord = new Coord(Double.parseDouble(row.get(7)), Double.parseDouble(row.get(8)));
-
-					Set<SimpleFeature> originFeatures = getSimpleFeaturesContainingCoord(shpWaitingTimes.keySet(), fromCoord);
-					//waiting time is monitored for the geometry containing the from coordinate
-					if (originFeatures != null) {
-						if (originFeatures.size() > 1) {
-							log.warn("from coordinate " + fromCoord + " appears to be covered by several SimpleFeatures. It will be part of all of their statistics.\n" +
-									"csv record = " + row);
-						}
-						for (SimpleFeature originFeature : originFeatures) {
-							shpWaitingTimes.get(originFeature).add(waitingTime);
-							originFeature.setAttribute(FEATURE_ORIGINS_ATTRIBUTE_NAME, (int) originFeature.getAttribute(FEATURE_ORIGINS_ATTRIBUTE_NAME) + 1);
-						}
-					}
-					Set<SimpleFeature> destinationFeatures = getSimpleFeaturesContainingCoord(shpWaitingTimes.keySet(), toCoord);
-					if (destinationFeatures != null) {
-						for (SimpleFeature destinationFeature : destinationFeatures) {
-							shpWaitingTimes.get(destinationFeature).add(waitingTime);
-							destinationFeature.setAttribute(FEATURE_DESTINATIONS_ATTRIBUTE_NAME, (int) destinationFeature.getAttribute(FEATURE_DESTINATIONS_ATTRIBUTE_NAME) + 1);
-						}
-					}
-
-					numOfTrips++;
+			// the legs are processed in batches, so that the direct routes of a batch can be estimated concurrently
+			Iterator<CSVRecord> records = parser.iterator();
+			List<CSVRecord> rows = new ArrayList<>(BATCH_SIZE);
+			long routingTime = 0;
+			while (records.hasNext()) {
+				rows.clear();
+				while (records.hasNext() && rows.size() < BATCH_SIZE) {
+					rows.add(records.next());
 				}
+
+				DirectRouteEstimator.DirectRoute[] directRoutes = null;
+				if (tsvWriter != null) {
+					long start = System.currentTimeMillis();
+					directRoutes = estimateDirectRoutes(rows, mode);
+					routingTime += System.currentTimeMillis() - start;
+				}
+				processBatch(rows, directRoutes, stats, tsvWriter);
 			}
-			tsvWriter.close();
-
-			if (!onlyShape) {
-
-				CSVPrinter tsvWriterKPI = new CSVPrinter(new FileWriter(outputStatsPath.toString()), CSVFormat.TDF);
-				List<String> titleRowKPI = Arrays.asList(
-						"number_of_requests", "waiting_time_mean", "waiting_time_median", "waiting_time_95_percentile",
-						"onboard_delay_ratio_mean", "detour_distance_ratio_mean", "trips_euclidean_distance_mean", "trips_direct_network_distance_mean",
-						"in_vehicle_travel_time_mean", "total_travel_time_mean");
-				tsvWriterKPI.printRecord(titleRowKPI);
-
-//            List<Double> allWaitingTimes = waitingTimes.values().stream().flatMap(List::stream).collect(Collectors.toList());
-				int meanWaitingTime = (int) allWaitingTimes.stream().mapToDouble(w -> w).average().orElse(-1);
-				int medianWaitingTime = (int) StatUtils.percentile(allWaitingTimes.stream().mapToDouble(t -> t).toArray(), 50);
-				int waitingTime95Percentile = (int) StatUtils.percentile(allWaitingTimes.stream().mapToDouble(t -> t).toArray(), 95);
-
-				double meanDelayRatio = Precision.round(onboardDelayRatios.stream().mapToDouble(r -> r).average().orElse(-1), 2);
-				double meanDetourDistanceRatio = Precision.round(detourDistanceRatios.stream().mapToDouble(d -> d).average().orElse(-1), 2);
-
-				double meanEuclideanDistance = Precision.round(euclideanDistances.stream().mapToDouble(r -> r).average().orElse(-1), 2);
-				double meanDirectNetworkDistance = Precision.round(directDistances.stream().mapToDouble(r -> r).average().orElse(-1), 2);
-				double meanInVehicleTravelTime = Precision.round(inVehicleTravelTimes.stream().mapToDouble(r -> r).average().orElse(-1), 2);
-				double meanTotalTravelTime = Precision.round(totalTravelTimes.stream().mapToDouble(r -> r).average().orElse(-1), 2);
-
-				List<String> outputKPIRow = new ArrayList<>();
-				outputKPIRow.add(Integer.toString(numOfTrips));
-				outputKPIRow.add(Integer.toString(meanWaitingTime));
-				outputKPIRow.add(Integer.toString(medianWaitingTime));
-				outputKPIRow.add(Integer.toString(waitingTime95Percentile));
-				outputKPIRow.add(Double.toString(meanDelayRatio));
-				outputKPIRow.add(Double.toString(meanDetourDistanceRatio));
-				outputKPIRow.add(Double.toString(meanEuclideanDistance));
-				outputKPIRow.add(Double.toString(meanDirectNetworkDistance));
-				outputKPIRow.add(Double.toString(meanInVehicleTravelTime));
-				outputKPIRow.add(Double.toString(meanTotalTravelTime));
-
-				tsvWriterKPI.printRecord(outputKPIRow);
-
-				tsvWriterKPI.close();
+			if (tsvWriter != null) {
+				log.info("Estimated " + stats.numOfTrips + " direct routes of mode " + mode + " in " + routingTime + " ms");
 			}
+		}
+	}
 
-			//spatial analysis
-			shpWaitingTimes.forEach((feature, waitingTimes) -> {
-						feature.setAttribute(FEATURE_MEAN_WAIT_ATTRIBUTE_NAME, StatUtils.mean((waitingTimes.stream().mapToDouble(t -> t).toArray())));
-						feature.setAttribute(FEATURE_95PCT_WAIT_ATTRIBUTE_NAME, StatUtils.percentile(waitingTimes.stream().mapToDouble(t -> t).toArray(), 95));
-					}
-			);
-			ShapeFileWriter.writeGeometries(shpWaitingTimes.keySet(), outputFolder + "/" + mode + "_serviceZones_waitStats.shp");
+	private DirectRouteEstimator.DirectRoute[] estimateDirectRoutes(List<CSVRecord> rows, String mode) {
+		List<DirectRouteEstimator.Trip> trips = new ArrayList<>(rows.size());
+		for (CSVRecord row : rows) {
+			trips.add(new DirectRouteEstimator.Trip(network.getLinks().get(Id.createLinkId(row.get(3))),
+					network.getLinks().get(Id.createLinkId(row.get(6))), Double.parseDouble(row.get(0))));
 		}
-		return 0;
+		return directRouteEstimator.estimate(trips, mode.equals("av") ? avVehicle : null);
+	}
+
+	/**
+	 * Add the legs of a batch to the statistics.
+	 *
+	 * @param directRoutes direct routes of the legs, null if only the shape file is written
+	 * @param tsvWriter    writer of the trips, null if only the shape file is written
+	 */
+	private void processBatch(List<CSVRecord> rows, DirectRouteEstimator.DirectRoute[] directRoutes, ModeStatistics stats,
+							  CSVPrinter tsvWriter) throws IOException {
+		for (int i = 0; i < rows.size(); i++) {
+			CSVRecord row = rows.get(i);
+			double waitingTime = Double.parseDouble(row.get(9));
+
+			if (tsvWriter != null) {
+				processTrip(row, directRoutes[i], stats, tsvWriter);
+			}
+
+			//-------------spatial analysis
+			Coord fromCoord = new Coord(Double.parseDouble(row.get(4)), Double.parseDouble(row.get(5)));
+			Coord toCoord = new Coord(Double.parseDouble(row.get(7)), Double.parseDouble(row.get(8)));
+
+			int[] originZones = zoneIndex.findZones(fromCoord);
+			//waiting time is monitored for the geometry containing the from coordinate
+			if (originZones.length > 1) {
+				log.warn("from coordinate " + fromCoord + " appears to be covered by several SimpleFeatures. It will be part of all of their statistics.\n" +
+						"csv record = " + row);
+			}
+			for (int zone : originZones) {
+				stats.zoneWaitingTimes[zone].add(waitingTime);
+				stats.zoneOrigins[zone]++;
+			}
+			for (int zone : zoneIndex.findZones(toCoord)) {
+				stats.zoneWaitingTimes[zone].add(waitingTime);
+				stats.zoneDestinations[zone]++;
+			}
+
+			stats.numOfTrips++;
+		}
+	}
+
+	private void processTrip(CSVRecord row, DirectRouteEstimator.DirectRoute directRoute, ModeStatistics stats, CSVPrinter tsvWriter) throws IOException {
+		Link fromLink = network.getLinks().get(Id.createLinkId(row.get(3)));
+		Link toLink = network.getLinks().get(Id.createLinkId(row.get(6)));
+		double departureTime = Double.parseDouble(row.get(0));
+		double waitingTime = Double.parseDouble(row.get(9));
+		double estimatedDirectInVehicleTime = directRoute.inVehicleTime();
+		double estimatedDirectTravelDistance = directRoute.distance();
+		double actualInVehicleTime = Double.parseDouble(row.get(11));
+		double totalTravelTime = waitingTime + actualInVehicleTime;
+		double actualTravelDistance = Double.parseDouble(row.get(12));
+		double euclideanDistance = DistanceUtils.calculateDistance(fromLink.getToNode().getCoord(), toLink.getToNode().getCoord());
+		double onboardDelayRatio = actualInVehicleTime / estimatedDirectInVehicleTime - 1;
+		double detourRatioDistance = actualTravelDistance / estimatedDirectTravelDistance - 1;
+
+		stats.allWaitingTimes.add(waitingTime);
+		stats.onboardDelayRatios.accept(onboardDelayRatio);
+		stats.detourDistanceRatios.accept(detourRatioDistance);
+		stats.euclideanDistances.accept(euclideanDistance);
+		stats.directDistances.accept(estimatedDirectTravelDistance);
+		stats.inVehicleTravelTimes.accept(actualInVehicleTime);
+		stats.totalTravelTimes.accept(totalTravelTime);
+
+		List<String> outputRow = new ArrayList<>();
+		outputRow.add(Double.toString(departureTime));
+		outputRow.add(Double.toString(waitingTime));
+		outputRow.add(Double.toString(actualInVehicleTime));
+		outputRow.add(Double.toString(totalTravelTime));
+		outputRow.add(Double.toString(estimatedDirectInVehicleTime));
+		outputRow.add(Double.toString(actualTravelDistance));
+		outputRow.add(Double.toString(estimatedDirectTravelDistance));
+		outputRow.add(Double.toString(euclideanDistance));
+		outputRow.add(Double.toString(onboardDelayRatio));
+		outputRow.add(Double.toString(detourRatioDistance));
+
+		tsvWriter.printRecord(outputRow);
 	}
 
-	private Set<SimpleFeature> getSimpleFeaturesContainingCoord(Set<SimpleFeature> simpleFeatureSet, Coord coord) {
-		return simpleFeatureSet.stream()
-				.filter(feature -> ShpGeometryUtils.isCoordInGeometries(coord, List.of((Geometry) feature.getDefaultGeometry())))
-				.collect(Collectors.toSet());
+	private static void writeKPIs(Path outputStatsPath, ModeStatistics stats) throws IOException {
+		try (CSVPrinter tsvWriterKPI = new CSVPrinter(new FileWriter(outputStatsPath.toString()), CSVFormat.TDF)) {
+			List<String> titleRowKPI = Arrays.asList(
+					"number_of_requests", "waiting_time_mean", "waiting_time_median", "waiting_time_95_percentile",
+					"onboard_delay_ratio_mean", "detour_distance_ratio_mean", "trips_euclidean_distance_mean", "trips_direct_network_distance_mean",
+					"in_vehicle_travel_time_mean", "total_travel_time_mean");
+			tsvWriterKPI.printRecord(titleRowKPI);
+
+			int meanWaitingTime = (int) (stats.allWaitingTimes.getCount() == 0 ? -1 : stats.allWaitingTimes.mean());
+			int medianWaitingTime = (int) stats.allWaitingTimes.percentile(50);
+			int waitingTime95Percentile = (int) stats.allWaitingTimes.percentile(95);
+
+			double meanDelayRatio = Precision.round(mean(stats.onboardDelayRatios), 2);
+			double meanDetourDistanceRatio = Precision.round(mean(stats.detourDistanceRatios), 2);
+
+			double meanEuclideanDistance = Precision.round(mean(stats.euclideanDistances), 2);
+			double meanDirectNetworkDistance = Precision.round(mean(stats.directDistances), 2);
+			double meanInVehicleTravelTime = Precision.round(mean(stats.inVehicleTravelTimes), 2);
+			double meanTotalTravelTime = Precision.round(mean(stats.totalTravelTimes), 2);
+
+			List<String> outputKPIRow = new ArrayList<>();
+			outputKPIRow.add(Integer.toString(stats.numOfTrips));
+			outputKPIRow.add(Integer.toString(meanWaitingTime));
+			outputKPIRow.add(Integer.toString(medianWaitingTime));
+			outputKPIRow.add(Integer.toString(waitingTime95Percentile));
+			outputKPIRow.add(Double.toString(meanDelayRatio));
+			outputKPIRow.add(Double.toString(meanDetourDistanceRatio));
+			outputKPIRow.add(Double.toString(meanEuclideanDistance));
+			outputKPIRow.add(Double.toString(meanDirectNetworkDistance));
+			outputKPIRow.add(Double.toString(meanInVehicleTravelTime));
+			outputKPIRow.add(Double.toString(meanTotalTravelTime));
+
+			tsvWriterKPI.printRecord(outputKPIRow);
+		}
 	}
 
+	/**
+	 * Write the statistics per zone to the features, which are indexed like the zone index.
+	 */
+	private static void writeServiceZones(List<SimpleFeature> shpFeatures, ModeStatistics stats, String file) {
+		for (int i = 0; i < shpFeatures.size(); i++) {
+			SimpleFeature feature = shpFeatures.get(i);
+			feature.setAttribute(FEATURE_ORIGINS_ATTRIBUTE_NAME, stats.zoneOrigins[i]);
+			feature.setAttribute(FEATURE_DESTINATIONS_ATTRIBUTE_NAME, stats.zoneDestinations[i]);
+			feature.setAttribute(FEATURE_MEAN_WAIT_ATTRIBUTE_NAME, stats.zoneWaitingTimes[i].mean());
+			feature.setAttribute(FEATURE_95PCT_WAIT_ATTRIBUTE_NAME, stats.zoneWaitingTimes[i].percentile(95));
+		}
+		ShapeFileWriter.writeGeometries(shpFeatures, file);
+	}
+
+	/**
+	 * Mean of the values, -1 if there are none.
+	 */
+	private static double mean(DoubleSummaryStatistics stats) {
+		return stats.getCount() == 0 ? -1 : stats.getAverage();
+	}
+
+	/**
+	 * Statistics of the legs of one mode, in total and per zone.
+	 */
+	private static final class ModeStatistics {
+		private final QuantileSketch allWaitingTimes = new QuantileSketch(1, WAITING_TIME_BINS);
+		private final int[] zoneOrigins;
+		private final int[] zoneDestinations;
+		private final QuantileSketch[] zoneWaitingTimes;
+		private final DoubleSummaryStatistics onboardDelayRatios = new DoubleSummaryStatistics();
+		private final DoubleSummaryStatistics detourDistanceRatios = new DoubleSummaryStatistics();
+		private final DoubleSummaryStatistics euclideanDistances = new DoubleSummaryStatistics();
+		private final DoubleSummaryStatistics directDistances = new DoubleSummaryStatistics();
+		private final DoubleSummaryStatistics inVehicleTravelTimes = new DoubleSummaryStatistics();
+		private final DoubleSummaryStatistics totalTravelTimes = new DoubleSummaryStatistics();
+		private int numOfTrips;
+
+		ModeStatistics(int numberOfZones) {
+			this.zoneOrigins = new int[numberOfZones];
+			this.zoneDestinations = new int[numberOfZones];
+			this.zoneWaitingTimes = new QuantileSketch[numberOfZones];
+			for (int i = 0; i < numberOfZones; i++) {
+				zoneWaitingTimes[i] = new QuantileSketch(1, WAITING_TIME_BINS);
+			}
+		}
+	}
 }
@@ -2,8 +2,12 @@ package org.matsim.analysis.postAnalysis.drt;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
-import org.apache.commons.lang.mutable.MutableInt;
 import org.apache.commons.lang3.time.DurationFormatUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.analysis.postAnalysis.EventsAnalysisStage;
+import org.matsim.analysis.postAnalysis.events.ColumnarEvents;
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.events.LinkEnterEvent;
 import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
@@ -14,7 +18,7 @@ import org.matsim.api.core.v01.network.Network;
 import org.matsim.application.MATSimAppCommand;
 import org.matsim.contrib.drt.run.DrtConfigGroup;
 import org.matsim.contrib.drt.run.MultiModeDrtConfigGroup;
-import org.matsim.contrib.drt.util.DrtEventsReaders;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
 import org.matsim.contrib.dvrp.fleet.FleetReader;
 import org.matsim.contrib.dvrp.fleet.FleetSpecification;
 import org.matsim.contrib.dvrp.fleet.FleetSpecificationImpl;
@@ -26,18 +30,23 @@ import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.events.EventsUtils;
-import org.matsim.core.events.MatsimEventsReader;
+import org.matsim.core.events.handler.EventHandler;
 import org.matsim.core.network.NetworkUtils;
 import picocli.CommandLine;
 
-import java.io.FileWriter;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.matsim.application.ApplicationUtils.globFile;
 
@@ -50,145 +59,246 @@ import static org.matsim.application.ApplicationUtils.globFile;
 		name = "road-usage",
 		description = "Analyze road usage by drt vehicles"
 )
-public class DrtVehiclesRoadUsageAnalysis implements MATSimAppCommand {
+public class DrtVehiclesRoadUsageAnalysis implements MATSimAppCommand, EventsAnalysisStage {
+	private static final Logger log = LogManager.getLogger(DrtVehiclesRoadUsageAnalysis.class);
+
 	@CommandLine.Option(names = "--directory", description = "path to the directory of the simulation output", required = true)
 	private Path directory;
 
 	@CommandLine.Option(names = "--time-bin", description = "Time bin sie in second", defaultValue = "3600")
 	private int timeBinSize;
 
+	@CommandLine.Option(names = "--horizon", description = "End of the analyzed time in seconds, later events are ignored", defaultValue = "108000")
+	private double horizon;
+
+	@CommandLine.Option(names = "--sparse", defaultValue = "false", description = "Only write links that are used at least once")
+	private boolean sparse;
+
+	private Path outputFolder;
+	private Network network;
+	private VehicleLinkUsageRecorder recorder;
+
 	public static void main(String[] args) {
 		new DrtVehiclesRoadUsageAnalysis().execute(args);
 	}
 
 	@Override
 	public Integer call() throws Exception {
+		Path eventsFilePath = globFile(directory, "*output_events.*");
+
+		EventsManager eventsManager = EventsUtils.createEventsManager();
+		List<EventHandler> handlers = prepare();
+		handlers.forEach(eventsManager::addHandler);
+		ColumnarEvents.read(eventsManager, handlers, eventsFilePath);
+
+		finish();
+		return 0;
+	}
+
+	@Override
+	public List<EventHandler> prepare() throws IOException {
 		Path configPath = globFile(directory, "*output_config.*");
 		Path networkPath = globFile(directory, "*output_network.*");
-		Path eventsFilePath = globFile(directory, "*output_events.*");
-		Path outputFolder = Path.of(directory.toString() + "/analysis-road-usage");
+		outputFolder = Path.of(directory.toString() + "/analysis-road-usage");
 
 		if (!Files.exists(outputFolder)) {
 			Files.createDirectory(outputFolder);
 		}
 
-		Network network = NetworkUtils.readNetwork(networkPath.toString());
-		EventsManager eventsManager = EventsUtils.createEventsManager();
+		network = NetworkUtils.readNetwork(networkPath.toString());
 
 		Config config = ConfigUtils.loadConfig(configPath.toString());
 		MultiModeDrtConfigGroup multiModeDrtConfigGroup = ConfigUtils.addOrGetModule(config, MultiModeDrtConfigGroup.class);
-		Map<String, VehicleLinkUsageRecorder> handlerMap = new HashMap<>();
+		Map<String, FleetSpecification> fleets = new LinkedHashMap<>();
 
 		for (DrtConfigGroup drtCfg : multiModeDrtConfigGroup.getModalElements()) {
 			String mode = drtCfg.getMode();
 			Path vehicleFilePath = globFile(directory, "*" + mode + "_vehicles.*");
 			FleetSpecification fleetSpecification = new FleetSpecificationImpl();
 			new FleetReader(fleetSpecification).parse(vehicleFilePath.toUri().toURL());
-			List<String> vehicleIdStrings = fleetSpecification.getVehicleSpecifications().keySet().
-					stream().map(Object::toString).collect(Collectors.toList());
-			VehicleLinkUsageRecorder vehicleLinkUsageRecorder = new VehicleLinkUsageRecorder(network, timeBinSize, TransportMode.drt, vehicleIdStrings);
-			handlerMap.put(mode, vehicleLinkUsageRecorder);
-			eventsManager.addHandler(vehicleLinkUsageRecorder);
-		}
-
-		MatsimEventsReader eventsReader = DrtEventsReaders.createEventsReader(eventsManager);
-		eventsReader.readFile(eventsFilePath.toString());
-
-		// Write results
-		for (String mode : handlerMap.keySet()) {
-			Map<String, Map<Integer, MutableInt>> vehicleRoadUsageRecordMap = handlerMap.get(mode).getVehicleRoadUsageRecordMap();
-			Map<String, Map<Integer, MutableInt>> passengerRoadUsageMap = handlerMap.get(mode).getPassengerRoadUsageMap();
-
-			String vehicleRoadUsageFile = outputFolder + "/" + mode + "_vehicle_road_usage.tsv";
-			String passengerRoadUsageFile = outputFolder + "/" + mode + "_passenger_road_usage.tsv";
-			CSVPrinter vehicleRoadUsageWriter = new CSVPrinter(new FileWriter(vehicleRoadUsageFile), CSVFormat.TDF);
-			CSVPrinter passengerRoadUsageWriter = new CSVPrinter(new FileWriter(passengerRoadUsageFile), CSVFormat.TDF);
-
-			List<String> header = new ArrayList<>();
-			header.add("link_id");
-			int numOfTimeBins = 86400 / timeBinSize;
-			for (int i = 0; i < numOfTimeBins; i++) {
-				int time = i * timeBinSize;
-				String formattedTime = DurationFormatUtils.formatDuration(time * 1000L, "HH:MM:SS", true);
-				header.add(formattedTime);
+			fleets.put(mode, fleetSpecification);
+		}
+
+		// one recorder for all modes, so that each event is only dispatched once
+		recorder = new VehicleLinkUsageRecorder(network, timeBinSize, horizon, TransportMode.drt, fleets);
+		return List.of(recorder);
+	}
+
+	@Override
+	public void finish() throws IOException {
+		if (recorder.getEventsAfterHorizon() > 0) {
+			log.warn(recorder.getEventsAfterHorizon() + " events of drt vehicles after the horizon of " + horizon + " s have been ignored");
+		}
+
+		List<String> header = new ArrayList<>();
+		header.add("link_id");
+		for (int i = 0; i < recorder.getNumberOfTimeBins(); i++) {
+			long time = (long) i * timeBinSize;
+			header.add(DurationFormatUtils.formatDuration(time * 1000L, "HH:mm:ss", true));
+		}
+		header.add("sum");
+
+		// Write results, each file by its own thread
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(2 * recorder.getModes().size(), Runtime.getRuntime().availableProcessors())));
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int m = 0; m < recorder.getModes().size(); m++) {
+				String mode = recorder.getModes().get(m);
+				int modeIndex = m;
+				futures.add(executor.submit(() -> write(Path.of(outputFolder + "/" + mode + "_vehicle_road_usage.tsv"), header, network,
+						(linkId, bin) -> recorder.getVehicleRoadUsage(modeIndex, linkId, bin), recorder.getNumberOfTimeBins())));
+				futures.add(executor.submit(() -> write(Path.of(outputFolder + "/" + mode + "_passenger_road_usage.tsv"), header, network,
+						(linkId, bin) -> recorder.getPassengerRoadUsage(modeIndex, linkId, bin), recorder.getNumberOfTimeBins())));
+			}
+			for (Future<?> future : futures) {
+				future.get();
 			}
-			header.add("sum");
-			vehicleRoadUsageWriter.printRecord(header);
-			passengerRoadUsageWriter.printRecord(header);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Could not write road usage", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing road usage", e);
+		} finally {
+			executor.shutdown();
+		}
+	}
 
+	/**
+	 * Write one row per drt link, in sparse mode only links with at least one count.
+	 */
+	private Void write(Path file, List<String> header, Network network, Counts counts, int numberOfTimeBins) throws IOException {
+		int[] row = new int[numberOfTimeBins];
+		try (CSVPrinter writer = new CSVPrinter(Files.newBufferedWriter(file), CSVFormat.TDF)) {
+			writer.printRecord(header);
 			for (Link link : network.getLinks().values()) {
-				if (link.getAllowedModes().contains(TransportMode.drt)) {
-					List<String> vehicleEntry = new ArrayList<>();
-					List<String> passengerEntry = new ArrayList<>();
-					vehicleEntry.add(link.getId().toString());
-					passengerEntry.add(link.getId().toString());
-					MutableInt vehicleSum = new MutableInt(0);
-					MutableInt passengerSum = new MutableInt(0);
-					for (int i = 0; i < numOfTimeBins; i++) {
-						int vehicleRoadUsage = vehicleRoadUsageRecordMap.get(link.getId().toString()).get(i).intValue();
-						vehicleSum.add(vehicleRoadUsage);
-						vehicleEntry.add(Integer.toString(vehicleRoadUsage));
-						int passengerRoadUsage = passengerRoadUsageMap.get(link.getId().toString()).get(i).intValue();
-						passengerSum.add(passengerRoadUsage);
-						passengerEntry.add(Integer.toString(passengerRoadUsage));
-					}
-					vehicleEntry.add(Integer.toString(vehicleSum.intValue()));
-					passengerEntry.add(Integer.toString(passengerSum.intValue()));
-					vehicleRoadUsageWriter.printRecord(vehicleEntry);
-					passengerRoadUsageWriter.printRecord(passengerEntry);
+				if (!link.getAllowedModes().contains(TransportMode.drt)) {
+					continue;
+				}
+				long sum = 0;
+				for (int i = 0; i < numberOfTimeBins; i++) {
+					row[i] = counts.get(link.getId(), i);
+					sum += row[i];
+				}
+				if (sparse && sum == 0) {
+					continue;
 				}
+				writer.print(link.getId().toString());
+				for (int value : row) {
+					writer.print(value);
+				}
+				writer.print(sum);
+				writer.println();
 			}
-			vehicleRoadUsageWriter.close();
-			passengerRoadUsageWriter.close();
 		}
-		return 0;
+		return null;
 	}
 
+	/**
+	 * Counts of one mode and one kind of road usage.
+	 */
+	@FunctionalInterface
+	private interface Counts {
+		int get(Id<Link> linkId, int timeBin);
+	}
+
+	/**
+	 * Records the road usage of the vehicles of several drt fleets. The mode of a vehicle is looked up by its id index, so each event is
+	 * dispatched to the counters of its mode in constant time.
+	 */
 	static class VehicleLinkUsageRecorder implements LinkEnterEventHandler, VehicleEntersTrafficEventHandler,
 			PassengerPickedUpEventHandler, PassengerDroppedOffEventHandler {
-		private final Network network;
 		private final int timeBinSize;
-		private final Map<String, Map<Integer, MutableInt>> vehicleRoadUsageRecordMap = new HashMap<>();
-		private final Map<String, MutableInt> vehiclesOccupancyTracker = new HashMap<>();
-		private final Map<String, Map<Integer, MutableInt>> passengerRoadUsageMap = new HashMap<>();
-
-		private final String mode;
-		private final List<String> vehicleIdStrings;
+		private final double horizon;
+		private final int numberOfTimeBins;
+		private final List<String> modes;
+		/**
+		 * Compact index of each link with the link mode, -1 for all other links, by link id index. Only these links have counters.
+		 */
+		private final int[] compactLinkIndex;
+		/**
+		 * Counts per mode by {@code compactLinkIndex * numberOfTimeBins + timeBin}.
+		 */
+		private final int[][] vehicleRoadUsage;
+		private final int[][] passengerRoadUsage;
+		/**
+		 * Index of the mode of each fleet vehicle, -1 for all other vehicles, and the current occupancy, by vehicle id index.
+		 */
+		private final int[] modeOfVehicle;
+		private final int[] vehiclesOccupancy;
+		private long eventsAfterHorizon;
+
+		/**
+		 * Create the recorder.
+		 *
+		 * @param horizon  events at or after this time are not recorded
+		 * @param linkMode only links that allow this mode are recorded
+		 * @param fleets   fleets by mode
+		 */
+		VehicleLinkUsageRecorder(Network network, int timeBinSize, double horizon, String linkMode, Map<String, FleetSpecification> fleets) {
+			this.timeBinSize = timeBinSize;
+			this.horizon = horizon;
+			this.numberOfTimeBins = (int) Math.ceil(horizon / timeBinSize);
+			this.modes = List.copyOf(fleets.keySet());
+
+			// link events refer to the vehicles by Id<Vehicle>, which has a different index than the Id<DvrpVehicle> of the fleet
+			BitSet fleetVehicles = new BitSet();
+			for (FleetSpecification fleet : fleets.values()) {
+				for (Id<DvrpVehicle> vehicleId : fleet.getVehicleSpecifications().keySet()) {
+					fleetVehicles.set(getVehicleIndex(vehicleId));
+				}
+			}
+			this.modeOfVehicle = new int[fleetVehicles.length()];
+			this.vehiclesOccupancy = new int[fleetVehicles.length()];
+			Arrays.fill(modeOfVehicle, -1);
+			for (int m = 0; m < modes.size(); m++) {
+				for (Id<DvrpVehicle> vehicleId : fleets.get(modes.get(m)).getVehicleSpecifications().keySet()) {
+					modeOfVehicle[getVehicleIndex(vehicleId)] = m;
+				}
+			}
 
+			this.compactLinkIndex = new int[Id.getNumberOfIds(Link.class)];
+			Arrays.fill(compactLinkIndex, -1);
+			int numberOfLinks = 0;
+			for (Link link : network.getLinks().values()) {
+				if (link.getAllowedModes().contains(linkMode)) {
+					compactLinkIndex[link.getId().index()] = numberOfLinks++;
+				}
+			}
 
-		VehicleLinkUsageRecorder(Network network, int timeBinSize, String mode, List<String> vehicleIdStrings) {
-			this.network = network;
-			this.timeBinSize = timeBinSize;
-			this.mode = mode;
-			this.vehicleIdStrings = vehicleIdStrings;
+			int numberOfCounters;
+			try {
+				numberOfCounters = Math.multiplyExact(numberOfLinks, numberOfTimeBins);
+			} catch (ArithmeticException e) {
+				throw new IllegalArgumentException(numberOfLinks + " links with mode " + linkMode + " and " + numberOfTimeBins
+						+ " time bins exceed the maximum number of counters, use a larger time bin size or a shorter horizon", e);
+			}
+			this.vehicleRoadUsage = new int[modes.size()][numberOfCounters];
+			this.passengerRoadUsage = new int[modes.size()][numberOfCounters];
 			reset(0);
 		}
 
 		@Override
 		public void handleEvent(LinkEnterEvent event) {
-			if (vehicleIdStrings.contains(event.getVehicleId().toString())) {
-				String linkIdString = event.getLinkId().toString();
-				double time = event.getTime();
-				if (time <= 86400 && vehicleRoadUsageRecordMap.containsKey(linkIdString)) {
-					int timeBin = (int) (time / timeBinSize);
-					vehicleRoadUsageRecordMap.get(linkIdString).get(timeBin).increment();
-					int passengerOnBoard = vehiclesOccupancyTracker.get(event.getVehicleId().toString()).intValue();
+			int vehicleIndex = event.getVehicleId().index();
+			int mode = getMode(vehicleIndex);
+			if (mode >= 0) {
+				int index = getIndex(event.getLinkId(), event.getTime());
+				if (index >= 0) {
+					vehicleRoadUsage[mode][index]++;
+					int passengerOnBoard = vehiclesOccupancy[vehicleIndex];
 					assert passengerOnBoard >= 0 : "Passenger onboard is smaller than 0! Something has went wrong!";
-					for (int i = 0; i < passengerOnBoard; i++) {
-						passengerRoadUsageMap.get(linkIdString).get(timeBin).increment();
-					}
+					passengerRoadUsage[mode][index] += passengerOnBoard;
 				}
 			}
 		}
 
 		@Override
 		public void handleEvent(VehicleEntersTrafficEvent event) {
-			if (vehicleIdStrings.contains(event.getVehicleId().toString())) {
-				String linkIdString = event.getLinkId().toString();
-				double time = event.getTime();
-				if (time <= 86400 && vehicleRoadUsageRecordMap.containsKey(linkIdString)) {
-					int timeBin = (int) (time / timeBinSize);
-					vehicleRoadUsageRecordMap.get(linkIdString).get(timeBin).increment();
+			int mode = getMode(event.getVehicleId().index());
+			if (mode >= 0) {
+				int index = getIndex(event.getLinkId(), event.getTime());
+				if (index >= 0) {
+					vehicleRoadUsage[mode][index]++;
 
 					// Should we also include the passenger road usage for this event?
 				}
@@ -197,17 +307,17 @@ public class DrtVehiclesRoadUsageAnalysis implements MATSimAppCommand {
 
 		@Override
 		public void handleEvent(PassengerDroppedOffEvent event) {
-			if (vehicleIdStrings.contains(event.getVehicleId().toString())) {
-				String vehicleIdString = event.getVehicleId().toString();
-				vehiclesOccupancyTracker.get(vehicleIdString).decrement();
+			int index = getVehicleIndex(event.getVehicleId());
+			if (getMode(index) >= 0) {
+				vehiclesOccupancy[index]--;
 			}
 		}
 
 		@Override
 		public void handleEvent(PassengerPickedUpEvent event) {
-			if (vehicleIdStrings.contains(event.getVehicleId().toString())) {
-				String vehicleIdString = event.getVehicleId().toString();
-				vehiclesOccupancyTracker.get(vehicleIdString).increment();
+			int index = getVehicleIndex(event.getVehicleId());
+			if (getMode(index) >= 0) {
+				vehiclesOccupancy[index]++;
 			}
 		}
 
@@ -217,39 +327,74 @@ public class DrtVehiclesRoadUsageAnalysis implements MATSimAppCommand {
 		}
 
 		private void initialize() {
-			vehicleRoadUsageRecordMap.clear();
-			passengerRoadUsageMap.clear();
-			vehiclesOccupancyTracker.clear();
-
-			for (Link link : network.getLinks().values()) {
-				if (link.getAllowedModes().contains(mode)) {
-					int timeBins = 86400 / timeBinSize;
-
-					Map<Integer, MutableInt> counterMap = new HashMap<>();
-					for (int i = 0; i < timeBins; i++) {
-						counterMap.put(i, new MutableInt(0));
-					}
-					vehicleRoadUsageRecordMap.put(link.getId().toString(), counterMap);
-
-					Map<Integer, MutableInt> counterMap1 = new HashMap<>();
-					for (int i = 0; i < timeBins; i++) {
-						counterMap1.put(i, new MutableInt(0));
-					}
-					passengerRoadUsageMap.put(link.getId().toString(), counterMap1);
-				}
+			for (int m = 0; m < modes.size(); m++) {
+				Arrays.fill(vehicleRoadUsage[m], 0);
+				Arrays.fill(passengerRoadUsage[m], 0);
 			}
+			Arrays.fill(vehiclesOccupancy, 0);
+			eventsAfterHorizon = 0;
+		}
+
+		/**
+		 * Index of the Id&lt;Vehicle&gt; of a dvrp vehicle, which is only a lookup of the existing id.
+		 */
+		private static int getVehicleIndex(Id<DvrpVehicle> vehicleId) {
+			return Id.createVehicleId(vehicleId.toString()).index();
+		}
 
-			for (String vehicleIdString : vehicleIdStrings) {
-				vehiclesOccupancyTracker.put(vehicleIdString, new MutableInt(0));
+		private int getMode(int vehicleIndex) {
+			return vehicleIndex < modeOfVehicle.length ? modeOfVehicle[vehicleIndex] : -1;
+		}
+
+		/**
+		 * Index of the counters of the link and time, -1 if the link does not allow the link mode or the time is after the horizon.
+		 */
+		private int getIndex(Id<Link> linkId, double time) {
+			if (time >= horizon) {
+				eventsAfterHorizon++;
+				return -1;
+			}
+			int link = getCompactLinkIndex(linkId);
+			if (link < 0) {
+				return -1;
 			}
+			return link * numberOfTimeBins + (int) (time / timeBinSize);
+		}
+
+		/**
+		 * Compact index of the link, -1 if it does not allow the link mode or was created after the recorder.
+		 */
+		private int getCompactLinkIndex(Id<Link> linkId) {
+			int index = linkId.index();
+			return index < compactLinkIndex.length ? compactLinkIndex[index] : -1;
+		}
+
+		List<String> getModes() {
+			return modes;
+		}
+
+		int getNumberOfTimeBins() {
+			return numberOfTimeBins;
+		}
+
+		long getEventsAfterHorizon() {
+			return eventsAfterHorizon;
 		}
 
-		public Map<String, Map<Integer, MutableInt>> getVehicleRoadUsageRecordMap() {
-			return vehicleRoadUsageRecordMap;
+		/**
+		 * Number of vehicles of the mode with the given index that entered the link in the time bin.
+		 */
+		int getVehicleRoadUsage(int mode, Id<Link> linkId, int timeBin) {
+			int link = getCompactLinkIndex(linkId);
+			return link < 0 ? 0 : vehicleRoadUsage[mode][link * numberOfTimeBins + timeBin];
 		}
 
-		public Map<String, Map<Integer, MutableInt>> getPassengerRoadUsageMap() {
-			return passengerRoadUsageMap;
+		/**
+		 * Number of passengers in vehicles of the mode with the given index that entered the link in the time bin.
+		 */
+		int getPassengerRoadUsage(int mode, Id<Link> linkId, int timeBin) {
+			int link = getCompactLinkIndex(linkId);
+			return link < 0 ? 0 : passengerRoadUsage[mode][link * numberOfTimeBins + timeBin];
 		}
 	}
 }
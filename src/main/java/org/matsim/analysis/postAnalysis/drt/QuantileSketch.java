@@ -0,0 +1,147 @@
+package org.matsim.analysis.postAnalysis.drt;
+
+import org.apache.commons.math.stat.StatUtils;
+
+import java.util.Arrays;
+import java.util.DoubleSummaryStatistics;
+
+/**
+ * Mean and percentiles of a stream of values in constant memory.
+ * <p>
+ * Up to a fixed number of values are kept, percentiles are then exact and the same as {@link StatUtils#percentile(double[], double)}.
+ * Above that, the values are counted in a histogram of fixed bin width and percentiles are interpolated within their bin, values
+ * outside the range of the histogram are counted in the first or last bin. The mean is always exact. Sketches with the same bins can be
+ * merged.
+ */
+final class QuantileSketch {
+	static final int DEFAULT_EXACT_LIMIT = 10_000;
+
+	private final double binWidth;
+	private final int numberOfBins;
+	private final int exactLimit;
+	private final DoubleSummaryStatistics stats = new DoubleSummaryStatistics();
+
+	private double[] values = new double[16];
+	/**
+	 * Only allocated when the sketch switches to the histogram.
+	 */
+	private long[] bins;
+
+	/**
+	 * Create a sketch for values in the range [0, binWidth * numberOfBins).
+	 */
+	QuantileSketch(double binWidth, int numberOfBins) {
+		this(binWidth, numberOfBins, DEFAULT_EXACT_LIMIT);
+	}
+
+	QuantileSketch(double binWidth, int numberOfBins, int exactLimit) {
+		if (binWidth <= 0 || numberOfBins <= 0) {
+			throw new IllegalArgumentException("Bin width and number of bins need to be positive");
+		}
+		this.binWidth = binWidth;
+		this.exactLimit = exactLimit;
+		this.numberOfBins = numberOfBins;
+	}
+
+	/**
+	 * Add a value.
+	 */
+	void add(double value) {
+		if (isExact()) {
+			if (stats.getCount() < exactLimit) {
+				if (stats.getCount() == values.length) {
+					values = Arrays.copyOf(values, Math.min(exactLimit, values.length * 2));
+				}
+				values[(int) stats.getCount()] = value;
+			} else {
+				toHistogram();
+				bins[bin(value)]++;
+			}
+		} else {
+			bins[bin(value)]++;
+		}
+		stats.accept(value);
+	}
+
+	/**
+	 * Add all values of the other sketch, which needs to have the same bins.
+	 */
+	void merge(QuantileSketch other) {
+		if (other.binWidth != binWidth || other.numberOfBins != numberOfBins) {
+			throw new IllegalArgumentException("Only sketches with the same bins can be merged");
+		}
+		if (other.isExact() && stats.getCount() + other.stats.getCount() <= exactLimit) {
+			for (int i = 0; i < other.stats.getCount(); i++) {
+				add(other.values[i]);
+			}
+			return;
+		}
+
+		toHistogram();
+		if (other.isExact()) {
+			for (int i = 0; i < other.stats.getCount(); i++) {
+				bins[bin(other.values[i])]++;
+			}
+		} else {
+			for (int i = 0; i < bins.length; i++) {
+				bins[i] += other.bins[i];
+			}
+		}
+		stats.combine(other.stats);
+	}
+
+	long getCount() {
+		return stats.getCount();
+	}
+
+	/**
+	 * Exact mean of all values, NaN if empty.
+	 */
+	double mean() {
+		return stats.getCount() == 0 ? Double.NaN : stats.getAverage();
+	}
+
+	/**
+	 * Percentile of all values, NaN if empty.
+	 *
+	 * @param p percentile in (0, 100]
+	 */
+	double percentile(double p) {
+		if (isExact()) {
+			return StatUtils.percentile(Arrays.copyOf(values, (int) stats.getCount()), p);
+		}
+
+		double rank = p / 100 * stats.getCount();
+		long cumulative = 0;
+		for (int i = 0; i < bins.length; i++) {
+			if (bins[i] > 0 && cumulative + bins[i] >= rank) {
+				double value = (i + (rank - cumulative) / bins[i]) * binWidth;
+				return Math.max(stats.getMin(), Math.min(stats.getMax(), value));
+			}
+			cumulative += bins[i];
+		}
+		return stats.getMax();
+	}
+
+	/**
+	 * Whether all values are still kept, i.e. percentiles are exact.
+	 */
+	boolean isExact() {
+		return bins == null;
+	}
+
+	private void toHistogram() {
+		if (!isExact()) {
+			return;
+		}
+		bins = new long[numberOfBins];
+		for (int i = 0; i < stats.getCount(); i++) {
+			bins[bin(values[i])]++;
+		}
+		values = null;
+	}
+
+	private int bin(double value) {
+		return (int) Math.max(0, Math.min(numberOfBins - 1, Math.floor(value / binWidth)));
+	}
+}
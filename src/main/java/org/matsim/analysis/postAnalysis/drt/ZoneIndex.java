@@ -0,0 +1,74 @@
+package org.matsim.analysis.postAnalysis.drt;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.matsim.api.core.v01.Coord;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Spatial index of zones, which are identified by their index in the list they were created from.
+ * <p>
+ * The geometries are prepared once and stored in an {@link STRtree}, so that only zones whose envelope contains a coordinate are tested.
+ */
+final class ZoneIndex {
+	private static final int[] NONE = new int[0];
+
+	private final STRtree tree = new STRtree();
+	private final GeometryFactory geometryFactory = new GeometryFactory();
+	private final int size;
+
+	ZoneIndex(List<? extends Geometry> zones) {
+		PreparedGeometryFactory factory = new PreparedGeometryFactory();
+		for (int i = 0; i < zones.size(); i++) {
+			Geometry geometry = zones.get(i);
+			tree.insert(geometry.getEnvelopeInternal(), new Zone(i, factory.create(geometry)));
+		}
+		tree.build();
+		this.size = zones.size();
+	}
+
+	/**
+	 * Number of zones.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Indices of all zones containing the coordinate, in ascending order.
+	 */
+	int[] findZones(Coord coord) {
+		Coordinate coordinate = new Coordinate(coord.getX(), coord.getY());
+		@SuppressWarnings("unchecked")
+		List<Zone> candidates = tree.query(new Envelope(coordinate));
+		if (candidates.isEmpty()) {
+			return NONE;
+		}
+
+		Point point = geometryFactory.createPoint(coordinate);
+		int[] result = new int[candidates.size()];
+		int n = 0;
+		for (Zone zone : candidates) {
+			if (zone.geometry.contains(point)) {
+				result[n++] = zone.index;
+			}
+		}
+		if (n == 0) {
+			return NONE;
+		}
+		result = Arrays.copyOf(result, n);
+		Arrays.sort(result);
+		return result;
+	}
+
+	private record Zone(int index, PreparedGeometry geometry) {
+	}
+}
@@ -0,0 +1,191 @@
+package org.matsim.analysis.postAnalysis.events;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.analysis.postAnalysis.EventsAnalysisStage;
+import org.matsim.contrib.drt.util.DrtEventsReaders;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.EventHandler;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Columnar binary format of an events file, stored in the analysis folder next to the events ({@value #FILE_SUFFIX}).
+ * <p>
+ * Events are stored in chunks. Within a chunk, the events of each type are stored in their own block: times as deltas to the previous event
+ * of the block, all other attributes as indices into a dictionary of strings, which grows with each chunk. A column of block indices
+ * restores the original order of the events. Blocks of event types that no handler needs are skipped without decoding them,
+ * see {@link ColumnarEventsReader}.
+ * <p>
+ * The file stores size and modification time of the events file it was converted from and is only used while both are unchanged.
+ */
+public final class ColumnarEvents {
+	static final String FILE_SUFFIX = ".events.bin";
+	static final int MAGIC = 0x4b484556;
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 2 * Integer.BYTES + 2 * Long.BYTES;
+	static final int CHUNK = 1;
+	static final int END = 0;
+	static final byte TIMES_INTEGRAL = 0;
+	static final byte TIMES_DOUBLE = 1;
+
+	private static final Logger log = LogManager.getLogger(ColumnarEvents.class);
+
+	private ColumnarEvents() {
+	}
+
+	/**
+	 * Columnar file of the events file.
+	 */
+	public static Path getFile(Path eventsFile) {
+		String name = eventsFile.getFileName().toString();
+		int dot = name.indexOf('.', name.indexOf("events"));
+		Path parent = eventsFile.toAbsolutePath().getParent();
+		return parent.resolve("analysis").resolve("events").resolve((dot > 0 ? name.substring(0, dot) : name) + FILE_SUFFIX);
+	}
+
+	/**
+	 * Whether the columnar file exists and has been converted from the current events file.
+	 */
+	public static boolean isUpToDate(Path eventsFile) {
+		Path file = getFile(eventsFile);
+		if (!Files.isRegularFile(eventsFile) || !Files.isRegularFile(file)) {
+			return false;
+		}
+		try (InputStream is = Files.newInputStream(file); DataInputStream in = new DataInputStream(new BufferedInputStream(is, HEADER_BYTES))) {
+			return in.readInt() == MAGIC && in.readInt() == VERSION && in.readLong() == Files.size(eventsFile)
+				&& in.readLong() == Files.getLastModifiedTime(eventsFile).toMillis();
+		} catch (IOException e) {
+			log.warn("Could not read columnar events " + file + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Convert the events file into the columnar format, replacing an existing file.
+	 *
+	 * @return the columnar file
+	 */
+	public static Path convert(Path eventsFile) throws IOException {
+		long start = System.currentTimeMillis();
+		Path file = getFile(eventsFile);
+		Path tmp = createTempFile(file);
+		boolean written = false;
+		try {
+			try (ColumnarEventsWriter writer = new ColumnarEventsWriter(tmp, eventsFile)) {
+				EventsManager eventsManager = EventsUtils.createEventsManager();
+				eventsManager.addHandler(writer);
+				eventsManager.initProcessing();
+				DrtEventsReaders.createEventsReader(eventsManager).readFile(eventsFile.toString());
+				eventsManager.finishProcessing();
+			}
+			Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			written = true;
+		} finally {
+			if (!written) {
+				Files.deleteIfExists(tmp);
+			}
+		}
+
+		log.info("Converted " + eventsFile + " (" + Files.size(eventsFile) / 1024 + " KiB) to " + file + " (" + Files.size(file) / 1024
+			+ " KiB) in " + (System.currentTimeMillis() - start) + " ms");
+		return file;
+	}
+
+	/**
+	 * Stage that writes the columnar file during a shared pass over the events. Does nothing if the file is up to date.
+	 */
+	public static EventsAnalysisStage stage(Path eventsFile) {
+		return new EventsAnalysisStage() {
+			private Path tmp;
+			private ColumnarEventsWriter writer;
+
+			@Override
+			public List<EventHandler> prepare() throws IOException {
+				if (isUpToDate(eventsFile)) {
+					return List.of();
+				}
+				tmp = createTempFile(getFile(eventsFile));
+				writer = new ColumnarEventsWriter(tmp, eventsFile);
+				return List.of(writer);
+			}
+
+			@Override
+			public void finish() throws IOException {
+				if (writer == null) {
+					return;
+				}
+				try {
+					writer.close();
+				} catch (IOException e) {
+					Files.deleteIfExists(tmp);
+					throw e;
+				}
+				Files.move(tmp, getFile(eventsFile), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				log.info("Wrote columnar events " + getFile(eventsFile));
+			}
+		};
+	}
+
+	/**
+	 * Read the events into the events manager, from the columnar file if it is up to date and from the events file otherwise.
+	 *
+	 * @param handlers all handlers that need the events, events that none of them can handle are not decoded from the columnar file
+	 */
+	public static void read(EventsManager eventsManager, Collection<? extends EventHandler> handlers, Path eventsFile) {
+		if (isUpToDate(eventsFile)) {
+			ColumnarEventsReader reader = new ColumnarEventsReader(eventsManager);
+			DrtEventsReaders.CUSTOM_EVENT_MAPPERS.forEach(reader::addCustomEventMapper);
+			reader.setHandlers(handlers);
+			reader.readFile(getFile(eventsFile));
+		} else {
+			DrtEventsReaders.createEventsReader(eventsManager).readFile(eventsFile.toString());
+		}
+	}
+
+	private static Path createTempFile(Path file) throws IOException {
+		Files.createDirectories(file.getParent());
+		return Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+	}
+
+	static int readVarInt(ByteBuffer in) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in.get();
+			value |= (b & 0x7f) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	static long readVarLong(ByteBuffer in) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in.get();
+			value |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[readVarInt(in)];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
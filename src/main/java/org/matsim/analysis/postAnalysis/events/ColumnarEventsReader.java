@@ -0,0 +1,374 @@
+package org.matsim.analysis.postAnalysis.events;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.GenericEvent;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.PersonEntersVehicleEvent;
+import org.matsim.api.core.v01.events.PersonLeavesVehicleEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsReaderXMLv1;
+import org.matsim.core.events.MatsimEventsReader;
+import org.matsim.core.events.handler.EventHandler;
+import org.matsim.vehicles.Vehicle;
+import org.xml.sax.helpers.AttributesImpl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * Reads events in the {@link ColumnarEvents} format and passes them to an events manager, like the {@link MatsimEventsReader}.
+ * <p>
+ * Each chunk is memory mapped. If the handlers are known, blocks of event types that none of them can handle are skipped without decoding.
+ * The most frequent event types are created directly from the dictionary, with one id instance per dictionary entry. All other events are
+ * created by the xml events reader from their attributes, so custom event mappers work the same as for xml files.
+ */
+public final class ColumnarEventsReader {
+	private static final Logger log = LogManager.getLogger(ColumnarEventsReader.class);
+
+	private static final int GENERIC = 0;
+	private static final int LINK_ENTER = 1;
+	private static final int LINK_LEAVE = 2;
+	private static final int PERSON_ENTERS_VEHICLE = 3;
+	private static final int PERSON_LEAVES_VEHICLE = 4;
+	private static final int VEHICLE_ENTERS_TRAFFIC = 5;
+	private static final int VEHICLE_LEAVES_TRAFFIC = 6;
+
+	private static final String VEHICLE = "vehicle";
+	private static final String LINK = "link";
+	private static final String PERSON = "person";
+	private static final String NETWORK_MODE = "networkMode";
+	private static final String RELATIVE_POSITION = "relativePosition";
+
+	private final EventsManager events;
+	private final EventsReaderXMLv1 xmlReader;
+	private final Set<String> customEventTypes = new HashSet<>();
+	private final AttributesImpl attributes = new AttributesImpl();
+	private final Stack<String> context = new Stack<>();
+
+	/**
+	 * Classes of events the handlers can handle, null if all events are needed.
+	 */
+	private Set<Class<?>> handledEvents;
+
+	private final List<Schema> schemas = new ArrayList<>();
+	/**
+	 * Strings of all chunks read so far, index 0 is null.
+	 */
+	private String[] dictionary = new String[1 << 12];
+	private int dictionarySize = 1;
+	private Id<Link>[] linkIds;
+	private Id<Vehicle>[] vehicleIds;
+	private Id<Person>[] personIds;
+	private int[] order = new int[ColumnarEventsWriter.CHUNK_SIZE];
+	private long decoded;
+	private long skipped;
+
+	/**
+	 * Create a reader, that passes all events to the events manager.
+	 */
+	@SuppressWarnings("unchecked")
+	public ColumnarEventsReader(EventsManager events) {
+		this.events = events;
+		this.xmlReader = new EventsReaderXMLv1(events);
+		this.linkIds = new Id[dictionary.length];
+		this.vehicleIds = new Id[dictionary.length];
+		this.personIds = new Id[dictionary.length];
+	}
+
+	/**
+	 * Convert generic events of the type, see {@link MatsimEventsReader#addCustomEventMapper(String, MatsimEventsReader.CustomEventMapper)}.
+	 */
+	public void addCustomEventMapper(String eventType, MatsimEventsReader.CustomEventMapper mapper) {
+		xmlReader.addCustomEventMapper(eventType, mapper);
+		customEventTypes.add(eventType);
+	}
+
+	/**
+	 * Only decode events that one of the handlers can handle, i.e. that are accepted by one of their {@code handleEvent} methods.
+	 * All other events are skipped, so the handlers need to include every handler of the events manager.
+	 */
+	public void setHandlers(Collection<? extends EventHandler> handlers) {
+		handledEvents = new HashSet<>();
+		for (EventHandler handler : handlers) {
+			for (Method method : handler.getClass().getMethods()) {
+				if (method.getName().equals("handleEvent") && method.getParameterCount() == 1
+					&& Event.class.isAssignableFrom(method.getParameterTypes()[0])) {
+					handledEvents.add(method.getParameterTypes()[0]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read all events of the file.
+	 */
+	public void readFile(Path file) {
+		long start = System.currentTimeMillis();
+		try (FileChannel channel = FileChannel.open(file)) {
+			ByteBuffer header = ByteBuffer.allocate(ColumnarEvents.HEADER_BYTES);
+			channel.read(header, 0);
+			header.flip();
+			if (header.remaining() < ColumnarEvents.HEADER_BYTES || header.getInt() != ColumnarEvents.MAGIC
+				|| header.getInt() != ColumnarEvents.VERSION) {
+				throw new IOException("Not a columnar events file of version " + ColumnarEvents.VERSION + ": " + file);
+			}
+
+			long position = ColumnarEvents.HEADER_BYTES;
+			ByteBuffer marker = ByteBuffer.allocate(2 * Integer.BYTES);
+			while (true) {
+				marker.clear();
+				channel.read(marker, position);
+				marker.flip();
+				if (marker.getInt() != ColumnarEvents.CHUNK) {
+					break;
+				}
+				int length = marker.getInt();
+				position += marker.capacity();
+				readChunk(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+				position += length;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		log.info("Read " + decoded + " events from " + file + " in " + (System.currentTimeMillis() - start) + " ms, skipped " + skipped
+			+ " events not needed by any handler");
+	}
+
+	private void readChunk(ByteBuffer in) {
+		int newStrings = ColumnarEvents.readVarInt(in);
+		ensureDictionaryCapacity(dictionarySize + newStrings);
+		for (int i = 0; i < newStrings; i++) {
+			dictionary[dictionarySize++] = ColumnarEvents.readString(in);
+		}
+
+		int newSchemas = ColumnarEvents.readVarInt(in);
+		for (int i = 0; i < newSchemas; i++) {
+			String className = ColumnarEvents.readString(in);
+			String type = ColumnarEvents.readString(in);
+			String[] keys = new String[ColumnarEvents.readVarInt(in)];
+			for (int k = 0; k < keys.length; k++) {
+				keys[k] = ColumnarEvents.readString(in);
+			}
+			schemas.add(new Schema(className, type, keys));
+		}
+
+		int numberOfEvents = ColumnarEvents.readVarInt(in);
+		for (int i = 0; i < numberOfEvents; i++) {
+			order[i] = ColumnarEvents.readVarInt(in);
+		}
+
+		int numberOfBlocks = ColumnarEvents.readVarInt(in);
+		boolean anyNeeded = false;
+		for (int b = 0; b < numberOfBlocks; b++) {
+			Schema schema = schemas.get(ColumnarEvents.readVarInt(in));
+			int size = ColumnarEvents.readVarInt(in);
+			int length = ColumnarEvents.readVarInt(in);
+			if (schema.needed) {
+				schema.decode(in, size);
+				anyNeeded = true;
+			} else {
+				in.position(in.position() + length);
+				skipped += size;
+			}
+		}
+
+		if (!anyNeeded) {
+			return;
+		}
+		for (int i = 0; i < numberOfEvents; i++) {
+			Schema schema = schemas.get(order[i]);
+			if (schema.needed) {
+				process(schema, schema.cursor++);
+				decoded++;
+			}
+		}
+	}
+
+	private void process(Schema schema, int row) {
+		double time = schema.times[row];
+		int[][] columns = schema.columns;
+		switch (schema.kind) {
+			case LINK_ENTER -> events.processEvent(new LinkEnterEvent(time, vehicleId(columns[schema.vehicle][row]), linkId(columns[schema.link][row])));
+			case LINK_LEAVE -> events.processEvent(new LinkLeaveEvent(time, vehicleId(columns[schema.vehicle][row]), linkId(columns[schema.link][row])));
+			case PERSON_ENTERS_VEHICLE ->
+				events.processEvent(new PersonEntersVehicleEvent(time, personId(columns[schema.person][row]), vehicleId(columns[schema.vehicle][row])));
+			case PERSON_LEAVES_VEHICLE ->
+				events.processEvent(new PersonLeavesVehicleEvent(time, personId(columns[schema.person][row]), vehicleId(columns[schema.vehicle][row])));
+			case VEHICLE_ENTERS_TRAFFIC -> events.processEvent(new VehicleEntersTrafficEvent(time, personId(columns[schema.person][row]),
+				linkId(columns[schema.link][row]), vehicleId(columns[schema.vehicle][row]), dictionary[columns[schema.networkMode][row]],
+				relativePosition(columns[schema.relativePosition][row])));
+			case VEHICLE_LEAVES_TRAFFIC -> events.processEvent(new VehicleLeavesTrafficEvent(time, personId(columns[schema.person][row]),
+				linkId(columns[schema.link][row]), vehicleId(columns[schema.vehicle][row]), dictionary[columns[schema.networkMode][row]],
+				relativePosition(columns[schema.relativePosition][row])));
+			default -> {
+				attributes.clear();
+				attributes.addAttribute("", Event.ATTRIBUTE_TIME, Event.ATTRIBUTE_TIME, "CDATA", Double.toString(time));
+				attributes.addAttribute("", Event.ATTRIBUTE_TYPE, Event.ATTRIBUTE_TYPE, "CDATA", schema.type);
+				for (int k = 0; k < schema.keys.length; k++) {
+					String value = dictionary[columns[k][row]];
+					if (value != null) {
+						attributes.addAttribute("", schema.keys[k], schema.keys[k], "CDATA", value);
+					}
+				}
+				xmlReader.startTag("event", attributes, context);
+			}
+		}
+	}
+
+	private Id<Link> linkId(int index) {
+		Id<Link> id = linkIds[index];
+		if (id == null) {
+			id = Id.createLinkId(dictionary[index]);
+			linkIds[index] = id;
+		}
+		return id;
+	}
+
+	private Id<Vehicle> vehicleId(int index) {
+		Id<Vehicle> id = vehicleIds[index];
+		if (id == null) {
+			id = Id.createVehicleId(dictionary[index]);
+			vehicleIds[index] = id;
+		}
+		return id;
+	}
+
+	private Id<Person> personId(int index) {
+		Id<Person> id = personIds[index];
+		if (id == null) {
+			id = Id.createPersonId(dictionary[index]);
+			personIds[index] = id;
+		}
+		return id;
+	}
+
+	private double relativePosition(int index) {
+		return dictionary[index] == null ? 1.0 : Double.parseDouble(dictionary[index]);
+	}
+
+	private void ensureDictionaryCapacity(int capacity) {
+		if (capacity > dictionary.length) {
+			int length = Math.max(capacity, dictionary.length * 2);
+			dictionary = Arrays.copyOf(dictionary, length);
+			linkIds = Arrays.copyOf(linkIds, length);
+			vehicleIds = Arrays.copyOf(vehicleIds, length);
+			personIds = Arrays.copyOf(personIds, length);
+		}
+	}
+
+	/**
+	 * Event type of a block and the decoded block of the current chunk.
+	 */
+	private final class Schema {
+		private final String type;
+		private final String[] keys;
+		private final boolean needed;
+		private final int kind;
+		private final int vehicle;
+		private final int link;
+		private final int person;
+		private final int networkMode;
+		private final int relativePosition;
+
+		private double[] times = new double[0];
+		private int[][] columns;
+		private int cursor;
+
+		Schema(String className, String type, String[] keys) {
+			this.type = type;
+			this.keys = keys;
+			this.columns = new int[keys.length][0];
+
+			Class<?> eventClass;
+			try {
+				eventClass = Class.forName(className, false, ColumnarEventsReader.class.getClassLoader());
+			} catch (ClassNotFoundException e) {
+				eventClass = GenericEvent.class;
+			}
+			Class<?> finalEventClass = eventClass;
+			this.needed = handledEvents == null || handledEvents.stream().anyMatch(c -> c.isAssignableFrom(finalEventClass))
+				|| (eventClass == GenericEvent.class && customEventTypes.contains(type));
+
+			Map<String, Integer> positions = new HashMap<>();
+			for (int k = 0; k < keys.length; k++) {
+				positions.put(keys[k], k);
+			}
+			this.vehicle = positions.getOrDefault(VEHICLE, -1);
+			this.link = positions.getOrDefault(LINK, -1);
+			this.person = positions.getOrDefault(PERSON, -1);
+			this.networkMode = positions.getOrDefault(NETWORK_MODE, -1);
+			this.relativePosition = positions.getOrDefault(RELATIVE_POSITION, -1);
+
+			// events are only created directly if they have exactly the attributes of the constructor
+			if (eventClass == LinkEnterEvent.class && positions.keySet().equals(Set.of(VEHICLE, LINK))) {
+				this.kind = LINK_ENTER;
+			} else if (eventClass == LinkLeaveEvent.class && positions.keySet().equals(Set.of(VEHICLE, LINK))) {
+				this.kind = LINK_LEAVE;
+			} else if (eventClass == PersonEntersVehicleEvent.class && positions.keySet().equals(Set.of(PERSON, VEHICLE))) {
+				this.kind = PERSON_ENTERS_VEHICLE;
+			} else if (eventClass == PersonLeavesVehicleEvent.class && positions.keySet().equals(Set.of(PERSON, VEHICLE))) {
+				this.kind = PERSON_LEAVES_VEHICLE;
+			} else if (eventClass == VehicleEntersTrafficEvent.class
+				&& positions.keySet().equals(Set.of(PERSON, LINK, VEHICLE, NETWORK_MODE, RELATIVE_POSITION))) {
+				this.kind = VEHICLE_ENTERS_TRAFFIC;
+			} else if (eventClass == VehicleLeavesTrafficEvent.class
+				&& positions.keySet().equals(Set.of(PERSON, LINK, VEHICLE, NETWORK_MODE, RELATIVE_POSITION))) {
+				this.kind = VEHICLE_LEAVES_TRAFFIC;
+			} else {
+				this.kind = GENERIC;
+			}
+		}
+
+		void decode(ByteBuffer in, int size) {
+			if (times.length < size) {
+				times = new double[size];
+				for (int k = 0; k < columns.length; k++) {
+					columns[k] = new int[size];
+				}
+			}
+
+			byte encoding = in.get();
+			if (encoding == ColumnarEvents.TIMES_INTEGRAL) {
+				long time = 0;
+				for (int i = 0; i < size; i++) {
+					long zigZag = ColumnarEvents.readVarLong(in);
+					time += (zigZag >>> 1) ^ -(zigZag & 1);
+					times[i] = time;
+				}
+			} else {
+				for (int i = 0; i < size; i++) {
+					times[i] = in.getDouble();
+				}
+			}
+
+			for (int[] column : columns) {
+				for (int i = 0; i < size; i++) {
+					column[i] = ColumnarEvents.readVarInt(in);
+				}
+			}
+			cursor = 0;
+		}
+	}
+}
@@ -0,0 +1,285 @@
+package org.matsim.analysis.postAnalysis.events;
+
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.events.handler.BasicEventHandler;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes events in the {@link ColumnarEvents} format. Events are buffered per type until a chunk is full.
+ * <p>
+ * The type of a block is defined by the class of the event, its type and the names of its attributes, so events of the same class with
+ * optional attributes are stored in different blocks. Null values are stored as dictionary index 0.
+ */
+final class ColumnarEventsWriter implements BasicEventHandler, AutoCloseable {
+	static final int CHUNK_SIZE = 1 << 16;
+
+	private final DataOutputStream out;
+	private final Map<String, Integer> dictionary = new HashMap<>();
+	private final List<String> newStrings = new ArrayList<>();
+	private final Map<Schema, Integer> schemas = new HashMap<>();
+	private final List<Schema> newSchemas = new ArrayList<>();
+	private final List<Block> blocks = new ArrayList<>();
+	private final Bytes order = new Bytes();
+	private final Bytes chunk = new Bytes();
+	private final Bytes data = new Bytes();
+	private int numberOfEvents;
+
+	/**
+	 * Create the file and write the header.
+	 *
+	 * @param eventsFile the events file that is converted, its size and modification time are stored in the header
+	 */
+	ColumnarEventsWriter(Path file, Path eventsFile) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+		out.writeInt(ColumnarEvents.MAGIC);
+		out.writeInt(ColumnarEvents.VERSION);
+		out.writeLong(Files.size(eventsFile));
+		out.writeLong(Files.getLastModifiedTime(eventsFile).toMillis());
+		dictionary.put(null, 0);
+	}
+
+	@Override
+	public void handleEvent(Event event) {
+		Map<String, String> attributes = event.getAttributes();
+		List<String> keys = new ArrayList<>(attributes.size());
+		for (String key : attributes.keySet()) {
+			if (!key.equals(Event.ATTRIBUTE_TIME) && !key.equals(Event.ATTRIBUTE_TYPE)) {
+				keys.add(key);
+			}
+		}
+
+		Schema schema = new Schema(event.getClass().getName(), event.getEventType(), keys);
+		Integer index = schemas.get(schema);
+		if (index == null) {
+			index = blocks.size();
+			schemas.put(schema, index);
+			newSchemas.add(schema);
+			blocks.add(new Block(keys.size()));
+		}
+
+		Block block = blocks.get(index);
+		int row = block.add(event.getTime());
+		for (int k = 0; k < keys.size(); k++) {
+			block.columns[k][row] = lookup(attributes.get(keys.get(k)));
+		}
+		order.writeVarInt(index);
+
+		if (++numberOfEvents == CHUNK_SIZE) {
+			try {
+				writeChunk();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Write the remaining events and close the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (numberOfEvents > 0) {
+				writeChunk();
+			}
+			out.writeInt(ColumnarEvents.END);
+		} finally {
+			out.close();
+		}
+	}
+
+	private int lookup(String value) {
+		Integer index = dictionary.get(value);
+		if (index == null) {
+			index = dictionary.size();
+			dictionary.put(value, index);
+			newStrings.add(value);
+		}
+		return index;
+	}
+
+	private void writeChunk() throws IOException {
+		chunk.clear();
+		chunk.writeVarInt(newStrings.size());
+		for (String value : newStrings) {
+			chunk.writeString(value);
+		}
+		newStrings.clear();
+
+		chunk.writeVarInt(newSchemas.size());
+		for (Schema schema : newSchemas) {
+			chunk.writeString(schema.className());
+			chunk.writeString(schema.type());
+			chunk.writeVarInt(schema.keys().size());
+			for (String key : schema.keys()) {
+				chunk.writeString(key);
+			}
+		}
+		newSchemas.clear();
+
+		chunk.writeVarInt(numberOfEvents);
+		chunk.write(order);
+
+		int numberOfBlocks = 0;
+		for (Block block : blocks) {
+			if (block.size > 0) {
+				numberOfBlocks++;
+			}
+		}
+		chunk.writeVarInt(numberOfBlocks);
+		for (int i = 0; i < blocks.size(); i++) {
+			Block block = blocks.get(i);
+			if (block.size == 0) {
+				continue;
+			}
+			block.encode(data);
+			chunk.writeVarInt(i);
+			chunk.writeVarInt(block.size);
+			chunk.writeVarInt(data.length);
+			chunk.write(data);
+			block.size = 0;
+		}
+
+		out.writeInt(ColumnarEvents.CHUNK);
+		out.writeInt(chunk.length);
+		out.write(chunk.bytes, 0, chunk.length);
+		order.clear();
+		numberOfEvents = 0;
+	}
+
+	private record Schema(String className, String type, List<String> keys) {
+	}
+
+	/**
+	 * Times and attribute columns of the events of one type in the current chunk.
+	 */
+	private static final class Block {
+		private double[] times = new double[64];
+		private final int[][] columns;
+		private int size;
+
+		Block(int numberOfColumns) {
+			this.columns = new int[numberOfColumns][times.length];
+		}
+
+		/**
+		 * Add a row with the given time, the columns of the row need to be set by the caller.
+		 */
+		int add(double time) {
+			if (size == times.length) {
+				times = Arrays.copyOf(times, size * 2);
+				for (int k = 0; k < columns.length; k++) {
+					columns[k] = Arrays.copyOf(columns[k], size * 2);
+				}
+			}
+			times[size] = time;
+			return size++;
+		}
+
+		/**
+		 * Times are stored as zig-zag encoded deltas if all of them are whole seconds, which is the case for the default time step of the
+		 * simulation, otherwise as plain doubles.
+		 */
+		void encode(Bytes data) {
+			data.clear();
+			boolean integral = true;
+			for (int i = 0; i < size && integral; i++) {
+				integral = times[i] == Math.rint(times[i]) && Math.abs(times[i]) < 1L << 52;
+			}
+
+			if (integral) {
+				data.writeByte(ColumnarEvents.TIMES_INTEGRAL);
+				long previous = 0;
+				for (int i = 0; i < size; i++) {
+					long time = (long) times[i];
+					long delta = time - previous;
+					data.writeVarLong((delta << 1) ^ (delta >> 63));
+					previous = time;
+				}
+			} else {
+				data.writeByte(ColumnarEvents.TIMES_DOUBLE);
+				for (int i = 0; i < size; i++) {
+					data.writeLong(Double.doubleToLongBits(times[i]));
+				}
+			}
+
+			for (int[] column : columns) {
+				for (int i = 0; i < size; i++) {
+					data.writeVarInt(column[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Growable byte array with variable length encoding of numbers.
+	 */
+	private static final class Bytes {
+		private byte[] bytes = new byte[1 << 12];
+		private int length;
+
+		void clear() {
+			length = 0;
+		}
+
+		void writeByte(int value) {
+			ensureCapacity(1);
+			bytes[length++] = (byte) value;
+		}
+
+		void writeVarInt(int value) {
+			writeVarLong(value & 0xffffffffL);
+		}
+
+		void writeVarLong(long value) {
+			ensureCapacity(10);
+			while ((value & ~0x7fL) != 0) {
+				bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			bytes[length++] = (byte) value;
+		}
+
+		/**
+		 * Big endian, like {@link java.nio.ByteBuffer}.
+		 */
+		void writeLong(long value) {
+			ensureCapacity(Long.BYTES);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				bytes[length++] = (byte) (value >>> shift);
+			}
+		}
+
+		void writeString(String value) {
+			byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(encoded.length);
+			ensureCapacity(encoded.length);
+			System.arraycopy(encoded, 0, bytes, length, encoded.length);
+			length += encoded.length;
+		}
+
+		void write(Bytes other) {
+			ensureCapacity(other.length);
+			System.arraycopy(other.bytes, 0, bytes, length, other.length);
+			length += other.length;
+		}
+
+		private void ensureCapacity(int additional) {
+			if (length + additional > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+			}
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package org.matsim.analysis.postAnalysis.events;
+
+import org.matsim.application.MATSimAppCommand;
+import picocli.CommandLine;
+
+import java.nio.file.Path;
+
+import static org.matsim.application.ApplicationUtils.globFile;
+
+/**
+ * Converts the events of a run into the {@link ColumnarEvents} format, which is then used by the analyses instead of the xml events.
+ */
+@CommandLine.Command(
+		name = "convert-events",
+		description = "Convert the output events into a columnar binary file, which is read much faster by the analyses"
+)
+public class ConvertEventsToColumnar implements MATSimAppCommand {
+	@CommandLine.Option(names = "--directory", description = "path to the directory of the simulation output", required = true)
+	private Path directory;
+
+	public static void main(String[] args) {
+		new ConvertEventsToColumnar().execute(args);
+	}
+
+	@Override
+	public Integer call() throws Exception {
+		ColumnarEvents.convert(globFile(directory, "*output_events.*"));
+		return 0;
+	}
+}
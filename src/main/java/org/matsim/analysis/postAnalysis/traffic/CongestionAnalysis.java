@@ -9,12 +9,7 @@ import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.application.MATSimAppCommand;
 import org.matsim.application.options.ShpOptions;
-import org.matsim.core.api.experimental.events.EventsManager;
-import org.matsim.core.events.EventsUtils;
-import org.matsim.core.events.MatsimEventsReader;
 import org.matsim.core.network.NetworkUtils;
-import org.matsim.core.router.util.TravelTime;
-import org.matsim.core.trafficmonitoring.TravelTimeCalculator;
 import picocli.CommandLine;
 
 import java.io.FileWriter;
@@ -62,8 +57,6 @@ public class CongestionAnalysis implements MATSimAppCommand {
 	@SuppressWarnings("JavaNCSS")
 	public Integer call() throws Exception {
 		Network network = NetworkUtils.readNetwork(networkFile);
-		TravelTimeCalculator.Builder builder = new TravelTimeCalculator.Builder(network);
-		TravelTimeCalculator travelTimeCalculator = builder.build();
 
 		Geometry studyArea = null;
 		if (shp.getShapeFile() != null && !shp.getShapeFile().toString().equals("")) {
@@ -71,16 +64,12 @@ public class CongestionAnalysis implements MATSimAppCommand {
 		}
 		LinkFilter linkFilter = new LinkFilter(studyArea, minDailyTrafficCount);
 
-		// event reader add event handeler travelTimeCalculator
+		// Actual TravelTime based on the events file, the traffic counts are stored along with the travel times
 		log.info("Begin analyzing travel time from events file...");
-		EventsManager eventsManager = EventsUtils.createEventsManager();
-		eventsManager.addHandler(travelTimeCalculator);
-		eventsManager.addHandler(linkFilter);
-		MatsimEventsReader eventsReader = new MatsimEventsReader(eventsManager);
-		eventsReader.readFile(eventsFile);
-
-		// Actual TravelTime based on the events file
-		TravelTime travelTime = travelTimeCalculator.getLinkTravelTimes();
+		LinkTravelTimes travelTime = TrafficAnalysis.analyzeTravelTimeFromEvents(network, eventsFile);
+		for (Link link : network.getLinks().values()) {
+			linkFilter.addTrafficCount(link.getId(), travelTime.getTrafficCount(link.getId()));
+		}
 
 		log.info("Begin writing out results...");
 		log.info("There are in total " + network.getLinks().size() + " links in the network");
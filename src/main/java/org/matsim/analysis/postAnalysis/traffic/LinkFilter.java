@@ -51,6 +51,13 @@ public final class LinkFilter implements LinkEnterEventHandler, VehicleEntersTra
 		return linksTrafficCountMap.getOrDefault(link.getId(), new MutableInt()).intValue() >= minimumDailyTrafficCount;
 	}
 
+	/**
+	 * Add vehicles that entered the link, e.g. counted by {@link LinkTravelTimes}.
+	 */
+	public void addTrafficCount(Id<Link> linkId, int count) {
+		linksTrafficCountMap.computeIfAbsent(linkId, v -> new MutableInt()).add(count);
+	}
+
 	@Override
 	public void handleEvent(LinkEnterEvent linkEnterEvent) {
 		Id<Link> linkId = linkEnterEvent.getLinkId();
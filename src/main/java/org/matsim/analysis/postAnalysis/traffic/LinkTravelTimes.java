@@ -0,0 +1,388 @@
+package org.matsim.analysis.postAnalysis.traffic;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.analysis.postAnalysis.EventsAnalysisStage;
+import org.matsim.analysis.postAnalysis.events.ColumnarEvents;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.EventHandler;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.trafficmonitoring.TravelTimeCalculator;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Link travel times derived from an events file, stored as dense float arrays per link and time bin.
+ * <p>
+ * Computing the travel times requires reading the whole events file, so the result is stored in a binary file in the analysis folder
+ * next to the events ({@value #FILE_SUFFIX}). It is reused by all analyses of the same run as long as size, modification time and a
+ * hash of the beginning and end of the events file are unchanged, and the network contains the same links with the same length and free
+ * speed.
+ * <p>
+ * Besides travel times, the number of vehicles entering each link (as used by {@link LinkFilter}) is stored as well.
+ * Travel times are always read from the float arrays, so results are the same whether the file was computed or loaded.
+ */
+public final class LinkTravelTimes implements TravelTime {
+	static final String FILE_SUFFIX = ".travel_times.bin";
+
+	private static final Logger log = LogManager.getLogger(LinkTravelTimes.class);
+
+	private static final int MAGIC = 0x4b485454;
+	private static final int VERSION = 2;
+	private static final double BIN_SIZE = 900;
+	private static final int MAX_TIME = 36 * 3600;
+	private static final int NUMBER_OF_BINS = (int) (MAX_TIME / BIN_SIZE) + 1;
+	private static final int HASHED_BYTES = 1 << 20;
+
+	/**
+	 * Travel times and counts indexed by {@link Id#index()} of the link.
+	 */
+	private final float[][] travelTimes;
+	private final int[] trafficCounts;
+
+	private LinkTravelTimes(float[][] travelTimes, int[] trafficCounts) {
+		this.travelTimes = travelTimes;
+		this.trafficCounts = trafficCounts;
+	}
+
+	/**
+	 * Load the travel times of the events file from the analysis folder, or compute and store them if not present or outdated.
+	 */
+	public static LinkTravelTimes loadOrCompute(Network network, Path eventsFile) {
+		if (!Files.isRegularFile(eventsFile)) {
+			return compute(network, eventsFile.toString());
+		}
+
+		String key;
+		try {
+			key = createKey(eventsFile);
+		} catch (IOException e) {
+			log.warn("Could not read " + eventsFile + ", travel times are not cached: " + e.getMessage());
+			return compute(network, eventsFile.toString());
+		}
+
+		LinkTravelTimes result = load(getFile(eventsFile), key, network);
+		if (result == null) {
+			result = compute(network, eventsFile.toString());
+			result.store(getFile(eventsFile), key, network);
+		}
+		return result;
+	}
+
+	/**
+	 * Compute the travel times from the events file, without storing them.
+	 */
+	public static LinkTravelTimes compute(Network network, String eventsFile) {
+		long start = System.currentTimeMillis();
+		Collector collector = new Collector(network);
+		EventsManager eventsManager = EventsUtils.createEventsManager();
+		collector.getHandlers().forEach(eventsManager::addHandler);
+		ColumnarEvents.read(eventsManager, collector.getHandlers(), Path.of(eventsFile));
+
+		LinkTravelTimes result = collector.build(network);
+		log.info("Computed link travel times from " + eventsFile + " in " + (System.currentTimeMillis() - start) + " ms");
+		return result;
+	}
+
+	/**
+	 * Stage that computes and stores the travel times of the events file during a shared pass over the events, so that later analyses
+	 * can load them via {@link #loadOrCompute(Network, Path)}. The stage does nothing if the stored travel times are up to date.
+	 */
+	public static EventsAnalysisStage stage(Path networkFile, Path eventsFile) {
+		return new ComputeStage(networkFile, eventsFile);
+	}
+
+	@Override
+	public double getLinkTravelTime(Link link, double time, Person person, Vehicle vehicle) {
+		int index = link.getId().index();
+		float[] values = index < travelTimes.length ? travelTimes[index] : null;
+		if (values == null) {
+			throw new IllegalArgumentException("Link " + link.getId() + " is not part of the network of the travel times");
+		}
+		int bin = (int) Math.max(0, Math.min(NUMBER_OF_BINS - 1, time / BIN_SIZE));
+		return values[bin];
+	}
+
+	/**
+	 * Number of vehicles that entered the link or started on it.
+	 */
+	public int getTrafficCount(Id<Link> linkId) {
+		int index = linkId.index();
+		return index < trafficCounts.length ? trafficCounts[index] : 0;
+	}
+
+	static Path getFile(Path eventsFile) {
+		String name = eventsFile.getFileName().toString();
+		int dot = name.indexOf('.', name.indexOf("events"));
+		Path parent = eventsFile.toAbsolutePath().getParent();
+		return parent.resolve("analysis").resolve("traffic").resolve((dot > 0 ? name.substring(0, dot) : name) + FILE_SUFFIX);
+	}
+
+	/**
+	 * Size, modification time and hash of the first and last {@value #HASHED_BYTES} bytes of the file. Hashing the whole events file
+	 * would take about as long as reading it.
+	 */
+	private static String createKey(Path eventsFile) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		long size = Files.size(eventsFile);
+		try (FileChannel channel = FileChannel.open(eventsFile)) {
+			ByteBuffer buffer = ByteBuffer.allocate(HASHED_BYTES);
+			channel.read(buffer, 0);
+			digest.update(buffer.flip());
+			if (size > HASHED_BYTES) {
+				buffer.clear();
+				channel.read(buffer, Math.max(HASHED_BYTES, size - HASHED_BYTES));
+				digest.update(buffer.flip());
+			}
+		}
+		return size + "@" + Files.getLastModifiedTime(eventsFile).toMillis() + "@" + HexFormat.of().formatHex(digest.digest());
+	}
+
+	/**
+	 * Hash of id, length and free speed of all links, which determine the travel times of links without traffic. The per link hashes
+	 * are summed up, so the result does not depend on the iteration order of the links.
+	 */
+	static long hashNetwork(Network network) {
+		long hash = network.getLinks().size();
+		for (Link link : network.getLinks().values()) {
+			long h = link.getId().toString().hashCode();
+			h = 31 * h + Double.doubleToLongBits(link.getLength());
+			h = 31 * h + Double.doubleToLongBits(link.getFreespeed());
+			hash += mix(h);
+		}
+		return hash;
+	}
+
+	/**
+	 * Finalization step of MurmurHash3, spreads each input bit over the whole result.
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Travel times from the file, if present and up to date.
+	 */
+	private static LinkTravelTimes load(Path file, String key, Network network) {
+		if (Files.isRegularFile(file)) {
+			try {
+				LinkTravelTimes result = read(file, key, network);
+				if (result != null) {
+					log.info("Loaded link travel times from " + file);
+					return result;
+				}
+				log.info("Link travel times in " + file + " are outdated");
+			} catch (IOException e) {
+				log.warn("Could not read link travel times " + file + ": " + e.getMessage());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Write the travel times, failures are only logged.
+	 */
+	private void store(Path file, String key, Network network) {
+		try {
+			write(file, key, network);
+			log.info("Wrote link travel times to " + file);
+		} catch (IOException e) {
+			log.warn("Could not write link travel times " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Read the travel times, if the key and the hash of the network match and the file contains exactly the links of the network.
+	 *
+	 * @return the travel times or null if the file is outdated
+	 */
+	private static LinkTravelTimes read(Path file, String key, Network network) throws IOException {
+		try (InputStream is = Files.newInputStream(file);
+			 DataInputStream in = new DataInputStream(new BufferedInputStream(is, 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readDouble() != BIN_SIZE || in.readInt() != NUMBER_OF_BINS
+				|| !in.readUTF().equals(key) || in.readLong() != hashNetwork(network)) {
+				return null;
+			}
+
+			int numberOfLinks = in.readInt();
+			if (numberOfLinks != network.getLinks().size()) {
+				return null;
+			}
+
+			float[][] travelTimes = new float[Id.getNumberOfIds(Link.class)][];
+			int[] trafficCounts = new int[travelTimes.length];
+			for (int i = 0; i < numberOfLinks; i++) {
+				Link link = network.getLinks().get(Id.createLinkId(in.readUTF()));
+				if (link == null) {
+					return null;
+				}
+				int index = link.getId().index();
+				trafficCounts[index] = in.readInt();
+				float[] values = new float[NUMBER_OF_BINS];
+				for (int j = 0; j < NUMBER_OF_BINS; j++) {
+					values[j] = in.readFloat();
+				}
+				travelTimes[index] = values;
+			}
+			return new LinkTravelTimes(travelTimes, trafficCounts);
+		}
+	}
+
+	/**
+	 * Write to a temporary file first, so that concurrent analyses never read a partially written file.
+	 */
+	private void write(Path file, String key, Network network) throws IOException {
+		Files.createDirectories(file.getParent());
+		Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeDouble(BIN_SIZE);
+			out.writeInt(NUMBER_OF_BINS);
+			out.writeUTF(key);
+			out.writeLong(hashNetwork(network));
+			out.writeInt(network.getLinks().size());
+			for (Link link : network.getLinks().values()) {
+				int index = link.getId().index();
+				out.writeUTF(link.getId().toString());
+				out.writeInt(trafficCounts[index]);
+				for (float value : travelTimes[index]) {
+					out.writeFloat(value);
+				}
+			}
+		} catch (IOException e) {
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+		Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Handlers that collect travel times and traffic counts from the events.
+	 */
+	private static final class Collector {
+		private final TravelTimeCalculator travelTimeCalculator;
+		private final TrafficCounter counter = new TrafficCounter();
+
+		Collector(Network network) {
+			TravelTimeCalculator.Builder builder = new TravelTimeCalculator.Builder(network);
+			builder.setTimeslice(BIN_SIZE);
+			builder.setMaxTime(MAX_TIME);
+			this.travelTimeCalculator = builder.build();
+		}
+
+		List<EventHandler> getHandlers() {
+			return List.of(travelTimeCalculator, counter);
+		}
+
+		LinkTravelTimes build(Network network) {
+			TravelTime travelTime = travelTimeCalculator.getLinkTravelTimes();
+			int size = Id.getNumberOfIds(Link.class);
+			float[][] travelTimes = new float[size][];
+			int[] trafficCounts = new int[size];
+			for (Link link : network.getLinks().values()) {
+				float[] values = new float[NUMBER_OF_BINS];
+				for (int i = 0; i < NUMBER_OF_BINS; i++) {
+					values[i] = (float) travelTime.getLinkTravelTime(link, i * BIN_SIZE, null, null);
+				}
+				int index = link.getId().index();
+				travelTimes[index] = values;
+				trafficCounts[index] = index < counter.counts.length ? counter.counts[index] : 0;
+			}
+			return new LinkTravelTimes(travelTimes, trafficCounts);
+		}
+	}
+
+	private static final class ComputeStage implements EventsAnalysisStage {
+		private final Path networkFile;
+		private final Path eventsFile;
+		private Network network;
+		private String key;
+		private Collector collector;
+
+		ComputeStage(Path networkFile, Path eventsFile) {
+			this.networkFile = networkFile;
+			this.eventsFile = eventsFile;
+		}
+
+		@Override
+		public List<EventHandler> prepare() throws IOException {
+			network = NetworkUtils.readNetwork(networkFile.toString());
+			key = createKey(eventsFile);
+			if (load(getFile(eventsFile), key, network) != null) {
+				return List.of();
+			}
+			collector = new Collector(network);
+			return collector.getHandlers();
+		}
+
+		@Override
+		public void finish() {
+			if (collector != null) {
+				collector.build(network).store(getFile(eventsFile), key, network);
+			}
+		}
+	}
+
+	/**
+	 * Counts vehicles entering links like {@link LinkFilter}, indexed by link id.
+	 */
+	private static final class TrafficCounter implements LinkEnterEventHandler, VehicleEntersTrafficEventHandler {
+		private int[] counts = new int[0];
+
+		@Override
+		public void handleEvent(LinkEnterEvent event) {
+			increment(event.getLinkId());
+		}
+
+		@Override
+		public void handleEvent(VehicleEntersTrafficEvent event) {
+			increment(event.getLinkId());
+		}
+
+		private void increment(Id<Link> linkId) {
+			int index = linkId.index();
+			if (index >= counts.length) {
+				counts = Arrays.copyOf(counts, Math.max(index + 1, Id.getNumberOfIds(Link.class)));
+			}
+			counts[index]++;
+		}
+	}
+}
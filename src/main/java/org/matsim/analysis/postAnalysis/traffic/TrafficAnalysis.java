@@ -1,11 +1,8 @@
 package org.matsim.analysis.postAnalysis.traffic;
 
 import org.matsim.api.core.v01.network.Network;
-import org.matsim.core.api.experimental.events.EventsManager;
-import org.matsim.core.events.EventsUtils;
-import org.matsim.core.events.MatsimEventsReader;
-import org.matsim.core.router.util.TravelTime;
-import org.matsim.core.trafficmonitoring.TravelTimeCalculator;
+
+import java.nio.file.Path;
 
 /**
  * Util class.
@@ -16,18 +13,9 @@ public final class TrafficAnalysis {
 	}
 
 	/**
-	 * Calculate travel times from events.
+	 * Calculate travel times from events. The result is cached next to the events file, see {@link LinkTravelTimes}.
 	 */
-	public static TravelTime analyzeTravelTimeFromEvents(Network network, String eventsFile) {
-		TravelTimeCalculator.Builder builder = new TravelTimeCalculator.Builder(network);
-		TravelTimeCalculator travelTimeCalculator = builder.build();
-
-		// event reader add event handeler travelTimeCalculator
-		EventsManager eventsManager = EventsUtils.createEventsManager();
-		eventsManager.addHandler(travelTimeCalculator);
-		MatsimEventsReader eventsReader = new MatsimEventsReader(eventsManager);
-		eventsReader.readFile(eventsFile);
-
-		return travelTimeCalculator.getLinkTravelTimes();
+	public static LinkTravelTimes analyzeTravelTimeFromEvents(Network network, String eventsFile) {
+		return LinkTravelTimes.loadOrCompute(network, Path.of(eventsFile));
 	}
 }
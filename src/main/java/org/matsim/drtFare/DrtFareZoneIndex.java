@@ -0,0 +1,142 @@
+package org.matsim.drtFare;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.utils.geometry.geotools.MGC;
+
+import javax.annotation.Nullable;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Lookup table from links to fare zones. The zone of every link of the drt subnetwork is determined once at construction,
+ * so that the zone of a request can be obtained by a simple array read. A link is assigned to the zone containing its to node.
+ * Lookups are thread-safe.
+ * <p>
+ * Indices are shared per network, mode and zone geometry, e.g. by the runs of several seeds on the same network.
+ */
+final class DrtFareZoneIndex {
+	static final byte UNKNOWN = 0;
+	static final byte ZONE_1 = 1;
+	static final byte ZONE_2 = 2;
+
+	private static final Logger log = LogManager.getLogger(DrtFareZoneIndex.class);
+
+	/**
+	 * Shared indices by network. The indices only hold a weak reference to their network, so that entries can be collected.
+	 */
+	private static final Map<Network, Map<Key, DrtFareZoneIndex>> SHARED = new WeakHashMap<>();
+
+	private final WeakReference<Network> network;
+	@Nullable
+	private final PreparedGeometry zone1;
+	private volatile byte[] zoneByLinkIndex;
+
+	/**
+	 * Build the index for all links of the network that allow the given mode.
+	 *
+	 * @param zone1 geometry of the zone 1. If null, all links are considered to be in zone 1 (i.e. no surcharge will apply).
+	 */
+	DrtFareZoneIndex(Network network, String mode, @Nullable Geometry zone1) {
+		this.network = new WeakReference<>(network);
+		this.zone1 = zone1 == null ? null : PreparedGeometryFactory.prepare(zone1);
+		this.zoneByLinkIndex = new byte[Id.getNumberOfIds(Link.class)];
+
+		int linksInZone1 = 0;
+		int linksInZone2 = 0;
+		for (Link link : network.getLinks().values()) {
+			if (!link.getAllowedModes().contains(mode)) {
+				continue;
+			}
+			byte zone = computeZone(link);
+			zoneByLinkIndex[link.getId().index()] = zone;
+			if (zone == ZONE_1) {
+				linksInZone1++;
+			} else {
+				linksInZone2++;
+			}
+		}
+		log.info("Fare zone index for mode " + mode + ": " + linksInZone1 + " links in zone 1, " + linksInZone2 + " links in zone 2");
+	}
+
+	/**
+	 * Returns the index for the links of the network that allow the given mode, which is only built if it does not exist yet.
+	 *
+	 * @see #DrtFareZoneIndex(Network, String, Geometry)
+	 */
+	static DrtFareZoneIndex get(Network network, String mode, @Nullable Geometry zone1) {
+		synchronized (SHARED) {
+			return SHARED.computeIfAbsent(network, n -> new HashMap<>())
+				.computeIfAbsent(new Key(mode, zone1), k -> new DrtFareZoneIndex(network, mode, zone1));
+		}
+	}
+
+	boolean isInZone1(Id<Link> linkId) {
+		return getZone(linkId) == ZONE_1;
+	}
+
+	/**
+	 * Returns the fare zone of a link. Links that were not part of the drt subnetwork at construction time (e.g. links created later on)
+	 * are resolved against the zone geometry on first access and stored in the index afterwards.
+	 */
+	byte getZone(Id<Link> linkId) {
+		int index = linkId.index();
+		byte[] zones = zoneByLinkIndex;
+		if (index < zones.length) {
+			byte zone = zones[index];
+			if (zone != UNKNOWN) {
+				return zone;
+			}
+		}
+		return resolveZone(linkId);
+	}
+
+	private synchronized byte resolveZone(Id<Link> linkId) {
+		Network net = network.get();
+		Link link = net == null ? null : net.getLinks().get(linkId);
+		if (link == null) {
+			throw new IllegalArgumentException("Link " + linkId + " is not part of the network. Cannot determine the fare zone.");
+		}
+		byte zone = computeZone(link);
+		int index = linkId.index();
+		byte[] zones = zoneByLinkIndex;
+		if (index >= zones.length) {
+			zones = Arrays.copyOf(zones, Math.max(index + 1, Id.getNumberOfIds(Link.class)));
+		}
+		zones[index] = zone;
+		// publish the (possibly grown) array to readers on other threads
+		zoneByLinkIndex = zones;
+		return zone;
+	}
+
+	private byte computeZone(Link link) {
+		if (zone1 == null) {
+			return ZONE_1;
+		}
+		return zone1.contains(MGC.coord2Point(link.getToNode().getCoord())) ? ZONE_1 : ZONE_2;
+	}
+
+	/**
+	 * Geometries are compared by identity, they are shared by the {@link FareZoneCache}.
+	 */
+	private record Key(String mode, @Nullable Geometry zone1) {
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key k && mode.equals(k.mode) && zone1 == k.zone1;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * mode.hashCode() + System.identityHashCode(zone1);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package org.matsim.drtFare;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+import org.matsim.core.utils.gis.ShapeFileReader;
+import org.matsim.run.RemoteInputCache;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Provides the geometries of the drt fare zones, keyed by their Region_ID.
+ * <p>
+ * The shape file is parsed only once per JVM, so that the fare handlers of all drt modes share the same copy. In addition, the parsed
+ * geometries are stored as WKB in the {@link RemoteInputCache}, keyed by the content of the shape file. Subsequent runs read this binary
+ * file instead of parsing the shape file.
+ */
+final class FareZoneCache {
+	static final String ZONE_ID_ATTRIBUTE = "Region_ID";
+
+	private static final Logger log = LogManager.getLogger(FareZoneCache.class);
+	private static final int WKB_FORMAT_VERSION = 1;
+	private static final Map<String, Map<String, Geometry>> ZONES = new ConcurrentHashMap<>();
+
+	private FareZoneCache() {
+	}
+
+	/**
+	 * Returns an unmodifiable map from zone id to geometry. The shape file may be a local path or an url.
+	 */
+	static Map<String, Geometry> getZones(String shapeFile) {
+		return ZONES.computeIfAbsent(shapeFile, FareZoneCache::load);
+	}
+
+	private static Map<String, Geometry> load(String shapeFile) {
+		try {
+			Path shp = RemoteInputCache.getLocalShapeFile(shapeFile);
+			Path dbf = shp.resolveSibling(shp.getFileName().toString().replaceAll("\\.shp$", ".dbf"));
+			String contentHash = RemoteInputCache.hashContent(shp, dbf);
+			Path wkbFile = RemoteInputCache.getCacheDirectory().resolve("geometries").resolve(contentHash + ".wkb");
+
+			if (Files.exists(wkbFile)) {
+				log.info("Reading fare zones from " + wkbFile);
+				return readWkb(Files.readAllBytes(wkbFile));
+			}
+
+			log.info("Reading shape file " + shp);
+			Map<String, Geometry> zones = new LinkedHashMap<>();
+			for (SimpleFeature feature : ShapeFileReader.getAllFeatures(shp.toString())) {
+				zones.put(feature.getAttribute(ZONE_ID_ATTRIBUTE).toString(), (Geometry) feature.getDefaultGeometry());
+			}
+			RemoteInputCache.writeAtomically(wkbFile, writeWkb(zones));
+			return Collections.unmodifiableMap(zones);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not load fare zones from " + shapeFile, e);
+		}
+	}
+
+	private static byte[] writeWkb(Map<String, Geometry> zones) throws IOException {
+		WKBWriter writer = new WKBWriter();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(WKB_FORMAT_VERSION);
+			out.writeInt(zones.size());
+			for (Map.Entry<String, Geometry> e : zones.entrySet()) {
+				byte[] wkb = writer.write(e.getValue());
+				out.writeUTF(e.getKey());
+				out.writeInt(wkb.length);
+				out.write(wkb);
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Map<String, Geometry> readWkb(byte[] content) throws IOException {
+		WKBReader reader = new WKBReader();
+		Map<String, Geometry> zones = new LinkedHashMap<>();
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(content))) {
+			int version = in.readInt();
+			if (version != WKB_FORMAT_VERSION) {
+				throw new IOException("Unsupported fare zone cache version: " + version);
+			}
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				String zoneId = in.readUTF();
+				byte[] wkb = new byte[in.readInt()];
+				in.readFully(wkb);
+				zones.put(zoneId, reader.read(wkb));
+			}
+		} catch (ParseException e) {
+			throw new IOException("Corrupt fare zone cache", e);
+		}
+		return Collections.unmodifiableMap(zones);
+	}
+}
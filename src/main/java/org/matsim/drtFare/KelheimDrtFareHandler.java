@@ -5,34 +5,52 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.locationtech.jts.geom.Geometry;
 import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
 import org.matsim.api.core.v01.events.PersonMoneyEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.contrib.drt.fare.DrtFareHandler;
 import org.matsim.contrib.drt.passenger.events.DrtRequestSubmittedEvent;
 import org.matsim.contrib.drt.passenger.events.DrtRequestSubmittedEventHandler;
-import org.matsim.contrib.dvrp.optimizer.Request;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicleSpecification;
+import org.matsim.contrib.dvrp.fleet.FleetSpecification;
 import org.matsim.contrib.dvrp.passenger.PassengerDroppedOffEvent;
 import org.matsim.contrib.dvrp.passenger.PassengerDroppedOffEventHandler;
+import org.matsim.contrib.dvrp.passenger.PassengerPickedUpEvent;
+import org.matsim.contrib.dvrp.passenger.PassengerPickedUpEventHandler;
 import org.matsim.contrib.dvrp.passenger.PassengerRequestRejectedEvent;
 import org.matsim.contrib.dvrp.passenger.PassengerRequestRejectedEventHandler;
 import org.matsim.core.api.experimental.events.EventsManager;
-import org.matsim.core.utils.geometry.geotools.MGC;
-import org.matsim.core.utils.gis.ShapeFileReader;
-import org.opengis.feature.simple.SimpleFeature;
-
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.util.Collection;
-import java.util.HashMap;
+import org.matsim.core.mobsim.framework.events.MobsimBeforeCleanupEvent;
+import org.matsim.core.mobsim.framework.listeners.MobsimBeforeCleanupListener;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.BitSet;
 import java.util.Map;
 
 /**
  * Handles monetary fare for drt rides.
+ * <p>
+ * The fare of a trip consists of the base fare, the zone 2 surcharge (for all trips not within zone 1) as well as a distance and a time
+ * based fare for the in-vehicle distance and time of the passenger. If this sum is lower than the minimum fare per trip, the minimum
+ * fare is charged instead. In addition, the daily subscription fee is charged once per person and iteration at the first drop off.
+ * The in-vehicle distance is derived from odometers of the vehicles, so no trip traces need to be stored. The odometers are fed by a
+ * separate link enter handler (see {@link #createOdometerHandler(FleetSpecification)}), which only needs to be registered if there is a
+ * distance based fare.
+ * <p>
+ * Optionally, the fares can be emitted in batches at fixed intervals of the simulation time and at the end of the mobsim
+ * (see {@link KelheimDrtFareParams#getMoneyEventsFlushInterval()}). Fares of drop offs that are processed after the end of the mobsim, e.g.
+ * by an asynchronous events manager, are charged immediately.
+ * <p>
+ * The handler is thread-safe, i.e. it can be used with an events manager that delivers events on several threads.
  */
-public class KelheimDrtFareHandler implements DrtRequestSubmittedEventHandler, PassengerDroppedOffEventHandler, PassengerRequestRejectedEventHandler {
+public class KelheimDrtFareHandler implements DrtRequestSubmittedEventHandler, PassengerPickedUpEventHandler, PassengerDroppedOffEventHandler,
+		PassengerRequestRejectedEventHandler, MobsimBeforeCleanupListener {
 
 	private static final Logger log = LogManager.getLogger(KelheimDrtFareHandler.class);
+	private static final String DAILY_FEE_REFERENCE = "dailySubscriptionFee";
 
 	@Inject
 	private EventsManager events;
@@ -40,113 +58,289 @@ public class KelheimDrtFareHandler implements DrtRequestSubmittedEventHandler, P
 	//    public static final String PERSON_MONEY_EVENT_PURPOSE_DRT_FARE = "drtFare"; // Use the public static String in the DrtFareHandler instead.
 	private final double baseFare;
 	private final double zone2Surcharge;
+	private final double minFarePerTrip;
+	private final double dailySubscriptionFee;
+	private final double timeFarePerSecond;
+	private final double distanceFarePerMeter;
 	private final String mode;
 	private final String shapeFIle;
 	private final Network network;
-	private final Map<String, Geometry> zonalSystem;
+	private final DrtFareZoneIndex zoneIndex;
 
-	private final Map<Id<Request>, Boolean> surchargeMap = new HashMap<>();
+	/**
+	 * Submitted requests that are not yet finished, flagged if the zone 2 surcharge applies to them.
+	 */
+	private final PendingDrtRequests pendingRequests = new PendingDrtRequests();
+	private final VehicleOdometers odometers = new VehicleOdometers();
+	/**
+	 * Link lengths by link index, only needed if there is a distance based fare.
+	 */
+	private final double[] linkLengths;
+	/**
+	 * Persons (by index) that already paid the daily subscription fee in this iteration.
+	 */
+	private final BitSet dailyFeeCharged = new BitSet();
+	/**
+	 * Buffer for fares, if money events are emitted in batches. Otherwise null.
+	 */
+	private final MoneyEventsBuffer moneyEventsBuffer;
+	private final double flushInterval;
+	private volatile double nextFlushTime;
+	/**
+	 * Set at the end of the mobsim, from then on buffered fares are flushed immediately.
+	 */
+	private volatile boolean mobsimFinished;
 
 	public KelheimDrtFareHandler(String mode, Network network, KelheimDrtFareParams params) {
-		this.baseFare = params.getBaseFare();
-		this.zone2Surcharge = params.getZone2Surcharge();
-		this.mode = mode;
-		this.network = network;
-		this.shapeFIle = params.getShapeFile();
-
-		this.zonalSystem = new HashMap<>();
-		for (SimpleFeature feature : getFeatures(shapeFIle)) {
-			zonalSystem.put(feature.getAttribute("Region_ID").toString(), (Geometry) feature.getDefaultGeometry());
-		}
+		this(mode, params, network, null);
 	}
 
 	// Constructor that does not require injection (can be used for testing)
 	KelheimDrtFareHandler(String mode, KelheimDrtFareParams params, Network network, EventsManager events) {
 		this.baseFare = params.getBaseFare();
 		this.zone2Surcharge = params.getZone2Surcharge();
-		this.mode = mode;
-		this.network = network;
+		this.minFarePerTrip = params.getMinFarePerTrip();
+		this.dailySubscriptionFee = params.getDailySubscriptionFee();
+		this.timeFarePerSecond = params.getTimeFare_h() / 3600.;
+		this.distanceFarePerMeter = params.getDistanceFare_m();
+		this.mode = mode.intern();
 		this.shapeFIle = params.getShapeFile();
-		this.zonalSystem = new HashMap<>();
+		this.network = network;
 		this.events = events;
-		for (SimpleFeature feature : getFeatures(shapeFIle)) {
-			zonalSystem.put(feature.getAttribute("Region_ID").toString(), (Geometry) feature.getDefaultGeometry());
+
+		Map<String, Geometry> zonalSystem = getZonalSystem(shapeFIle);
+		if (!zonalSystem.isEmpty() && zonalSystem.get("1") == null) {
+			throw new RuntimeException("The shape file data entry is not prepared correctly. " +
+					"Please make sure the attribute of the shape file are in the correct format: " +
+					"Region_ID --> 1 or 2.");
+		}
+		// If no shape file is provided, all the trip will be charged base price
+		this.zoneIndex = DrtFareZoneIndex.get(network, mode, zonalSystem.get("1"));
+
+		this.flushInterval = params.getMoneyEventsFlushInterval();
+		this.nextFlushTime = flushInterval;
+		this.moneyEventsBuffer = flushInterval > 0 ? new MoneyEventsBuffer(this.mode, DAILY_FEE_REFERENCE) : null;
+
+		if (distanceFarePerMeter > 0) {
+			this.linkLengths = new double[Id.getNumberOfIds(Link.class)];
+			for (Link link : network.getLinks().values()) {
+				linkLengths[link.getId().index()] = link.getLength();
+			}
+		} else {
+			this.linkLengths = null;
 		}
 	}
 
 	@Override
 	public void handleEvent(DrtRequestSubmittedEvent drtRequestSubmittedEvent) {
-		if (drtRequestSubmittedEvent.getMode().equals(mode)) {
-			Link fromLink = network.getLinks().get(drtRequestSubmittedEvent.getFromLinkId());
-			Link toLink = network.getLinks().get(drtRequestSubmittedEvent.getToLinkId());
-			if (!zonalSystem.isEmpty()) {
-				if (zonalSystem.get("1") == null) {
-					throw new RuntimeException("The shape file data entry is not prepared correctly. " +
-							"Please make sure the attribute of the shape file are in the correct format: " +
-							"Region_ID --> 1 or 2.");
-				}
-				boolean fromZone1 = zonalSystem.get("1").contains(MGC.coord2Point(fromLink.getToNode().getCoord()));
-				boolean toZone1 = zonalSystem.get("1").contains(MGC.coord2Point(toLink.getToNode().getCoord()));
-				if (fromZone1 && toZone1) {
-					// trip within zone 1
-					surchargeMap.put(drtRequestSubmittedEvent.getRequestId(), false);
-				} else {
-					// otherwise
-					surchargeMap.put(drtRequestSubmittedEvent.getRequestId(), true);
-				}
-			} else {
-				// If no shape file is provided, all the trip will be charged base price
-				surchargeMap.put(drtRequestSubmittedEvent.getRequestId(), false);
+		if (isFareMode(drtRequestSubmittedEvent.getMode())) {
+			// surcharge applies to all trips that are not within zone 1
+			boolean withinZone1 = zoneIndex.isInZone1(drtRequestSubmittedEvent.getFromLinkId())
+					&& zoneIndex.isInZone1(drtRequestSubmittedEvent.getToLinkId());
+			pendingRequests.add(drtRequestSubmittedEvent.getRequestId().index(), !withinZone1);
+		}
+	}
+
+	@Override
+	public void handleEvent(PassengerPickedUpEvent event) {
+		if (isFareMode(event.getMode())) {
+			int vehicleIndex = getVehicleIndex(event.getVehicleId());
+			if (linkLengths != null) {
+				odometers.track(vehicleIndex);
 			}
+			pendingRequests.pickedUp(event.getRequestId().index(), event.getTime(), odometers.getDistance(vehicleIndex));
 		}
 	}
 
 	@Override
 	public void handleEvent(PassengerDroppedOffEvent event) {
-		if (event.getMode().equals(mode)) {
+		if (isFareMode(event.getMode())) {
+			int requestIndex = event.getRequestId().index();
+			double pickupTime = pendingRequests.getPickupTime(requestIndex);
+			double pickupOdometer = pendingRequests.getPickupOdometer(requestIndex);
+			int surcharge = pendingRequests.remove(requestIndex);
+			if (surcharge < 0) {
+				throw new IllegalStateException("Passenger dropped off for request " + event.getRequestId() + " which has not been submitted.");
+			}
+
 			double actualFare = baseFare;
-			boolean doesSurchargeApply = surchargeMap.get(event.getRequestId());
-			if (doesSurchargeApply) {
+			if (surcharge == 1) {
 				actualFare = actualFare + zone2Surcharge;
 			}
-			events.processEvent(
-					new PersonMoneyEvent(event.getTime(), event.getPersonId(),
-							-actualFare, DrtFareHandler.PERSON_MONEY_EVENT_PURPOSE_DRT_FARE, mode, event.getRequestId().toString()));
-			surchargeMap.remove(event.getRequestId());
+			if (!Double.isNaN(pickupTime)) {
+				actualFare += timeFarePerSecond * (event.getTime() - pickupTime);
+			}
+			if (linkLengths != null && !Double.isNaN(pickupOdometer)) {
+				actualFare += distanceFarePerMeter * (odometers.getDistance(getVehicleIndex(event.getVehicleId())) - pickupOdometer);
+			}
+			actualFare = Math.max(actualFare, minFarePerTrip);
+
+			if (moneyEventsBuffer == null) {
+				events.processEvent(
+						new PersonMoneyEvent(event.getTime(), event.getPersonId(),
+								-actualFare, DrtFareHandler.PERSON_MONEY_EVENT_PURPOSE_DRT_FARE, mode, event.getRequestId().toString()));
+			} else {
+				addToBuffer(event.getTime(), event.getPersonId().index(), requestIndex, actualFare);
+			}
+
+			if (dailySubscriptionFee > 0 && chargeDailyFee(event.getPersonId().index())) {
+				if (moneyEventsBuffer == null) {
+					events.processEvent(
+							new PersonMoneyEvent(event.getTime(), event.getPersonId(),
+									-dailySubscriptionFee, DrtFareHandler.PERSON_MONEY_EVENT_PURPOSE_DRT_FARE, mode, DAILY_FEE_REFERENCE));
+				} else {
+					addToBuffer(event.getTime(), event.getPersonId().index(), MoneyEventsBuffer.NO_REQUEST, dailySubscriptionFee);
+				}
+			}
+
+			if (moneyEventsBuffer != null && event.getTime() >= nextFlushTime) {
+				flushMoneyEvents(event.getTime());
+			}
+		}
+	}
+
+	@Override
+	public void notifyMobsimBeforeCleanup(MobsimBeforeCleanupEvent e) {
+		if (moneyEventsBuffer != null) {
+			// set before the flush, so that a fare added concurrently is either flushed here or by addToBuffer
+			mobsimFinished = true;
+			moneyEventsBuffer.flush(events);
 		}
 	}
 
 	@Override
 	public void handleEvent(PassengerRequestRejectedEvent passengerRequestRejectedEvent) {
-		if (passengerRequestRejectedEvent.getMode().equals(mode)) {
-			surchargeMap.remove(passengerRequestRejectedEvent.getRequestId());
+		if (isFareMode(passengerRequestRejectedEvent.getMode())) {
+			pendingRequests.remove(passengerRequestRejectedEvent.getRequestId().index());
 		}
 	}
 
 	@Override
 	public void reset(int iteration) {
-		surchargeMap.clear();
+		if (moneyEventsBuffer != null) {
+			if (moneyEventsBuffer.size() > 0) {
+				log.warn(moneyEventsBuffer.size() + " buffered drt fares have not been charged at the end of the mobsim and are charged now. " +
+						"The handler needs to be bound as mobsim listener in batched mode.");
+				moneyEventsBuffer.flush(events);
+			}
+			nextFlushTime = flushInterval;
+			mobsimFinished = false;
+		}
+		pendingRequests.clear();
+		odometers.clear();
+		synchronized (dailyFeeCharged) {
+			dailyFeeCharged.clear();
+		}
 	}
 
-	private Collection<SimpleFeature> getFeatures(String pathToShapeFile) {
-		log.info("Reading shape file...");
-		if (pathToShapeFile != null) {
-			Collection<SimpleFeature> features;
-			if (pathToShapeFile.startsWith("http")) {
-				URL shapeFileAsURL = null;
-				try {
-					shapeFileAsURL = new URL(pathToShapeFile);
-				} catch (MalformedURLException e) {
-					log.error(e);
-				}
-				features = ShapeFileReader.getAllFeatures(shapeFileAsURL);
-			} else {
-				features = ShapeFileReader.getAllFeatures(pathToShapeFile);
+	/**
+	 * Number of submitted requests that have neither been dropped off nor rejected yet.
+	 */
+	int getNumberOfPendingRequests() {
+		return pendingRequests.size();
+	}
+
+	private boolean isFareMode(String eventMode) {
+		// the mode is interned, so in most cases the identity check already decides
+		return eventMode == mode || mode.equals(eventMode);
+	}
+
+	/**
+	 * Returns true if the daily fee has not yet been charged to the person in this iteration, and marks it as charged.
+	 */
+	private boolean chargeDailyFee(int personIndex) {
+		synchronized (dailyFeeCharged) {
+			if (dailyFeeCharged.get(personIndex)) {
+				return false;
 			}
-			return features;
+			dailyFeeCharged.set(personIndex);
+			return true;
+		}
+	}
+
+	private void addToBuffer(double time, int personIndex, int requestIndex, double amount) {
+		moneyEventsBuffer.add(time, personIndex, requestIndex, amount);
+		if (mobsimFinished) {
+			moneyEventsBuffer.flush(events);
+		}
+	}
+
+	private synchronized void flushMoneyEvents(double time) {
+		if (time >= nextFlushTime) {
+			moneyEventsBuffer.flush(time, events);
+			nextFlushTime = (Math.floor(time / flushInterval) + 1) * flushInterval;
+		}
+	}
+
+	/**
+	 * Whether there is a distance based fare. Only then the odometer handler needs to be registered.
+	 */
+	boolean hasDistanceFare() {
+		return linkLengths != null;
+	}
+
+	/**
+	 * Creates the handler that feeds the odometers with the link enter events of the vehicles of the given fleet. Events of all other
+	 * vehicles are discarded before any lock is taken.
+	 */
+	LinkEnterEventHandler createOdometerHandler(FleetSpecification fleet) {
+		if (linkLengths == null) {
+			throw new IllegalStateException("Odometers are only needed for a distance based fare of mode " + mode);
+		}
+		BitSet fleetVehicles = new BitSet();
+		for (DvrpVehicleSpecification vehicle : fleet.getVehicleSpecifications().values()) {
+			fleetVehicles.set(getVehicleIndex(vehicle.getId()));
+		}
+		return new OdometerHandler(fleetVehicles);
+	}
+
+	/**
+	 * Whether money events are emitted in batches. In that case, the handler also needs to be bound as mobsim listener.
+	 */
+	boolean isBatched() {
+		return moneyEventsBuffer != null;
+	}
+
+	private static int getVehicleIndex(Id<DvrpVehicle> dvrpVehicleId) {
+		// dvrp vehicles enter traffic with the vehicle id of the same name
+		return Id.create(dvrpVehicleId, Vehicle.class).index();
+	}
+
+	private double getLinkLength(Id<Link> linkId) {
+		int index = linkId.index();
+		if (index < linkLengths.length && linkLengths[index] > 0) {
+			return linkLengths[index];
+		}
+		// link created after the start
+		return network.getLinks().get(linkId).getLength();
+	}
+
+	private Map<String, Geometry> getZonalSystem(String pathToShapeFile) {
+		if (pathToShapeFile != null) {
+			return FareZoneCache.getZones(pathToShapeFile);
 		} else {
 			log.error("Warning: Shapefile Path is null! All the trip will be charged the base price");
-			return null;
+			return Map.of();
+		}
+	}
+
+	/**
+	 * Adds the length of each entered link to the odometer of fleet vehicles. The fleet is not modified after construction, so it can be
+	 * read concurrently.
+	 */
+	private final class OdometerHandler implements LinkEnterEventHandler {
+		private final BitSet fleetVehicles;
+
+		private OdometerHandler(BitSet fleetVehicles) {
+			this.fleetVehicles = fleetVehicles;
+		}
+
+		@Override
+		public void handleEvent(LinkEnterEvent event) {
+			int vehicleIndex = event.getVehicleId().index();
+			if (fleetVehicles.get(vehicleIndex)) {
+				odometers.addDistance(vehicleIndex, getLinkLength(event.getLinkId()));
+			}
 		}
 	}
 }
@@ -2,39 +2,68 @@ package org.matsim.drtFare;
 
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.contrib.drt.run.DrtConfigGroup;
+import org.matsim.contrib.dvrp.fleet.FleetSpecification;
 import org.matsim.contrib.dvrp.run.AbstractDvrpModeModule;
 
 /**
  * Module to bind fare handlers.
  */
 public class KelheimDrtFareModule extends AbstractDvrpModeModule {
+	/**
+	 * Zonal system of the KEXI fares. Downloaded once into the {@link org.matsim.run.RemoteInputCache}.
+	 */
+	public static final String FARE_ZONES_SHAPE_FILE = "https://svn.vsp.tu-berlin.de/repos/public-svn/matsim/scenarios/countries/de/kelheim/shp/KEXI-fare-shp/DrtFareZonalSystem2.shp";
+
 	private final DrtConfigGroup drtCfg;
 	private final Network network;
 	private final double avFare;
-	private final double baseFare;
-	private final double surcharge;
+	private final KelheimDrtFareParams fareParams;
 
 	public KelheimDrtFareModule(DrtConfigGroup drtCfg, Network network, double avFare, double baseFare, double surcharge) {
+		this(drtCfg, network, avFare, new KelheimDrtFareParams(baseFare, surcharge, drtCfg.getMode()));
+	}
+
+	/**
+	 * Charge the given fare parameters. The av mode always uses the flat av fare instead.
+	 */
+	public KelheimDrtFareModule(DrtConfigGroup drtCfg, Network network, double avFare, KelheimDrtFareParams fareParams) {
 		super(drtCfg.getMode());
 		this.drtCfg = drtCfg;
 		this.network = network;
 		this.avFare = avFare;
-		this.baseFare = baseFare;
-		this.surcharge = surcharge;
+		this.fareParams = fareParams;
 	}
 
 	@Override
 	public void install() {
 		// Default pricing scheme
-		KelheimDrtFareParams kelheimDrtFareParams = new KelheimDrtFareParams(baseFare, surcharge, getMode());
-		kelheimDrtFareParams.setShapeFile("https://svn.vsp.tu-berlin.de/repos/public-svn/matsim/scenarios/countries/de/kelheim/shp/KEXI-fare-shp/DrtFareZonalSystem2.shp");
+		KelheimDrtFareParams kelheimDrtFareParams = new KelheimDrtFareParams(fareParams.getBaseFare(), fareParams.getZone2Surcharge(), getMode());
+		kelheimDrtFareParams.setMinFarePerTrip(fareParams.getMinFarePerTrip());
+		kelheimDrtFareParams.setDailySubscriptionFee(fareParams.getDailySubscriptionFee());
+		kelheimDrtFareParams.setTimeFare_h(fareParams.getTimeFare_h());
+		kelheimDrtFareParams.setDistanceFare_m(fareParams.getDistanceFare_m());
+		kelheimDrtFareParams.setShapeFile(fareParams.getShapeFile() != null ? fareParams.getShapeFile() : FARE_ZONES_SHAPE_FILE);
+		kelheimDrtFareParams.setMoneyEventsFlushInterval(fareParams.getMoneyEventsFlushInterval());
 
 		// Special price for Autonomous vehicles
 		if (getMode().equals("av")) {
 			kelheimDrtFareParams.setBaseFare(avFare);
 			kelheimDrtFareParams.setZone2Surcharge(0.0);
+			kelheimDrtFareParams.setMinFarePerTrip(0.0);
+			kelheimDrtFareParams.setDailySubscriptionFee(0.0);
+			kelheimDrtFareParams.setTimeFare_h(0.0);
+			kelheimDrtFareParams.setDistanceFare_m(0.0);
 			kelheimDrtFareParams.setMode("av");
 		}
-		addEventHandlerBinding().toInstance(new KelheimDrtFareHandler(getMode(), network, kelheimDrtFareParams));
+		KelheimDrtFareHandler fareHandler = new KelheimDrtFareHandler(getMode(), network, kelheimDrtFareParams);
+		addEventHandlerBinding().toInstance(fareHandler);
+		if (fareHandler.hasDistanceFare()) {
+			// link enter events are only needed for the odometers
+			addEventHandlerBinding().toProvider(modalProvider(getter -> fareHandler.createOdometerHandler(getter.getModal(FleetSpecification.class))));
+		}
+		if (fareHandler.isBatched()) {
+			// remaining fares are charged at the end of the mobsim
+			addMobsimListenerBinding().toInstance(fareHandler);
+		}
 	}
 }
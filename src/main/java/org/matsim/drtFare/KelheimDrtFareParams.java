@@ -19,6 +19,7 @@ public final class KelheimDrtFareParams extends ReflectiveConfigGroup {
 	public static final String DISTANCEFARE = "distanceFare_m";
 	public static final String MODE = "mode";
 	public static final String SHAPEFILE = "shapeFile";
+	public static final String MONEY_EVENTS_FLUSH_INTERVAL = "moneyEventsFlushInterval";
 
 	@PositiveOrZero
 	private double baseFare;
@@ -37,6 +38,9 @@ public final class KelheimDrtFareParams extends ReflectiveConfigGroup {
 
 	private String shapeFile;
 
+	@PositiveOrZero
+	private double moneyEventsFlushInterval = 0.0;
+
 	public KelheimDrtFareParams(double baseFare, double zone2Surcharge, String mode) {
 		super(SET_NAME);
 		this.baseFare = baseFare;
@@ -56,6 +60,8 @@ public final class KelheimDrtFareParams extends ReflectiveConfigGroup {
 		map.put(DISTANCEFARE, "drt fare per meter (positive or zero value)");
 		map.put(MODE, "transport mode for which the fare applies. Default: drt");
 		map.put(SHAPEFILE, "shape file of the DRT fare zonal system");
+		map.put(MONEY_EVENTS_FLUSH_INTERVAL, "If positive, fares are buffered and emitted as money events in batches every given number of seconds " +
+				"and at the end of the mobsim. Default: 0 (money events are emitted at each drop off)");
 		return map;
 	}
 
@@ -138,4 +144,14 @@ public final class KelheimDrtFareParams extends ReflectiveConfigGroup {
 	public void setMode(String mode) {
 		this.mode = mode;
 	}
+
+	@StringGetter(MONEY_EVENTS_FLUSH_INTERVAL)
+	public double getMoneyEventsFlushInterval() {
+		return moneyEventsFlushInterval;
+	}
+
+	@StringSetter(MONEY_EVENTS_FLUSH_INTERVAL)
+	public void setMoneyEventsFlushInterval(double moneyEventsFlushInterval) {
+		this.moneyEventsFlushInterval = moneyEventsFlushInterval;
+	}
 }
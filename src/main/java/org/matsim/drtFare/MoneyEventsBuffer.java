@@ -0,0 +1,74 @@
+package org.matsim.drtFare;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.PersonMoneyEvent;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.drt.fare.DrtFareHandler;
+import org.matsim.contrib.dvrp.optimizer.Request;
+import org.matsim.core.api.experimental.events.EventsManager;
+
+import java.util.Arrays;
+
+/**
+ * Buffers drt fare charges in primitive arrays and emits them as {@link PersonMoneyEvent}s in one go.
+ * The transaction reference of an event is only created when it is flushed.
+ */
+final class MoneyEventsBuffer {
+	/**
+	 * Request index used for charges that do not belong to a single trip.
+	 */
+	static final int NO_REQUEST = -1;
+
+	private final String mode;
+	private final String noRequestReference;
+
+	private int[] personIndices = new int[256];
+	private int[] requestIndices = new int[256];
+	private double[] amounts = new double[256];
+	private int size = 0;
+	private double lastTime = 0;
+
+	MoneyEventsBuffer(String mode, String noRequestReference) {
+		this.mode = mode;
+		this.noRequestReference = noRequestReference;
+	}
+
+	/**
+	 * Add a charge. The amount is the fare, i.e. positive.
+	 */
+	synchronized void add(double time, int personIndex, int requestIndex, double amount) {
+		if (size == amounts.length) {
+			personIndices = Arrays.copyOf(personIndices, size * 2);
+			requestIndices = Arrays.copyOf(requestIndices, size * 2);
+			amounts = Arrays.copyOf(amounts, size * 2);
+		}
+		personIndices[size] = personIndex;
+		requestIndices[size] = requestIndex;
+		amounts[size] = amount;
+		size++;
+		lastTime = Math.max(lastTime, time);
+	}
+
+	/**
+	 * Emit all buffered charges. The events carry the time of the flush, so that they do not precede already processed events.
+	 */
+	synchronized void flush(double time, EventsManager events) {
+		for (int i = 0; i < size; i++) {
+			String reference = requestIndices[i] == NO_REQUEST ? noRequestReference : Id.get(requestIndices[i], Request.class).toString();
+			events.processEvent(new PersonMoneyEvent(time, Id.get(personIndices[i], Person.class), -amounts[i],
+					DrtFareHandler.PERSON_MONEY_EVENT_PURPOSE_DRT_FARE, mode, reference));
+		}
+		size = 0;
+	}
+
+	/**
+	 * Emit all buffered charges at the time of the latest charge.
+	 */
+	synchronized void flush(EventsManager events) {
+		flush(lastTime, events);
+	}
+
+	synchronized int size() {
+		return size;
+	}
+}
@@ -0,0 +1,130 @@
+package org.matsim.drtFare;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe bookkeeping of submitted drt requests that are neither dropped off nor rejected yet, together with a flag per request
+ * (e.g. whether the zone 2 surcharge applies) and the time and vehicle odometer reading at pick up.
+ * <p>
+ * Requests are identified by their id index. The state is split into lock stripes by the lowest bits of the index, so that events of
+ * different requests processed on different threads (e.g. by the {@link org.matsim.core.events.ParallelEventsManager}) rarely contend.
+ * Within a stripe, the state is kept in bit sets and primitive arrays, so that no objects are allocated per request.
+ */
+final class PendingDrtRequests {
+	private static final int STRIPE_BITS = 5;
+	private static final int STRIPES = 1 << STRIPE_BITS;
+
+	private final Stripe[] stripes = new Stripe[STRIPES];
+	private final AtomicInteger size = new AtomicInteger();
+
+	PendingDrtRequests() {
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * Register a submitted request. If the request is already pending, only its flag is updated.
+	 */
+	void add(int requestIndex, boolean flag) {
+		Stripe stripe = stripes[requestIndex & (STRIPES - 1)];
+		int local = requestIndex >>> STRIPE_BITS;
+		synchronized (stripe) {
+			if (!stripe.pending.get(local)) {
+				stripe.pending.set(local);
+				size.incrementAndGet();
+				stripe.ensureCapacity(local);
+				stripe.pickupTimes[local] = Double.NaN;
+				stripe.pickupOdometers[local] = Double.NaN;
+			}
+			stripe.flags.set(local, flag);
+		}
+	}
+
+	/**
+	 * Remove a pending request.
+	 *
+	 * @return 1 if the request was flagged, 0 if it was not flagged and -1 if the request was not pending at all
+	 */
+	int remove(int requestIndex) {
+		Stripe stripe = stripes[requestIndex & (STRIPES - 1)];
+		int local = requestIndex >>> STRIPE_BITS;
+		synchronized (stripe) {
+			if (!stripe.pending.get(local)) {
+				return -1;
+			}
+			boolean flag = stripe.flags.get(local);
+			stripe.pending.clear(local);
+			stripe.flags.clear(local);
+			size.decrementAndGet();
+			return flag ? 1 : 0;
+		}
+	}
+
+	/**
+	 * Record the pick up of a pending request. Has no effect if the request is not pending.
+	 */
+	void pickedUp(int requestIndex, double time, double odometer) {
+		Stripe stripe = stripes[requestIndex & (STRIPES - 1)];
+		int local = requestIndex >>> STRIPE_BITS;
+		synchronized (stripe) {
+			if (stripe.pending.get(local)) {
+				stripe.pickupTimes[local] = time;
+				stripe.pickupOdometers[local] = odometer;
+			}
+		}
+	}
+
+	/**
+	 * Pick up time of a pending request, or NaN if it has not been picked up.
+	 */
+	double getPickupTime(int requestIndex) {
+		Stripe stripe = stripes[requestIndex & (STRIPES - 1)];
+		int local = requestIndex >>> STRIPE_BITS;
+		synchronized (stripe) {
+			return stripe.pending.get(local) ? stripe.pickupTimes[local] : Double.NaN;
+		}
+	}
+
+	/**
+	 * Odometer reading of the vehicle at pick up of a pending request, or NaN if it has not been picked up.
+	 */
+	double getPickupOdometer(int requestIndex) {
+		Stripe stripe = stripes[requestIndex & (STRIPES - 1)];
+		int local = requestIndex >>> STRIPE_BITS;
+		synchronized (stripe) {
+			return stripe.pending.get(local) ? stripe.pickupOdometers[local] : Double.NaN;
+		}
+	}
+
+	int size() {
+		return size.get();
+	}
+
+	void clear() {
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				stripe.pending.clear();
+				stripe.flags.clear();
+			}
+		}
+		size.set(0);
+	}
+
+	private static final class Stripe {
+		private final BitSet pending = new BitSet();
+		private final BitSet flags = new BitSet();
+		private double[] pickupTimes = new double[64];
+		private double[] pickupOdometers = new double[64];
+
+		private void ensureCapacity(int local) {
+			if (local >= pickupTimes.length) {
+				int capacity = Math.max(local + 1, pickupTimes.length * 2);
+				pickupTimes = Arrays.copyOf(pickupTimes, capacity);
+				pickupOdometers = Arrays.copyOf(pickupOdometers, capacity);
+			}
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package org.matsim.drtFare;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Thread-safe odometers of drt vehicles, indexed by vehicle id index. Only vehicles that have been registered via {@link #track(int)}
+ * accumulate distance, all other vehicles are ignored. Uses the same lock striping as {@link PendingDrtRequests}.
+ */
+final class VehicleOdometers {
+	private static final int STRIPE_BITS = 4;
+	private static final int STRIPES = 1 << STRIPE_BITS;
+
+	private final Stripe[] stripes = new Stripe[STRIPES];
+
+	VehicleOdometers() {
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * Start accumulating the distance of a vehicle. Has no effect if the vehicle is already tracked.
+	 */
+	void track(int vehicleIndex) {
+		Stripe stripe = stripes[vehicleIndex & (STRIPES - 1)];
+		int local = vehicleIndex >>> STRIPE_BITS;
+		synchronized (stripe) {
+			if (!stripe.tracked.get(local)) {
+				stripe.tracked.set(local);
+				stripe.ensureCapacity(local);
+			}
+		}
+	}
+
+	void addDistance(int vehicleIndex, double distance) {
+		Stripe stripe = stripes[vehicleIndex & (STRIPES - 1)];
+		int local = vehicleIndex >>> STRIPE_BITS;
+		synchronized (stripe) {
+			if (stripe.tracked.get(local)) {
+				stripe.distances[local] += distance;
+			}
+		}
+	}
+
+	/**
+	 * Distance driven by the vehicle since it has been tracked.
+	 */
+	double getDistance(int vehicleIndex) {
+		Stripe stripe = stripes[vehicleIndex & (STRIPES - 1)];
+		int local = vehicleIndex >>> STRIPE_BITS;
+		synchronized (stripe) {
+			return stripe.tracked.get(local) ? stripe.distances[local] : 0;
+		}
+	}
+
+	void clear() {
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				stripe.tracked.clear();
+				Arrays.fill(stripe.distances, 0);
+			}
+		}
+	}
+
+	private static final class Stripe {
+		private final BitSet tracked = new BitSet();
+		private double[] distances = new double[64];
+
+		private void ensureCapacity(int local) {
+			if (local >= distances.length) {
+				distances = Arrays.copyOf(distances, Math.max(local + 1, distances.length * 2));
+			}
+		}
+	}
+}
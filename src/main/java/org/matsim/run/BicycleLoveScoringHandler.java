@@ -0,0 +1,66 @@
+package org.matsim.run;
+
+import com.google.inject.Inject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.PersonDepartureEvent;
+import org.matsim.api.core.v01.events.PersonScoreEvent;
+import org.matsim.api.core.v01.events.handler.PersonDepartureEventHandler;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.api.experimental.events.EventsManager;
+
+import java.util.Arrays;
+
+/**
+ * Adds the person specific "bicycle love", i.e. a random alternative specific constant, to the score of each bike departure.
+ * <p>
+ * The values are read once from the person attributes into an array indexed by the person id index.
+ */
+public final class BicycleLoveScoringHandler implements PersonDepartureEventHandler {
+	/**
+	 * Person attribute holding the additional score per bike trip.
+	 */
+	public static final String ATTRIBUTE = "bicycleLove";
+
+	private static final Logger log = LogManager.getLogger(BicycleLoveScoringHandler.class);
+	private static final String MODE = TransportMode.bike;
+
+	private final EventsManager events;
+	/**
+	 * Score per bike departure by person index, NaN if the person has no value.
+	 */
+	private final double[] bicycleLove;
+
+	@Inject
+	BicycleLoveScoringHandler(Population population, EventsManager events) {
+		this.events = events;
+		this.bicycleLove = new double[Id.getNumberOfIds(Person.class)];
+		Arrays.fill(bicycleLove, Double.NaN);
+
+		int count = 0;
+		for (Person person : population.getPersons().values()) {
+			Object value = person.getAttributes().getAttribute(ATTRIBUTE);
+			if (value != null) {
+				bicycleLove[person.getId().index()] = (double) value;
+				count++;
+			}
+		}
+		log.info("Read " + ATTRIBUTE + " of " + count + " persons");
+	}
+
+	@Override
+	public void handleEvent(PersonDepartureEvent event) {
+		String mode = event.getLegMode();
+		if (mode != MODE && !MODE.equals(mode)) {
+			return;
+		}
+		int index = event.getPersonId().index();
+		if (index >= bicycleLove.length || Double.isNaN(bicycleLove[index])) {
+			return;
+		}
+		events.processEvent(new PersonScoreEvent(event.getTime(), event.getPersonId(), bicycleLove[index], ATTRIBUTE));
+	}
+}
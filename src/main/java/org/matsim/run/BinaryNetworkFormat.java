@@ -0,0 +1,305 @@
+package org.matsim.run;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.utils.objectattributes.attributable.Attributes;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact binary format of a network, read via a memory mapped file.
+ * <p>
+ * Node and link data is stored column by column in primitive arrays. Allowed modes are stored once per distinct combination,
+ * links only refer to it by index. Attributes of the network, nodes and links may be strings, numbers or booleans.
+ */
+final class BinaryNetworkFormat {
+	private static final int MAGIC = 0x4b484e57;
+	private static final int VERSION = 1;
+
+	private static final byte TYPE_STRING = 1;
+	private static final byte TYPE_DOUBLE = 2;
+	private static final byte TYPE_INTEGER = 3;
+	private static final byte TYPE_LONG = 4;
+	private static final byte TYPE_BOOLEAN = 5;
+
+	private BinaryNetworkFormat() {
+	}
+
+	/**
+	 * Whether all attributes of the network, its nodes and links have types that are supported by this format.
+	 */
+	static boolean isSupported(Network network) {
+		if (!isSupported(network.getAttributes())) {
+			return false;
+		}
+		for (Node node : network.getNodes().values()) {
+			if (!isSupported(node.getAttributes())) {
+				return false;
+			}
+		}
+		for (Link link : network.getLinks().values()) {
+			if (!isSupported(link.getAttributes())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Write the network, which needs to be {@link #isSupported(Network) supported}.
+	 */
+	static void write(Network network, Path file) throws IOException {
+		List<Node> nodes = new ArrayList<>(network.getNodes().values());
+		List<Link> links = new ArrayList<>(network.getLinks().values());
+
+		Map<Id<Node>, Integer> nodeIndex = new HashMap<>();
+		for (int i = 0; i < nodes.size(); i++) {
+			nodeIndex.put(nodes.get(i).getId(), i);
+		}
+
+		Map<Set<String>, Integer> modeSetIndex = new HashMap<>();
+		List<Set<String>> modeSets = new ArrayList<>();
+		for (Link link : links) {
+			modeSetIndex.computeIfAbsent(link.getAllowedModes(), modes -> {
+				modeSets.add(modes);
+				return modeSets.size() - 1;
+			});
+		}
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeDouble(network.getCapacityPeriod());
+			out.writeDouble(network.getEffectiveLaneWidth());
+			writeAttributes(out, network.getAttributes());
+
+			out.writeInt(modeSets.size());
+			for (Set<String> modes : modeSets) {
+				out.writeInt(modes.size());
+				for (String mode : modes) {
+					writeString(out, mode);
+				}
+			}
+
+			out.writeInt(nodes.size());
+			for (Node node : nodes) {
+				writeString(out, node.getId().toString());
+			}
+			for (Node node : nodes) {
+				out.writeDouble(node.getCoord().getX());
+			}
+			for (Node node : nodes) {
+				out.writeDouble(node.getCoord().getY());
+			}
+			for (Node node : nodes) {
+				out.writeDouble(node.getCoord().hasZ() ? node.getCoord().getZ() : Double.NaN);
+			}
+
+			out.writeInt(links.size());
+			for (Link link : links) {
+				writeString(out, link.getId().toString());
+			}
+			for (Link link : links) {
+				out.writeInt(nodeIndex.get(link.getFromNode().getId()));
+			}
+			for (Link link : links) {
+				out.writeInt(nodeIndex.get(link.getToNode().getId()));
+			}
+			for (Link link : links) {
+				out.writeDouble(link.getLength());
+			}
+			for (Link link : links) {
+				out.writeDouble(link.getFreespeed());
+			}
+			for (Link link : links) {
+				out.writeDouble(link.getCapacity());
+			}
+			for (Link link : links) {
+				out.writeDouble(link.getNumberOfLanes());
+			}
+			for (Link link : links) {
+				out.writeInt(modeSetIndex.get(link.getAllowedModes()));
+			}
+
+			for (Node node : nodes) {
+				writeAttributes(out, node.getAttributes());
+			}
+			for (Link link : links) {
+				writeAttributes(out, link.getAttributes());
+			}
+		}
+	}
+
+	/**
+	 * Read a network into the given, empty network.
+	 */
+	static void read(Path file, Network network) throws IOException {
+		// the mapping stays valid after the channel is closed
+		ByteBuffer in;
+		try (FileChannel channel = FileChannel.open(file)) {
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+			throw new IOException("Not a network snapshot of version " + VERSION + ": " + file);
+		}
+
+		NetworkFactory factory = network.getFactory();
+		network.setCapacityPeriod(in.getDouble());
+		network.setEffectiveLaneWidth(in.getDouble());
+		readAttributes(in, network.getAttributes());
+
+		int numberOfModeSets = in.getInt();
+		List<Set<String>> modeSets = new ArrayList<>(numberOfModeSets);
+		for (int i = 0; i < numberOfModeSets; i++) {
+			int size = in.getInt();
+			Set<String> modes = new HashSet<>();
+			for (int j = 0; j < size; j++) {
+				modes.add(readString(in).intern());
+			}
+			modeSets.add(Collections.unmodifiableSet(modes));
+		}
+
+		int numberOfNodes = in.getInt();
+		String[] nodeIds = new String[numberOfNodes];
+		for (int i = 0; i < numberOfNodes; i++) {
+			nodeIds[i] = readString(in);
+		}
+		double[] x = readDoubles(in, numberOfNodes);
+		double[] y = readDoubles(in, numberOfNodes);
+		double[] z = readDoubles(in, numberOfNodes);
+		Node[] nodes = new Node[numberOfNodes];
+		for (int i = 0; i < numberOfNodes; i++) {
+			Coord coord = Double.isNaN(z[i]) ? new Coord(x[i], y[i]) : new Coord(x[i], y[i], z[i]);
+			nodes[i] = factory.createNode(Id.createNodeId(nodeIds[i]), coord);
+			network.addNode(nodes[i]);
+		}
+
+		int numberOfLinks = in.getInt();
+		String[] linkIds = new String[numberOfLinks];
+		for (int i = 0; i < numberOfLinks; i++) {
+			linkIds[i] = readString(in);
+		}
+		int[] from = readInts(in, numberOfLinks);
+		int[] to = readInts(in, numberOfLinks);
+		double[] length = readDoubles(in, numberOfLinks);
+		double[] freespeed = readDoubles(in, numberOfLinks);
+		double[] capacity = readDoubles(in, numberOfLinks);
+		double[] lanes = readDoubles(in, numberOfLinks);
+		int[] modeSet = readInts(in, numberOfLinks);
+		Link[] links = new Link[numberOfLinks];
+		for (int i = 0; i < numberOfLinks; i++) {
+			Link link = factory.createLink(Id.createLinkId(linkIds[i]), nodes[from[i]], nodes[to[i]]);
+			link.setLength(length[i]);
+			link.setFreespeed(freespeed[i]);
+			link.setCapacity(capacity[i]);
+			link.setNumberOfLanes(lanes[i]);
+			link.setAllowedModes(modeSets.get(modeSet[i]));
+			network.addLink(link);
+			links[i] = link;
+		}
+
+		for (Node node : nodes) {
+			readAttributes(in, node.getAttributes());
+		}
+		for (Link link : links) {
+			readAttributes(in, link.getAttributes());
+		}
+	}
+
+	private static double[] readDoubles(ByteBuffer in, int n) {
+		double[] values = new double[n];
+		in.asDoubleBuffer().get(values);
+		in.position(in.position() + n * Double.BYTES);
+		return values;
+	}
+
+	private static int[] readInts(ByteBuffer in, int n) {
+		int[] values = new int[n];
+		in.asIntBuffer().get(values);
+		in.position(in.position() + n * Integer.BYTES);
+		return values;
+	}
+
+	private static boolean isSupported(Attributes attributes) {
+		for (Object value : attributes.getAsMap().values()) {
+			if (!(value instanceof String || value instanceof Double || value instanceof Integer || value instanceof Long || value instanceof Boolean)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void writeAttributes(DataOutputStream out, Attributes attributes) throws IOException {
+		out.writeInt(attributes.size());
+		for (Map.Entry<String, Object> e : attributes.getAsMap().entrySet()) {
+			writeString(out, e.getKey());
+			Object value = e.getValue();
+			if (value instanceof String s) {
+				out.writeByte(TYPE_STRING);
+				writeString(out, s);
+			} else if (value instanceof Double d) {
+				out.writeByte(TYPE_DOUBLE);
+				out.writeDouble(d);
+			} else if (value instanceof Integer i) {
+				out.writeByte(TYPE_INTEGER);
+				out.writeInt(i);
+			} else if (value instanceof Long l) {
+				out.writeByte(TYPE_LONG);
+				out.writeLong(l);
+			} else if (value instanceof Boolean b) {
+				out.writeByte(TYPE_BOOLEAN);
+				out.writeBoolean(b);
+			} else {
+				throw new IllegalArgumentException("Attribute " + e.getKey() + " of type " + value.getClass() + " is not supported");
+			}
+		}
+	}
+
+	private static void readAttributes(ByteBuffer in, Attributes attributes) throws IOException {
+		int size = in.getInt();
+		for (int i = 0; i < size; i++) {
+			String key = readString(in);
+			byte type = in.get();
+			Object value = switch (type) {
+				case TYPE_STRING -> readString(in);
+				case TYPE_DOUBLE -> in.getDouble();
+				case TYPE_INTEGER -> in.getInt();
+				case TYPE_LONG -> in.getLong();
+				case TYPE_BOOLEAN -> in.get() != 0;
+				default -> throw new IOException("Unknown attribute type " + type);
+			};
+			attributes.putAttribute(key, value);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,163 @@
+package org.matsim.run;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
+import org.matsim.core.network.io.MatsimNetworkReader;
+import org.matsim.core.population.io.PopulationReader;
+import org.matsim.core.scenario.MutableScenario;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.io.MatsimXmlParser;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitScheduleReader;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.vehicles.MatsimVehicleReader;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleType;
+import org.xml.sax.Attributes;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Loads the input files of a scenario (network, population, vehicles, transit schedule and transit vehicles) with concurrent readers.
+ * <p>
+ * The index of an id, and with it the iteration order of id maps and all arrays indexed by ids, depends on the order in which the ids are
+ * created. Ids that are created by more than one file (link, vehicle, vehicle type and transit ids) are therefore created first, by a
+ * scan that only looks at the id attributes of the files that define them. The readers then run concurrently, including the population,
+ * and only look up these ids, so that every run creates the ids in the same order.
+ * The readers are the same as used by {@link ScenarioUtils#loadScenario(Config)}, including the coordinate transformations.
+ * The load time of each file is logged.
+ */
+public final class ParallelScenarioLoader {
+	private static final Logger log = LogManager.getLogger(ParallelScenarioLoader.class);
+
+	private ParallelScenarioLoader() {
+	}
+
+	/**
+	 * Whether the config only uses inputs that are supported by this loader. Other inputs (facilities, lanes, households or network
+	 * change events) need the default loader.
+	 */
+	public static boolean isSupported(Config config) {
+		return !config.network().isTimeVariantNetwork() && config.facilities().getInputFile() == null
+			&& config.network().getLaneDefinitionsFile() == null && config.households().getInputFile() == null;
+	}
+
+	/**
+	 * Load the scenario with at most the given number of threads.
+	 *
+	 * @param beforePopulation called before any file is read, e.g. to register route factories needed by the population reader
+	 */
+	public static Scenario load(Config config, int threads, Consumer<Scenario> beforePopulation) {
+		if (!isSupported(config)) {
+			throw new IllegalArgumentException("The config contains inputs that can only be loaded with ScenarioUtils.loadScenario");
+		}
+
+		long start = System.currentTimeMillis();
+		MutableScenario scenario = ScenarioUtils.createMutableScenario(config);
+		beforePopulation.accept(scenario);
+
+		String targetCRS = config.global().getCoordinateSystem();
+		Map<String, Runnable> scans = new LinkedHashMap<>();
+		Map<String, Runnable> readers = new LinkedHashMap<>();
+
+		if (config.network().getInputFile() != null) {
+			URL url = ConfigGroup.getInputFileURL(config.getContext(), config.network().getInputFile());
+			scans.put("link ids " + url, () -> new IdScanner(Map.of("link", Link.class)).readURL(url));
+			readers.put("network " + url, () -> new MatsimNetworkReader(config.network().getInputCRS(), targetCRS, scenario.getNetwork()).readURL(url));
+		}
+		List<URL> vehicleFiles = new ArrayList<>();
+		if (config.vehicles().getVehiclesFile() != null) {
+			URL url = ConfigGroup.getInputFileURL(config.getContext(), config.vehicles().getVehiclesFile());
+			vehicleFiles.add(url);
+			readers.put("vehicles " + url, () -> new MatsimVehicleReader(scenario.getVehicles()).readURL(url));
+		}
+		if (config.transit().isUseTransit() && config.transit().getVehiclesFile() != null) {
+			URL url = ConfigGroup.getInputFileURL(config.getContext(), config.transit().getVehiclesFile());
+			vehicleFiles.add(url);
+			readers.put("transit vehicles " + url, () -> new MatsimVehicleReader(scenario.getTransitVehicles()).readURL(url));
+		}
+		if (!vehicleFiles.isEmpty()) {
+			// both files create vehicle ids, so they are scanned one after another
+			scans.put("vehicle ids " + vehicleFiles, () -> vehicleFiles.forEach(
+				url -> new IdScanner(Map.of("vehicleType", VehicleType.class, "vehicle", Vehicle.class)).readURL(url)));
+		}
+		if (config.transit().isUseTransit() && config.transit().getTransitScheduleFile() != null) {
+			URL url = ConfigGroup.getInputFileURL(config.getContext(), config.transit().getTransitScheduleFile());
+			scans.put("transit ids " + url, () -> new IdScanner(Map.of("stopFacility", TransitStopFacility.class,
+				"transitLine", TransitLine.class, "transitRoute", TransitRoute.class)).readURL(url));
+			readers.put("transit schedule " + url, () -> new TransitScheduleReader(config.transit().getInputScheduleCRS(), targetCRS, scenario).readURL(url));
+		}
+		if (config.plans().getInputFile() != null) {
+			URL url = ConfigGroup.getInputFileURL(config.getContext(), config.plans().getInputFile());
+			readers.put("population " + url, () -> new PopulationReader(config.plans().getInputCRS(), targetCRS, scenario).readURL(url));
+		}
+
+		int poolSize = Math.max(1, Math.min(threads, readers.size()));
+		ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+		try {
+			for (Map<String, Runnable> tasks : List.of(scans, readers)) {
+				List<Future<?>> futures = new ArrayList<>();
+				for (Map.Entry<String, Runnable> task : tasks.entrySet()) {
+					futures.add(executor.submit(() -> {
+						long t = System.currentTimeMillis();
+						task.getValue().run();
+						log.info("Loaded " + task.getKey() + " in " + (System.currentTimeMillis() - t) + " ms");
+					}));
+				}
+				for (Future<?> future : futures) {
+					future.get();
+				}
+			}
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Could not load scenario", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while loading scenario", e);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		log.info("Loaded scenario with " + poolSize + " threads in " + (System.currentTimeMillis() - start) + " ms");
+		return scenario;
+	}
+
+	/**
+	 * Creates the ids given by the id attribute of some elements, in the order of the file, without reading anything else.
+	 */
+	private static final class IdScanner extends MatsimXmlParser {
+		private final Map<String, Class<?>> types;
+
+		IdScanner(Map<String, Class<?>> types) {
+			super(ValidationType.NO_VALIDATION);
+			this.types = types;
+		}
+
+		@Override
+		public void startTag(String name, Attributes atts, Stack<String> context) {
+			Class<?> type = types.get(name);
+			if (type != null) {
+				Id.create(atts.getValue("id"), type);
+			}
+		}
+
+		@Override
+		public void endTag(String name, String content, Stack<String> context) {
+		}
+	}
+}
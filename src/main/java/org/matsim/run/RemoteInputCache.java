@@ -0,0 +1,174 @@
+package org.matsim.run;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Local on-disk cache for remote input files (e.g. the shape files on the public svn).
+ * <p>
+ * Downloaded files are stored content-addressed, i.e. under the sha-256 hash of their content, and each url holds a reference to its content.
+ * Once a url has been downloaded, it is served from the cache without any network access, which allows runs on offline nodes and avoids
+ * repeated downloads by parallel runs on the same machine. All writes are atomic, so that several processes can share one cache directory.
+ * <p>
+ * The cache directory can be set via the system property {@value CACHE_DIR_PROPERTY} or the environment variable {@value CACHE_DIR_ENV}.
+ * To refresh the cache, simply delete the directory.
+ */
+public final class RemoteInputCache {
+
+	public static final String CACHE_DIR_PROPERTY = "matsim.kelheim.cacheDir";
+	public static final String CACHE_DIR_ENV = "KELHEIM_CACHE_DIR";
+
+	private static final Logger log = LogManager.getLogger(RemoteInputCache.class);
+
+	/**
+	 * Files belonging to a shape file, the first one is mandatory.
+	 */
+	private static final List<String> SHAPE_FILE_EXTENSIONS = List.of(".shp", ".shx", ".dbf", ".prj", ".cpg");
+
+	private RemoteInputCache() {
+	}
+
+	/**
+	 * Root directory of the cache.
+	 */
+	public static Path getCacheDirectory() {
+		String dir = System.getProperty(CACHE_DIR_PROPERTY, System.getenv(CACHE_DIR_ENV));
+		if (dir == null || dir.isBlank()) {
+			return Path.of(System.getProperty("user.home"), ".cache", "matsim-kelheim");
+		}
+		return Path.of(dir);
+	}
+
+	/**
+	 * Check whether the given input needs to be downloaded.
+	 */
+	public static boolean isRemote(String pathOrUrl) {
+		return pathOrUrl.startsWith("http://") || pathOrUrl.startsWith("https://");
+	}
+
+	/**
+	 * Returns a local copy of the given url. Local paths are returned unchanged.
+	 */
+	public static Path getLocalFile(String pathOrUrl) throws IOException {
+		if (!isRemote(pathOrUrl)) {
+			return Path.of(pathOrUrl);
+		}
+		return resolve(pathOrUrl, List.of(""));
+	}
+
+	/**
+	 * Returns a local copy of the given shape file url, including its accompanying .shx, .dbf, .prj and .cpg files. Local paths are returned unchanged.
+	 */
+	public static Path getLocalShapeFile(String pathOrUrl) throws IOException {
+		if (!isRemote(pathOrUrl)) {
+			return Path.of(pathOrUrl);
+		}
+		if (!pathOrUrl.endsWith(".shp")) {
+			throw new IllegalArgumentException("Not a shape file: " + pathOrUrl);
+		}
+		return resolve(pathOrUrl.substring(0, pathOrUrl.length() - ".shp".length()), SHAPE_FILE_EXTENSIONS);
+	}
+
+	/**
+	 * Hex encoded sha-256 hash over the content of all given files. Files that do not exist are skipped.
+	 */
+	public static String hashContent(Path... files) throws IOException {
+		MessageDigest digest = createDigest();
+		for (Path file : files) {
+			if (Files.exists(file)) {
+				try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+					in.transferTo(OutputStream.nullOutputStream());
+				}
+			}
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	/**
+	 * Hex encoded sha-256 hash of a string.
+	 */
+	public static String hashString(String value) {
+		return HexFormat.of().formatHex(createDigest().digest(value.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Write a file in the cache directory, so that concurrent readers never see a partially written file.
+	 */
+	public static void writeAtomically(Path target, byte[] content) throws IOException {
+		Files.createDirectories(target.getParent());
+		Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+		Files.write(tmp, content);
+		Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static Path resolve(String baseUrl, List<String> extensions) throws IOException {
+		Path cacheDir = getCacheDirectory();
+		String mainUrl = baseUrl + extensions.get(0);
+		String fileName = mainUrl.substring(mainUrl.lastIndexOf('/') + 1);
+
+		Path ref = cacheDir.resolve("refs").resolve(hashString(mainUrl));
+		if (Files.exists(ref)) {
+			Path cached = cacheDir.resolve("blobs").resolve(Files.readString(ref).trim()).resolve(fileName);
+			if (Files.exists(cached)) {
+				log.info("Using cached copy of " + mainUrl + ": " + cached);
+				return cached;
+			}
+		}
+
+		log.info("Downloading " + mainUrl + " into local cache " + cacheDir);
+		Files.createDirectories(cacheDir.resolve("blobs"));
+		Path tmpDir = Files.createTempDirectory(cacheDir.resolve("blobs"), "download");
+		MessageDigest digest = createDigest();
+		for (int i = 0; i < extensions.size(); i++) {
+			String url = baseUrl + extensions.get(i);
+			Path target = tmpDir.resolve(url.substring(url.lastIndexOf('/') + 1));
+			try (InputStream in = new DigestInputStream(new URL(url).openStream(), digest)) {
+				Files.copy(in, target);
+			} catch (FileNotFoundException e) {
+				// only the main file is mandatory
+				if (i == 0) {
+					FileUtils.deleteDirectory(tmpDir.toFile());
+					throw e;
+				}
+			}
+		}
+
+		String contentHash = HexFormat.of().formatHex(digest.digest());
+		Path blobDir = cacheDir.resolve("blobs").resolve(contentHash);
+		try {
+			Files.move(tmpDir, blobDir, StandardCopyOption.ATOMIC_MOVE);
+		} catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+			// same content is already present, e.g. downloaded by a parallel run
+			FileUtils.deleteDirectory(tmpDir.toFile());
+		}
+		writeAtomically(ref, contentHash.getBytes(StandardCharsets.UTF_8));
+
+		return blobDir.resolve(fileName);
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+}
@@ -2,22 +2,23 @@ package org.matsim.run;
 
 import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorModule;
 import com.google.common.collect.Sets;
-import com.google.inject.Inject;
+import com.google.inject.Scopes;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.matsim.analysis.KelheimMainModeIdentifier;
+import org.matsim.analysis.KelheimMainModeIdentifierConfigGroup;
 import org.matsim.analysis.ModeChoiceCoverageControlerListener;
 import org.matsim.analysis.personMoney.PersonMoneyEventsAnalysisModule;
+import org.matsim.analysis.postAnalysis.EventsAnalysisPipeline;
 import org.matsim.analysis.postAnalysis.drt.DrtServiceQualityAnalysis;
 import org.matsim.analysis.postAnalysis.drt.DrtVehiclesRoadUsageAnalysis;
+import org.matsim.analysis.postAnalysis.events.ConvertEventsToColumnar;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
-import org.matsim.api.core.v01.events.PersonDepartureEvent;
-import org.matsim.api.core.v01.events.PersonScoreEvent;
-import org.matsim.api.core.v01.events.handler.PersonDepartureEventHandler;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.Person;
-import org.matsim.api.core.v01.population.Population;
 import org.matsim.application.MATSimApplication;
 import org.matsim.application.analysis.CheckPopulation;
 import org.matsim.application.analysis.traffic.LinkStats;
@@ -41,7 +42,6 @@ import org.matsim.contrib.dvrp.run.DvrpModule;
 import org.matsim.contrib.dvrp.run.DvrpQSimComponents;
 import org.matsim.contrib.dvrp.trafficmonitoring.DvrpModeLimitedMaxSpeedTravelTimeModule;
 import org.matsim.contrib.vsp.scenario.SnzActivities;
-import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.config.groups.RoutingConfigGroup;
@@ -49,12 +49,16 @@ import org.matsim.core.config.groups.VspExperimentalConfigGroup;
 import org.matsim.core.controler.AbstractModule;
 import org.matsim.core.controler.Controler;
 import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.listener.IterationStartsListener;
 import org.matsim.core.router.AnalysisMainModeIdentifier;
 import org.matsim.core.scoring.functions.ScoringParametersForPerson;
 import org.matsim.drtFare.KelheimDrtFareModule;
+import org.matsim.drtFare.KelheimDrtFareParams;
 import org.matsim.extensions.pt.routing.ptRoutingModes.PtIntermodalRoutingModesConfigGroup;
 import org.matsim.run.prepare.PrepareNetwork;
 import org.matsim.run.prepare.PreparePopulation;
+import org.matsim.run.profiling.EventHandlerProfilingModule;
+import org.matsim.run.profiling.IterationPerformanceModule;
 import org.matsim.simwrapper.SimWrapperConfigGroup;
 import org.matsim.simwrapper.SimWrapperModule;
 import org.matsim.vehicles.VehicleType;
@@ -64,6 +68,9 @@ import playground.vsp.pt.fare.PtFareConfigGroup;
 import playground.vsp.scoring.IncomeDependentUtilityOfMoneyPersonScoringParameters;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
 import java.util.List;
 import java.util.Set;
 import java.util.SplittableRandom;
@@ -75,11 +82,13 @@ import java.util.SplittableRandom;
 	CreateLandUseShp.class, ResolveGridCoordinates.class, PreparePopulation.class, CleanPopulation.class, FixSubtourModes.class, SplitActivityTypesDuration.class
 })
 @MATSimApplication.Analysis({
-	LinkStats.class, CheckPopulation.class, DrtServiceQualityAnalysis.class, DrtVehiclesRoadUsageAnalysis.class
+	LinkStats.class, CheckPopulation.class, DrtServiceQualityAnalysis.class, DrtVehiclesRoadUsageAnalysis.class, EventsAnalysisPipeline.class,
+	ConvertEventsToColumnar.class
 })
 public class RunKelheimScenario extends MATSimApplication {
 
 	public static final String VERSION = "3.1";
+	private static final Logger log = LogManager.getLogger(RunKelheimScenario.class);
 	private static final double WEIGHT_1_PASSENGER = 16517.;
 	private static final double WEIGHT_2_PASSENGER = 2084.;
 	private static final double WEIGHT_3_PASSENGER = 532.;
@@ -120,6 +129,41 @@ public class RunKelheimScenario extends MATSimApplication {
 	@CommandLine.Option(names = "--surcharge", defaultValue = "1.0", description = "Surcharge of KEXI trip from / to train station")
 	private double surcharge;
 
+	@CommandLine.Option(names = "--min-fare", defaultValue = "0.0", description = "Minimum fare of KEXI trip")
+	private double minFare;
+
+	@CommandLine.Option(names = "--distance-fare", defaultValue = "0.0", description = "Fare of KEXI trip per in-vehicle meter")
+	private double distanceFare;
+
+	@CommandLine.Option(names = "--time-fare", defaultValue = "0.0", description = "Fare of KEXI trip per in-vehicle hour")
+	private double timeFare;
+
+	@CommandLine.Option(names = "--daily-fee", defaultValue = "0.0", description = "Daily subscription fee of KEXI, charged once per person and day")
+	private double dailyFee;
+
+	@CommandLine.Option(names = "--fare-flush-interval", defaultValue = "0.0", description = "If positive, drt fares are charged in batches every given number of seconds")
+	private double fareFlushInterval;
+
+	@CommandLine.Option(names = "--snapshot", defaultValue = "false", description = "Load the prepared scenario from a binary snapshot, which is written by the first run with the same inputs and options")
+	private boolean snapshot;
+
+	@CommandLine.Option(names = "--parallel-load", defaultValue = "false", description = "Load the independent input files of the scenario concurrently")
+	private boolean parallelLoad;
+
+	@CommandLine.Option(names = "--profile-iterations", defaultValue = "false", description = "Write the durations of the iteration phases, event throughput and GC statistics of each iteration")
+	private boolean profileIterations;
+
+	@CommandLine.Option(names = "--jfr-events", defaultValue = "false", description = "Together with --profile-iterations, emit the durations of the iteration phases also as JFR events")
+	private boolean jfrEvents;
+
+	@CommandLine.Option(names = "--profile-event-handlers", defaultValue = "0", description = "If positive, profile all bound event handlers and measure the time of every n-th call (power of two)")
+	private int profileEventHandlers;
+
+	/**
+	 * Snapshot to write after the scenario has been prepared, null if not needed.
+	 */
+	private ScenarioSnapshot snapshotToWrite;
+
 	public RunKelheimScenario(@Nullable Config config) {
 		super(config);
 	}
@@ -174,6 +218,8 @@ public class RunKelheimScenario extends MATSimApplication {
 		sw.defaultParams().mapZoomLevel = 11d;
 		sw.defaultParams().sampleSize = sample.getSample();
 
+		ConfigUtils.addOrGetModule(config, KelheimMainModeIdentifierConfigGroup.class);
+
 		if (intermodal) {
 			ConfigUtils.addOrGetModule(config, PtIntermodalRoutingModesConfigGroup.class);
 		}
@@ -236,6 +282,48 @@ public class RunKelheimScenario extends MATSimApplication {
 		return config;
 	}
 
+	@Override
+	protected Scenario createScenario(Config config) {
+		ScenarioSnapshot scenarioSnapshot = null;
+		if (snapshot) {
+			scenarioSnapshot = ScenarioSnapshot.forConfig(config, List.of(
+				"sample=" + sample.getSize(), "drt=" + drt, "bikeRnd=" + bikeRnd, "crs=" + config.global().getCoordinateSystem()));
+		}
+
+		if (scenarioSnapshot != null) {
+			if (scenarioSnapshot.exists()) {
+				try {
+					return scenarioSnapshot.load(config, this::setRouteFactories);
+				} catch (IOException e) {
+					throw new UncheckedIOException("Could not load scenario snapshot " + scenarioSnapshot, e);
+				}
+			}
+			log.info("No scenario snapshot found, it will be written to " + scenarioSnapshot);
+			snapshotToWrite = scenarioSnapshot;
+		}
+
+		if (parallelLoad) {
+			if (ParallelScenarioLoader.isSupported(config)) {
+				return ParallelScenarioLoader.load(config, Runtime.getRuntime().availableProcessors(), this::setRouteFactories);
+			}
+			log.warn("The config contains inputs that can not be loaded in parallel, the scenario is loaded sequentially.");
+		}
+
+		return super.createScenario(config);
+	}
+
+	/**
+	 * Register the route factories needed by the population, before plans are read or created.
+	 */
+	void setRouteFactories(Scenario scenario) {
+		if (drt) {
+			scenario.getPopulation()
+				.getFactory()
+				.getRouteFactories()
+				.setRouteFactory(DrtRoute.class, new DrtRouteFactory());
+		}
+	}
+
 	@Override
 	protected void prepareScenario(Scenario scenario) {
 
@@ -251,23 +339,30 @@ public class RunKelheimScenario extends MATSimApplication {
 			}
 		}
 
-		if (drt) {
-			scenario.getPopulation()
-				.getFactory()
-				.getRouteFactories()
-				.setRouteFactory(DrtRoute.class, new DrtRouteFactory());
+		KelheimMainModeIdentifierConfigGroup modeIdentifierConfig = ConfigUtils.addOrGetModule(scenario.getConfig(), KelheimMainModeIdentifierConfigGroup.class);
+		if (modeIdentifierConfig.isCheckInputPlans()) {
+			// fail now instead of during the analysis of the first iteration
+			new KelheimMainModeIdentifier(modeIdentifierConfig).checkPopulation(scenario.getPopulation());
 		}
 
+		setRouteFactories(scenario);
+
 		if (bikeRnd) {
 			SplittableRandom bicycleRnd = new SplittableRandom(8765);
 			for (Person person : scenario.getPopulation().getPersons().values()) {
 				//TODO this value is to be determined
 				double width = 2;
 				double number = width * (bicycleRnd.nextGaussian());
-				person.getAttributes().putAttribute("bicycleLove", number);
+				person.getAttributes().putAttribute(BicycleLoveScoringHandler.ATTRIBUTE, number);
 			}
 		}
 
+		// the steps above only add or overwrite values, so they can be applied again to a loaded snapshot
+		if (snapshotToWrite != null) {
+			snapshotToWrite.write(scenario);
+			snapshotToWrite = null;
+		}
+
 	}
 
 	@Override
@@ -275,6 +370,13 @@ public class RunKelheimScenario extends MATSimApplication {
 		Config config = controler.getConfig();
 		Network network = controler.getScenario().getNetwork();
 
+		controler.addControlerListener((IterationStartsListener) event -> {
+			if (event.getIteration() == config.controller().getFirstIteration()) {
+				long millis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+				log.info("Time to first iteration: " + millis / 1000.0 + " s (snapshot " + (snapshot ? "enabled" : "disabled") + ")");
+			}
+		});
+
 		controler.addOverridingModule(new AbstractModule() {
 			@Override
 			public void install() {
@@ -282,6 +384,12 @@ public class RunKelheimScenario extends MATSimApplication {
 				install(new SwissRailRaptorModule());
 				install(new PersonMoneyEventsAnalysisModule());
 				install(new SimWrapperModule());
+				if (profileIterations) {
+					install(new IterationPerformanceModule(jfrEvents));
+				}
+				if (profileEventHandlers > 0) {
+					install(new EventHandlerProfilingModule(profileEventHandlers));
+				}
 
 				bind(AnalysisMainModeIdentifier.class).to(KelheimMainModeIdentifier.class);
 				addControlerListenerBinding().to(ModeChoiceCoverageControlerListener.class);
@@ -309,20 +417,7 @@ public class RunKelheimScenario extends MATSimApplication {
 				bind(ScoringParametersForPerson.class).to(IncomeDependentUtilityOfMoneyPersonScoringParameters.class).asEagerSingleton();
 
 				if (bikeRnd) {
-					addEventHandlerBinding().toInstance(new PersonDepartureEventHandler() {
-						@Inject
-						EventsManager events;
-						@Inject
-						Population population;
-
-						@Override
-						public void handleEvent(PersonDepartureEvent event) {
-							if (event.getLegMode().equals(TransportMode.bike)) {
-								double bicycleLove = (double) population.getPersons().get(event.getPersonId()).getAttributes().getAttribute("bicycleLove");
-								events.processEvent(new PersonScoreEvent(event.getTime(), event.getPersonId(), bicycleLove, "bicycleLove"));
-							}
-						}
-					});
+					addEventHandlerBinding().to(BicycleLoveScoringHandler.class).in(Scopes.SINGLETON);
 				}
 			}
 		});
@@ -345,7 +440,13 @@ public class RunKelheimScenario extends MATSimApplication {
 					maxSpeed));
 
 			for (DrtConfigGroup drtCfg : multiModeDrtConfig.getModalElements()) {
-				controler.addOverridingModule(new KelheimDrtFareModule(drtCfg, network, avFare, baseFare, surcharge));
+				KelheimDrtFareParams fareParams = new KelheimDrtFareParams(baseFare, surcharge, drtCfg.getMode());
+				fareParams.setMinFarePerTrip(minFare);
+				fareParams.setDistanceFare_m(distanceFare);
+				fareParams.setTimeFare_h(timeFare);
+				fareParams.setDailySubscriptionFee(dailyFee);
+				fareParams.setMoneyEventsFlushInterval(fareFlushInterval);
+				controler.addOverridingModule(new KelheimDrtFareModule(drtCfg, network, avFare, fareParams));
 			}
 
 			//controler.addOverridingModule(new DrtEstimatorModule());
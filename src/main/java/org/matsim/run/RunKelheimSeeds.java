@@ -0,0 +1,210 @@
+package org.matsim.run;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.application.MATSimAppCommand;
+import org.matsim.application.MATSimApplication;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.ControllerConfigGroup;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.router.SingleModeNetworksCache;
+import org.matsim.core.router.speedy.SpeedyALTFactory;
+import org.matsim.core.router.util.LeastCostPathCalculatorFactory;
+import org.matsim.core.scenario.MutableScenario;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.utils.objectattributes.attributable.AttributesUtils;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.Vehicles;
+import picocli.CommandLine;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the scenario with several random seeds one after another, loading and preparing the inputs only once.
+ * <p>
+ * The seeds do not run concurrently: {@code MatsimRandom} and the logging into the output directory are global to the JVM, so only
+ * sequential runs are reproducible per seed and have their own log files.
+ * <p>
+ * The config of each run is built like {@link MATSimApplication} does: {@code --output}, {@code --runId} and {@code --iterations} are
+ * applied before {@link RunKelheimScenario#prepareConfig(Config)}, {@code --config:} overrides after it. Other options of the application
+ * itself are rejected.
+ */
+@CommandLine.Command(
+		name = "run-seeds",
+		description = "Run the Kelheim scenario with several random seeds one after another in one JVM, loading and preparing the inputs only once"
+)
+public class RunKelheimSeeds implements MATSimAppCommand {
+	private static final Logger log = LogManager.getLogger(RunKelheimSeeds.class);
+
+	@CommandLine.Option(names = "--config", description = "path to config file", required = true)
+	private String configFile;
+
+	@CommandLine.Option(names = "--seeds", description = "random seeds to run, separated with ,", split = ",", required = true)
+	private List<Long> seeds;
+
+	@CommandLine.Option(names = "--threads-per-run", description = "number of threads of each run (global, qsim and events), 0 to keep the config values", defaultValue = "0")
+	private int threadsPerRun;
+
+	@CommandLine.Parameters(description = "options passed to each run of the scenario, after --, e.g. -- --1pct --with-drt --iterations 10 --config:controller.writeEventsInterval=0")
+	private List<String> scenarioArgs = new ArrayList<>();
+
+	public static void main(String[] args) {
+		new RunKelheimSeeds().execute(args);
+	}
+
+	@Override
+	public Integer call() throws Exception {
+		long start = System.currentTimeMillis();
+		SeedRun base = prepareRun(seeds.get(0));
+		Scenario shared = base.app().createScenario(base.config());
+		base.app().prepareScenario(shared);
+		log.info("Loaded and prepared the scenario in " + (System.currentTimeMillis() - start) + " ms");
+
+		// router preprocessing is shared by all runs
+		SpeedyALTFactory routerFactory = new SpeedyALTFactory();
+		SingleModeNetworksCache singleModeNetworks = new SingleModeNetworksCache();
+
+		int failed = 0;
+		for (long seed : seeds) {
+			if (!runSeed(seed, shared, routerFactory, singleModeNetworks)) {
+				failed++;
+			}
+		}
+
+		log.info("Finished " + (seeds.size() - failed) + " of " + seeds.size() + " seeds in " + (System.currentTimeMillis() - start) / 1000 + " s");
+		return failed == 0 ? 0 : 1;
+	}
+
+	/**
+	 * Parse the scenario options with the seed and build the config of the run.
+	 */
+	private SeedRun prepareRun(long seed) {
+		RunKelheimScenario app = new RunKelheimScenario(null);
+		List<String> args = new ArrayList<>(scenarioArgs);
+		args.add("--random-seed");
+		args.add(String.valueOf(seed));
+		CommandLine.ParseResult parsed = new CommandLine(app).parseArgs(args.toArray(String[]::new));
+
+		Config config = ConfigUtils.loadConfig(configFile);
+		for (CommandLine.Model.OptionSpec option : parsed.matchedOptions()) {
+			if (!(option.userObject() instanceof Field field) || field.getDeclaringClass() != MATSimApplication.class) {
+				continue;
+			}
+			switch (option.longestName()) {
+				case "--output" -> config.controller().setOutputDirectory(String.valueOf(option.getValue()));
+				case "--runId" -> config.controller().setRunId(String.valueOf(option.getValue()));
+				case "--iterations" -> config.controller().setLastIteration(((Number) option.getValue()).intValue());
+				default -> throw new IllegalArgumentException("Option " + option.longestName() + " is not supported by run-seeds");
+			}
+		}
+
+		List<String> overrides = new ArrayList<>();
+		for (String arg : parsed.unmatched()) {
+			if (arg.startsWith("--config:") || arg.startsWith("-c:")) {
+				overrides.add(arg.replace("-c:", "--config:"));
+			} else {
+				throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		}
+
+		config = app.prepareConfig(config);
+		ConfigUtils.applyCommandline(config, overrides.toArray(String[]::new));
+		return new SeedRun(app, config);
+	}
+
+	/**
+	 * Run one seed. Failures are logged, so that the remaining seeds still run.
+	 *
+	 * @return whether the run finished
+	 */
+	@SuppressWarnings("IllegalCatch")
+	private boolean runSeed(long seed, Scenario shared, SpeedyALTFactory routerFactory, SingleModeNetworksCache singleModeNetworks) {
+		SeedRun run = prepareRun(seed);
+		RunKelheimScenario app = run.app();
+		Config config = run.config();
+		config.controller().setOutputDirectory(config.controller().getOutputDirectory() + "/seed-" + seed);
+		if (threadsPerRun > 0) {
+			config.global().setNumberOfThreads(threadsPerRun);
+			config.qsim().setNumberOfThreads(threadsPerRun);
+			config.eventsManager().setNumberOfThreads(threadsPerRun);
+		}
+
+		// network, transit schedule and transit vehicles are not modified during a run and can be shared
+		MutableScenario scenario = ScenarioUtils.createMutableScenario(config);
+		scenario.setNetwork(shared.getNetwork());
+		scenario.setTransitSchedule(shared.getTransitSchedule());
+		scenario.setTransitVehicles(shared.getTransitVehicles());
+		app.setRouteFactories(scenario);
+		copyPopulation(shared.getPopulation(), scenario.getPopulation());
+		copyVehicles(shared.getVehicles(), scenario.getVehicles());
+
+		Controler controler = new Controler(scenario);
+		app.prepareControler(controler);
+		controler.addOverridingModule(new AbstractModule() {
+			@Override
+			public void install() {
+				bind(SingleModeNetworksCache.class).toInstance(singleModeNetworks);
+				if (getConfig().controller().getRoutingAlgorithmType() == ControllerConfigGroup.RoutingAlgorithmType.SpeedyALT) {
+					bind(LeastCostPathCalculatorFactory.class).toInstance(routerFactory);
+				}
+			}
+		});
+
+		log.info("Starting run with seed " + seed + " in " + config.controller().getOutputDirectory());
+		try {
+			controler.run();
+			return true;
+		} catch (RuntimeException e) {
+			log.error("Run with seed " + seed + " failed", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Deep copy of persons and their plans, since plans and scores are modified during a run.
+	 */
+	private static void copyPopulation(Population from, Population to) {
+		AttributesUtils.copyAttributesFromTo(from, to);
+		for (Person person : from.getPersons().values()) {
+			Person copy = to.getFactory().createPerson(person.getId());
+			AttributesUtils.copyAttributesFromTo(person, copy);
+			for (Plan plan : person.getPlans()) {
+				Plan planCopy = to.getFactory().createPlan();
+				PopulationUtils.copyFromTo(plan, planCopy);
+				copy.addPlan(planCopy);
+				if (plan == person.getSelectedPlan()) {
+					copy.setSelectedPlan(planCopy);
+				}
+			}
+			to.addPerson(copy);
+		}
+	}
+
+	/**
+	 * Copy of the vehicles container, since vehicles of the persons are added to it during a run. Vehicle types are shared.
+	 */
+	private static void copyVehicles(Vehicles from, Vehicles to) {
+		for (VehicleType type : from.getVehicleTypes().values()) {
+			to.addVehicleType(type);
+		}
+		for (Vehicle vehicle : from.getVehicles().values()) {
+			to.addVehicle(vehicle);
+		}
+	}
+
+	/**
+	 * Parsed options and config of one run.
+	 */
+	private record SeedRun(RunKelheimScenario app, Config config) {
+	}
+}
@@ -0,0 +1,210 @@
+package org.matsim.run;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
+import org.matsim.core.population.io.PopulationReader;
+import org.matsim.core.population.io.PopulationWriter;
+import org.matsim.core.scenario.MutableScenario;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.pt.transitSchedule.api.TransitScheduleReader;
+import org.matsim.pt.transitSchedule.api.TransitScheduleWriter;
+import org.matsim.vehicles.MatsimVehicleReader;
+import org.matsim.vehicles.MatsimVehicleWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Snapshot of a prepared scenario, stored in the {@link RemoteInputCache} directory and keyed by the input files and run options.
+ * <p>
+ * The network is stored in the {@link BinaryNetworkFormat} and read via a memory mapped file. Population, transit schedule and vehicles
+ * are stored as uncompressed MATSim files, so that no download and no decompression is needed when loading them.
+ * <p>
+ * The key does not hash the content of the inputs. Local files are identified by path, size and modification time. Remote inputs are
+ * identified by their url together with the ETag, size and modification time the server reports for a HEAD request. If the server
+ * can not be reached or reports neither ETag nor modification time, no snapshot is used.
+ */
+public final class ScenarioSnapshot {
+	private static final Logger log = LogManager.getLogger(ScenarioSnapshot.class);
+
+	private static final String NETWORK = "network.bin";
+	private static final String PLANS = "plans.xml";
+	private static final String TRANSIT_SCHEDULE = "transitSchedule.xml";
+	private static final String TRANSIT_VEHICLES = "transitVehicles.xml";
+	private static final String VEHICLES = "vehicles.xml";
+
+	private static final int VALIDATION_TIMEOUT_MS = 10_000;
+
+	private final Path directory;
+
+	private ScenarioSnapshot(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Snapshot for the input files of the config and the given options, which need to contain everything that influences the
+	 * preparation of the scenario.
+	 *
+	 * @return the snapshot, or null if the config uses inputs that are not supported by snapshots
+	 */
+	public static ScenarioSnapshot forConfig(Config config, List<String> options) {
+		if (!ParallelScenarioLoader.isSupported(config)) {
+			log.warn("Scenario snapshots do not support time variant networks, facilities, lanes and households, the scenario is loaded from the input files.");
+			return null;
+		}
+
+		StringBuilder key = new StringBuilder(RunKelheimScenario.VERSION);
+		for (String input : List.of(
+			String.valueOf(config.network().getInputFile()), String.valueOf(config.plans().getInputFile()),
+			String.valueOf(config.vehicles().getVehiclesFile()), String.valueOf(config.transit().getTransitScheduleFile()),
+			String.valueOf(config.transit().getVehiclesFile()))) {
+			String description = describeInput(config, input);
+			if (description == null) {
+				log.warn("Could not determine the version of remote input " + input + ", the scenario is loaded from the input files.");
+				return null;
+			}
+			key.append('|').append(description);
+		}
+		for (String option : options) {
+			key.append('|').append(option);
+		}
+
+		return new ScenarioSnapshot(RemoteInputCache.getCacheDirectory().resolve("snapshots").resolve(RemoteInputCache.hashString(key.toString())));
+	}
+
+	/**
+	 * Local files are identified by size and modification time, remote inputs by the validators of their server.
+	 *
+	 * @return the description, or null if a remote input can not be validated
+	 */
+	private static String describeInput(Config config, String input) {
+		if (input.equals("null")) {
+			return input;
+		}
+		URL url = ConfigGroup.getInputFileURL(config.getContext(), input);
+		if (url.getProtocol().equals("file")) {
+			File file = new File(url.getPath());
+			if (file.exists()) {
+				return url + "@" + file.length() + "@" + file.lastModified();
+			}
+		}
+		if (url.getProtocol().equals("http") || url.getProtocol().equals("https")) {
+			return describeRemote(url);
+		}
+		return url.toString();
+	}
+
+	/**
+	 * Url with ETag, size and modification time from a HEAD request, which does not download the file.
+	 */
+	private static String describeRemote(URL url) {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestMethod("HEAD");
+			connection.setConnectTimeout(VALIDATION_TIMEOUT_MS);
+			connection.setReadTimeout(VALIDATION_TIMEOUT_MS);
+			if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+				return null;
+			}
+			String etag = connection.getHeaderField("ETag");
+			long lastModified = connection.getLastModified();
+			if (etag == null && lastModified == 0) {
+				return null;
+			}
+			return url + "@" + etag + "@" + connection.getContentLengthLong() + "@" + lastModified;
+		} catch (IOException e) {
+			log.warn("HEAD request for " + url + " failed", e);
+			return null;
+		} finally {
+			if (connection != null) {
+				connection.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Whether the snapshot has been written completely.
+	 */
+	public boolean exists() {
+		return Files.isRegularFile(directory.resolve(NETWORK)) && Files.isRegularFile(directory.resolve(PLANS));
+	}
+
+	/**
+	 * Load the scenario from the snapshot.
+	 *
+	 * @param beforePopulation called before the population is read, e.g. to register route factories
+	 */
+	public Scenario load(Config config, Consumer<Scenario> beforePopulation) throws IOException {
+		long start = System.currentTimeMillis();
+		MutableScenario scenario = ScenarioUtils.createMutableScenario(config);
+
+		BinaryNetworkFormat.read(directory.resolve(NETWORK), scenario.getNetwork());
+		beforePopulation.accept(scenario);
+		new PopulationReader(scenario).readFile(directory.resolve(PLANS).toString());
+
+		if (Files.exists(directory.resolve(VEHICLES))) {
+			new MatsimVehicleReader(scenario.getVehicles()).readFile(directory.resolve(VEHICLES).toString());
+		}
+		if (Files.exists(directory.resolve(TRANSIT_SCHEDULE))) {
+			new TransitScheduleReader(scenario).readFile(directory.resolve(TRANSIT_SCHEDULE).toString());
+		}
+		if (Files.exists(directory.resolve(TRANSIT_VEHICLES))) {
+			new MatsimVehicleReader(scenario.getTransitVehicles()).readFile(directory.resolve(TRANSIT_VEHICLES).toString());
+		}
+
+		log.info("Loaded scenario snapshot " + directory + " in " + (System.currentTimeMillis() - start) + " ms");
+		return scenario;
+	}
+
+	/**
+	 * Write the scenario to the snapshot. The snapshot is written to a temporary directory first and then moved into place,
+	 * so that concurrent runs never read an incomplete snapshot. Failures are logged, the run continues without a snapshot.
+	 */
+	public void write(Scenario scenario) {
+		if (!BinaryNetworkFormat.isSupported(scenario.getNetwork())) {
+			log.warn("The network has attributes of types that are not supported by scenario snapshots, no snapshot is written.");
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		Path tmp = null;
+		try {
+			Files.createDirectories(directory.getParent());
+			tmp = Files.createTempDirectory(directory.getParent(), directory.getFileName() + ".tmp");
+
+			BinaryNetworkFormat.write(scenario.getNetwork(), tmp.resolve(NETWORK));
+			new PopulationWriter(scenario.getPopulation()).write(tmp.resolve(PLANS).toString());
+			new MatsimVehicleWriter(scenario.getVehicles()).writeFile(tmp.resolve(VEHICLES).toString());
+			if (scenario.getConfig().transit().isUseTransit()) {
+				new TransitScheduleWriter(scenario.getTransitSchedule()).writeFile(tmp.resolve(TRANSIT_SCHEDULE).toString());
+				new MatsimVehicleWriter(scenario.getTransitVehicles()).writeFile(tmp.resolve(TRANSIT_VEHICLES).toString());
+			}
+
+			Files.move(tmp, directory, StandardCopyOption.ATOMIC_MOVE);
+			log.info("Wrote scenario snapshot " + directory + " in " + (System.currentTimeMillis() - start) + " ms");
+		} catch (IOException e) {
+			// another run may have written the same snapshot concurrently
+			log.warn("Could not write scenario snapshot " + directory + ": " + e.getMessage());
+			if (tmp != null) {
+				FileUtils.deleteQuietly(tmp.toFile());
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return directory.toString();
+	}
+}
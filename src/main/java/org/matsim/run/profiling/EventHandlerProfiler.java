@@ -0,0 +1,220 @@
+package org.matsim.run.profiling;
+
+import com.google.inject.Inject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.events.ShutdownEvent;
+import org.matsim.core.controler.events.StartupEvent;
+import org.matsim.core.controler.listener.IterationEndsListener;
+import org.matsim.core.controler.listener.ShutdownListener;
+import org.matsim.core.controler.listener.StartupListener;
+import org.matsim.core.events.handler.EventHandler;
+import org.matsim.core.utils.io.IOUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replaces all event handlers bound via the injector by profiling proxies at startup and reports their cost after each iteration.
+ * <p>
+ * Each proxy implements the same handler interfaces as the wrapped handler, so the events manager dispatches the same events to it.
+ * All invocations are counted, the time of every n-th invocation per handler and event type is measured. The total time is estimated
+ * from the sampled mean.
+ */
+final class EventHandlerProfiler implements StartupListener, IterationEndsListener, ShutdownListener {
+	static final String FILE_NAME = "kelheim_event_handler_profile.csv";
+
+	private static final Logger log = LogManager.getLogger(EventHandlerProfiler.class);
+	private static final int TABLE_ROWS = 20;
+
+	private final long sampleMask;
+	private final List<ProfiledHandler> handlers = new ArrayList<>();
+
+	@Inject
+	private Set<EventHandler> boundHandlers;
+	@Inject
+	private EventsManager eventsManager;
+	@Inject
+	private OutputDirectoryHierarchy controlerIO;
+
+	private BufferedWriter writer;
+
+	EventHandlerProfiler(int sampleInterval) {
+		this.sampleMask = sampleInterval - 1;
+	}
+
+	@Override
+	public void notifyStartup(StartupEvent event) {
+		for (EventHandler handler : boundHandlers) {
+			Set<Class<?>> interfaces = new LinkedHashSet<>();
+			for (Class<?> c = handler.getClass(); c != null; c = c.getSuperclass()) {
+				collectInterfaces(c, interfaces);
+			}
+
+			ProfiledHandler profiled = new ProfiledHandler(handler);
+			EventHandler proxy;
+			try {
+				proxy = (EventHandler) Proxy.newProxyInstance(handler.getClass().getClassLoader(), interfaces.toArray(Class<?>[]::new), profiled);
+			} catch (IllegalArgumentException e) {
+				// e.g. handler interfaces that are not visible from the class loader of the handler
+				log.warn("Could not profile event handler " + profiled.name + ": " + e.getMessage());
+				continue;
+			}
+
+			eventsManager.removeHandler(handler);
+			eventsManager.addHandler(proxy);
+			handlers.add(profiled);
+		}
+		log.info("Profiling " + handlers.size() + " event handlers, measuring every " + (sampleMask + 1) + ". invocation");
+	}
+
+	@Override
+	public void notifyIterationEnds(IterationEndsEvent event) {
+		List<Row> rows = new ArrayList<>();
+		for (ProfiledHandler handler : handlers) {
+			for (Map.Entry<Class<?>, Stats> e : handler.stats.entrySet()) {
+				Stats stats = e.getValue();
+				long invocations = stats.invocations.get();
+				long samples = stats.samples.sum();
+				long sampledNanos = stats.sampledNanos.sum();
+				long estimatedNanos = samples == 0 ? 0 : Math.round((double) sampledNanos / samples * invocations);
+				rows.add(new Row(handler.name, e.getKey().getSimpleName(), invocations, samples, estimatedNanos));
+			}
+			handler.stats.clear();
+		}
+		rows.sort(Comparator.comparingLong(Row::estimatedNanos).reversed());
+
+		long total = rows.stream().mapToLong(Row::estimatedNanos).sum();
+		StringBuilder table = new StringBuilder("Event handler profile of iteration ").append(event.getIteration())
+			.append(", estimated total ").append(total / 1_000_000).append(" ms:");
+		table.append(String.format("%n%8s %6s %12s %8s  %s / %s", "ms", "%", "invocations", "ns/call", "handler", "event type"));
+		for (int i = 0; i < Math.min(TABLE_ROWS, rows.size()); i++) {
+			Row row = rows.get(i);
+			table.append(String.format("%n%8d %6.1f %12d %8d  %s / %s", row.estimatedNanos / 1_000_000,
+				total == 0 ? 0.0 : 100.0 * row.estimatedNanos / total, row.invocations,
+				row.invocations == 0 ? 0 : row.estimatedNanos / row.invocations, row.handler, row.eventType));
+		}
+		log.info(table);
+
+		write(event.getIteration(), rows);
+	}
+
+	@Override
+	public void notifyShutdown(ShutdownEvent event) {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				log.warn("Could not close " + FILE_NAME, e);
+			}
+			writer = null;
+		}
+	}
+
+	private void write(int iteration, List<Row> rows) {
+		try {
+			if (writer == null) {
+				writer = IOUtils.getBufferedWriter(controlerIO.getOutputFilename(FILE_NAME));
+				writer.write("iteration,handler,event_type,invocations,samples,estimated_ms");
+				writer.newLine();
+			}
+			for (Row row : rows) {
+				writer.write(iteration + "," + row.handler + "," + row.eventType + "," + row.invocations + "," + row.samples + ","
+					+ row.estimatedNanos / 1e6);
+				writer.newLine();
+			}
+			writer.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void collectInterfaces(Class<?> type, Set<Class<?>> interfaces) {
+		for (Class<?> i : type.getInterfaces()) {
+			if (interfaces.add(i)) {
+				collectInterfaces(i, interfaces);
+			}
+		}
+	}
+
+	/**
+	 * Invocation handler of the proxy of one event handler.
+	 */
+	private final class ProfiledHandler implements InvocationHandler {
+		private final EventHandler delegate;
+		private final String name;
+		private final Map<Class<?>, Stats> stats = new ConcurrentHashMap<>();
+
+		private ProfiledHandler(EventHandler delegate) {
+			this.delegate = delegate;
+			String className = delegate.getClass().getName();
+			this.name = className.substring(className.lastIndexOf('.') + 1);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (args == null || args.length != 1 || !(args[0] instanceof Event event) || !method.getName().equals("handleEvent")) {
+				return call(method, args);
+			}
+
+			Stats s = stats.computeIfAbsent(event.getClass(), k -> new Stats());
+			if ((s.invocations.incrementAndGet() & sampleMask) != 0) {
+				return call(method, args);
+			}
+			long start = System.nanoTime();
+			try {
+				return call(method, args);
+			} finally {
+				s.sampledNanos.add(System.nanoTime() - start);
+				s.samples.increment();
+			}
+		}
+
+		/**
+		 * Call the handler and rethrow its exceptions unwrapped, handler methods do not declare checked exceptions.
+		 */
+		private Object call(Method method, Object[] args) {
+			try {
+				return method.invoke(delegate, args);
+			} catch (InvocationTargetException e) {
+				if (e.getCause() instanceof RuntimeException runtimeException) {
+					throw runtimeException;
+				}
+				if (e.getCause() instanceof Error error) {
+					throw error;
+				}
+				throw new UndeclaredThrowableException(e.getCause());
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException("Could not call " + method + " of " + delegate.getClass(), e);
+			}
+		}
+	}
+
+	private static final class Stats {
+		private final AtomicLong invocations = new AtomicLong();
+		private final LongAdder samples = new LongAdder();
+		private final LongAdder sampledNanos = new LongAdder();
+	}
+
+	private record Row(String handler, String eventType, long invocations, long samples, long estimatedNanos) {
+	}
+}
@@ -0,0 +1,30 @@
+package org.matsim.run.profiling;
+
+import org.matsim.core.controler.AbstractModule;
+
+/**
+ * Opt-in profiling of all event handlers bound via {@link AbstractModule#addEventHandlerBinding()}. Counts invocations and samples the
+ * time spent per handler and event type, a ranked table is logged and written to {@value EventHandlerProfiler#FILE_NAME} after each iteration.
+ * <p>
+ * Handlers are only wrapped when this module is installed, without it there is no overhead at all.
+ */
+public final class EventHandlerProfilingModule extends AbstractModule {
+	private final int sampleInterval;
+
+	/**
+	 * Create the module.
+	 *
+	 * @param sampleInterval the time of every n-th invocation per handler and event type is measured, needs to be a power of two
+	 */
+	public EventHandlerProfilingModule(int sampleInterval) {
+		if (sampleInterval <= 0 || Integer.bitCount(sampleInterval) != 1) {
+			throw new IllegalArgumentException("The sample interval needs to be a positive power of two, got " + sampleInterval);
+		}
+		this.sampleInterval = sampleInterval;
+	}
+
+	@Override
+	public void install() {
+		addControlerListenerBinding().toInstance(new EventHandlerProfiler(sampleInterval));
+	}
+}
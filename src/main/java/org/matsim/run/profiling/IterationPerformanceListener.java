@@ -0,0 +1,247 @@
+package org.matsim.run.profiling;
+
+import com.google.inject.Inject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.events.AfterMobsimEvent;
+import org.matsim.core.controler.events.BeforeMobsimEvent;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.events.IterationStartsEvent;
+import org.matsim.core.controler.events.ShutdownEvent;
+import org.matsim.core.controler.listener.AfterMobsimListener;
+import org.matsim.core.controler.listener.BeforeMobsimListener;
+import org.matsim.core.controler.listener.IterationEndsListener;
+import org.matsim.core.controler.listener.IterationStartsListener;
+import org.matsim.core.controler.listener.ShutdownListener;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.core.mobsim.framework.events.MobsimBeforeCleanupEvent;
+import org.matsim.core.mobsim.framework.events.MobsimInitializedEvent;
+import org.matsim.core.mobsim.framework.listeners.MobsimBeforeCleanupListener;
+import org.matsim.core.mobsim.framework.listeners.MobsimInitializedListener;
+import org.matsim.core.utils.io.IOUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the phases of each iteration by the time stamps of the controller and mobsim callbacks.
+ * <p>
+ * An iteration is written when the next one starts or the controller shuts down, so that the last phase contains all iteration end listeners
+ * (analysis, SimWrapper, output dumps). The listener has the highest priority, so each time stamp is taken before the other listeners of
+ * the same callback run. The phases are:
+ * <ul>
+ *     <li>replanning: start of the iteration until before the mobsim, i.e. replanning and re-routing</li>
+ *     <li>mobsimSetup: until the mobsim is initialized</li>
+ *     <li>mobsim: simulation until before the cleanup of the mobsim</li>
+ *     <li>mobsimCleanup: until after the mobsim, including processing of remaining events when events are handled in parallel</li>
+ *     <li>scoring: other after mobsim listeners and all scoring listeners, until the iteration end listeners are called</li>
+ *     <li>iterationEnd: iteration end listeners</li>
+ * </ul>
+ */
+final class IterationPerformanceListener implements IterationStartsListener, BeforeMobsimListener, AfterMobsimListener, IterationEndsListener,
+	ShutdownListener, MobsimInitializedListener, MobsimBeforeCleanupListener, BasicEventHandler {
+
+	static final String FILE_NAME = "kelheim_iteration_performance.csv";
+
+	private static final Logger log = LogManager.getLogger(IterationPerformanceListener.class);
+	private static final String[] PHASES = {"replanning", "mobsimSetup", "mobsim", "mobsimCleanup", "scoring", "iterationEnd"};
+
+	private static final int ITERATION_START = 0;
+	private static final int BEFORE_MOBSIM = 1;
+	private static final int MOBSIM_INITIALIZED = 2;
+	private static final int MOBSIM_BEFORE_CLEANUP = 3;
+	private static final int AFTER_MOBSIM = 4;
+	private static final int ITERATION_ENDS = 5;
+
+	private final boolean jfrEvents;
+	private final LongAdder events = new LongAdder();
+
+	@Inject
+	private OutputDirectoryHierarchy controlerIO;
+	@Inject
+	private Population population;
+
+	/**
+	 * Time stamps of the current iteration, -1 if not reached.
+	 */
+	private final long[] timestamps = new long[PHASES.length];
+	private int iteration = -1;
+	private long gcCountAtStart;
+	private long gcTimeAtStart;
+	private BufferedWriter writer;
+
+	IterationPerformanceListener(boolean jfrEvents) {
+		this.jfrEvents = jfrEvents;
+	}
+
+	@Override
+	public void notifyIterationStarts(IterationStartsEvent event) {
+		long now = System.nanoTime();
+		finishIteration(now);
+
+		iteration = event.getIteration();
+		timestamps[ITERATION_START] = now;
+		for (int i = 1; i < timestamps.length; i++) {
+			timestamps[i] = -1;
+		}
+		events.reset();
+		gcCountAtStart = gcCount();
+		gcTimeAtStart = gcTime();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	@Override
+	public void notifyBeforeMobsim(BeforeMobsimEvent event) {
+		timestamps[BEFORE_MOBSIM] = System.nanoTime();
+	}
+
+	@Override
+	public void notifyMobsimInitialized(MobsimInitializedEvent e) {
+		timestamps[MOBSIM_INITIALIZED] = System.nanoTime();
+	}
+
+	@Override
+	public void notifyMobsimBeforeCleanup(MobsimBeforeCleanupEvent e) {
+		timestamps[MOBSIM_BEFORE_CLEANUP] = System.nanoTime();
+	}
+
+	@Override
+	public void notifyAfterMobsim(AfterMobsimEvent event) {
+		timestamps[AFTER_MOBSIM] = System.nanoTime();
+	}
+
+	@Override
+	public void notifyIterationEnds(IterationEndsEvent event) {
+		// all scoring listeners have finished, none of the other iteration end listeners has started
+		timestamps[ITERATION_ENDS] = System.nanoTime();
+	}
+
+	@Override
+	public double priority() {
+		return Double.MAX_VALUE;
+	}
+
+	@Override
+	public void notifyShutdown(ShutdownEvent event) {
+		finishIteration(System.nanoTime());
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				log.warn("Could not close " + FILE_NAME, e);
+			}
+			writer = null;
+		}
+	}
+
+	@Override
+	public void handleEvent(Event event) {
+		events.increment();
+	}
+
+	private void finishIteration(long now) {
+		if (iteration < 0) {
+			return;
+		}
+
+		// phases that did not take place, e.g. the mobsim of a failed iteration, have a duration of 0
+		long[] durations = new long[PHASES.length];
+		long last = timestamps[ITERATION_START];
+		for (int i = 0; i < PHASES.length; i++) {
+			long end = i + 1 < timestamps.length ? timestamps[i + 1] : now;
+			if (end < 0) {
+				continue;
+			}
+			durations[i] = end - last;
+			last = end;
+		}
+
+		long numberOfEvents = events.sum();
+		// throughput relates to the simulation itself, without setup and cleanup
+		double mobsimSeconds = timestamps[MOBSIM_INITIALIZED] >= 0 && timestamps[MOBSIM_BEFORE_CLEANUP] >= 0 ?
+			(timestamps[MOBSIM_BEFORE_CLEANUP] - timestamps[MOBSIM_INITIALIZED]) / 1e9 : 0;
+		long heapPeak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid() && pool.getPeakUsage() != null) {
+				heapPeak += pool.getPeakUsage().getUsed();
+			}
+		}
+
+		StringBuilder row = new StringBuilder().append(iteration);
+		for (long duration : durations) {
+			row.append(',').append(duration / 1_000_000);
+		}
+		row.append(',').append((now - timestamps[ITERATION_START]) / 1_000_000)
+			.append(',').append(numberOfEvents)
+			.append(',').append(mobsimSeconds > 0 ? Math.round(numberOfEvents / mobsimSeconds) : 0)
+			.append(',').append(population.getPersons().size())
+			.append(',').append(mobsimSeconds > 0 ? Math.round(population.getPersons().size() / mobsimSeconds) : 0)
+			.append(',').append(gcCount() - gcCountAtStart)
+			.append(',').append(gcTime() - gcTimeAtStart)
+			.append(',').append(heapPeak / (1024 * 1024));
+		write(row.toString());
+
+		if (jfrEvents) {
+			for (int i = 0; i < PHASES.length; i++) {
+				IterationPhaseEvent jfr = new IterationPhaseEvent();
+				if (jfr.isEnabled()) {
+					jfr.iteration = iteration;
+					jfr.phase = PHASES[i];
+					jfr.duration = durations[i];
+					jfr.commit();
+				}
+			}
+		}
+
+		iteration = -1;
+	}
+
+	private void write(String row) {
+		try {
+			if (writer == null) {
+				writer = IOUtils.getBufferedWriter(controlerIO.getOutputFilename(FILE_NAME));
+				StringBuilder header = new StringBuilder("iteration");
+				for (String phase : PHASES) {
+					header.append(',').append(phase).append("_ms");
+				}
+				header.append(",total_ms,events,events_per_s,agents,agents_per_s,gc_count,gc_ms,heap_peak_mb");
+				writer.write(header.toString());
+				writer.newLine();
+			}
+			writer.write(row);
+			writer.newLine();
+			writer.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long gcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, gc.getCollectionTime());
+		}
+		return time;
+	}
+}
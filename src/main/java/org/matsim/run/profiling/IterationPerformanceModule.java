@@ -0,0 +1,28 @@
+package org.matsim.run.profiling;
+
+import org.matsim.core.controler.AbstractModule;
+
+/**
+ * Records the wall time of the phases of each iteration, the events and agent throughput of the mobsim, garbage collection and the
+ * heap high-water mark. The values are written to {@value IterationPerformanceListener#FILE_NAME} in the output directory.
+ */
+public final class IterationPerformanceModule extends AbstractModule {
+	private final boolean jfrEvents;
+
+	/**
+	 * Create the module.
+	 *
+	 * @param jfrEvents whether to emit the durations of the phases also as JFR events, which can be recorded e.g. with -XX:StartFlightRecording
+	 */
+	public IterationPerformanceModule(boolean jfrEvents) {
+		this.jfrEvents = jfrEvents;
+	}
+
+	@Override
+	public void install() {
+		IterationPerformanceListener listener = new IterationPerformanceListener(jfrEvents);
+		addControlerListenerBinding().toInstance(listener);
+		addEventHandlerBinding().toInstance(listener);
+		addMobsimListenerBinding().toInstance(listener);
+	}
+}
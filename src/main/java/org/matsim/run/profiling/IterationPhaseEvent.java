@@ -0,0 +1,26 @@
+package org.matsim.run.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event with the duration of one phase of an iteration.
+ */
+@Name("org.matsim.kelheim.IterationPhase")
+@Label("Iteration Phase")
+@Category({"MATSim", "Kelheim"})
+@Description("Wall time of a phase of a MATSim iteration")
+final class IterationPhaseEvent extends jdk.jfr.Event {
+	@Label("Iteration")
+	int iteration;
+
+	@Label("Phase")
+	String phase;
+
+	@Label("Duration")
+	@Timespan(Timespan.NANOSECONDS)
+	long duration;
+}
@@ -0,0 +1,229 @@
+package org.matsim.analysis;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.router.TripStructureUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class KelheimMainModeIdentifierTest {
+
+	private static final Logger log = LogManager.getLogger(KelheimMainModeIdentifierTest.class);
+
+	private static final List<String> MODES = List.of(
+			"walk", "transit_walk", "non_network_walk", "bike", "bicycle", "ride", "car",
+			"drt", "kexi", "av", "drt_teleportation", "avDP", "avAS", "pt", "freight",
+			"drt_fallback", "av_fallback", "unknownMode");
+
+	/**
+	 * Compares the identifier with the former implementation on all leg mode sequences up to length 3.
+	 */
+	@Test
+	public void allModeSequences() {
+		KelheimMainModeIdentifier identifier = new KelheimMainModeIdentifier();
+		List<List<PlanElement>> trips = new ArrayList<>();
+		for (String m1 : MODES) {
+			trips.add(createTrip(m1));
+			for (String m2 : MODES) {
+				trips.add(createTrip(m1, m2));
+				for (String m3 : MODES) {
+					trips.add(createTrip(m1, m2, m3));
+				}
+			}
+		}
+
+		for (List<PlanElement> trip : trips) {
+			Assert.assertEquals("Different result for trip " + trip, identifyLegacy(trip), identify(identifier, trip));
+		}
+	}
+
+	/**
+	 * Compares the identifier with the former implementation on all trips of an output plans file.
+	 */
+	@Test
+	public void outputPlans() {
+		KelheimMainModeIdentifier identifier = new KelheimMainModeIdentifier();
+		List<List<? extends PlanElement>> trips = readOutputTrips();
+		Assert.assertFalse(trips.isEmpty());
+
+		for (List<? extends PlanElement> trip : trips) {
+			Assert.assertEquals(legacyIdentifyMainMode(trip), identifier.identifyMainMode(trip));
+		}
+	}
+
+	/**
+	 * Times the identifier against the former implementation on the trips of an output plans file. Only runs with -Dbenchmark=true.
+	 */
+	@Test
+	public void outputPlansBenchmark() {
+		Assume.assumeTrue("Benchmark, run with -Dbenchmark=true", Boolean.getBoolean("benchmark"));
+		KelheimMainModeIdentifier identifier = new KelheimMainModeIdentifier();
+		List<List<? extends PlanElement>> trips = readOutputTrips();
+
+		int repetitions = 20_000;
+		long start = System.nanoTime();
+		for (int i = 0; i < repetitions; i++) {
+			for (List<? extends PlanElement> trip : trips) {
+				legacyIdentifyMainMode(trip);
+			}
+		}
+		long legacyNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < repetitions; i++) {
+			for (List<? extends PlanElement> trip : trips) {
+				identifier.identifyMainMode(trip);
+			}
+		}
+		long nanos = System.nanoTime() - start;
+
+		long calls = (long) repetitions * trips.size();
+		log.info("Identified " + calls + " trips: former implementation " + legacyNanos / calls + " ns/trip, current " + nanos / calls + " ns/trip");
+	}
+
+	/**
+	 * Checks a configured hierarchy with an additional drt mode and the scan of the population for unknown modes.
+	 */
+	@Test
+	public void configuredHierarchy() {
+		KelheimMainModeIdentifierConfigGroup configGroup = new KelheimMainModeIdentifierConfigGroup();
+		configGroup.setDrtModes(List.of("drt", "shuttle"));
+		configGroup.setModeHierarchy(List.of("walk", "bike", "car", "drt", "shuttle", "pt"));
+		KelheimMainModeIdentifier identifier = new KelheimMainModeIdentifier(configGroup);
+
+		Assert.assertEquals("shuttle", identifier.identifyMainMode(createTrip("walk", "shuttle", "walk")));
+		Assert.assertEquals("walk", identifier.identifyMainMode(createTrip("non_network_walk", "shuttle_fallback", "non_network_walk")));
+		Assert.assertEquals(KelheimMainModeIdentifier.ANALYSIS_MAIN_MODE_PT_WITH_DRT_USED_FOR_ACCESS_OR_EGRESS,
+				identifier.identifyMainMode(createTrip("shuttle", "pt", "walk")));
+
+		Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		for (int i = 0; i < 100; i++) {
+			Person person = population.getFactory().createPerson(Id.createPersonId(i));
+			Plan plan = population.getFactory().createPlan();
+			plan.addActivity(PopulationUtils.createActivityFromCoord("home", new Coord(0, 0)));
+			plan.addLeg(PopulationUtils.createLeg(i % 10 == 0 ? "kexi" : "car"));
+			plan.addActivity(PopulationUtils.createActivityFromCoord("work", new Coord(0, 0)));
+			person.addPlan(plan);
+			population.addPerson(person);
+		}
+
+		Assert.assertEquals(Map.of("kexi", 10L), identifier.findUnknownModes(population));
+		Assert.assertTrue(new KelheimMainModeIdentifier().findUnknownModes(population).isEmpty());
+		Assert.assertThrows(IllegalStateException.class, () -> identifier.checkPopulation(population));
+	}
+
+	private static List<List<? extends PlanElement>> readOutputTrips() {
+		Population population = PopulationUtils.readPopulation("test/input/org/matsim/project/RunMatsimTest/test/output_plans.xml.gz");
+		List<List<? extends PlanElement>> trips = new ArrayList<>();
+		for (Person person : population.getPersons().values()) {
+			for (Plan plan : person.getPlans()) {
+				for (TripStructureUtils.Trip trip : TripStructureUtils.getTrips(plan)) {
+					trips.add(trip.getTripElements());
+				}
+			}
+		}
+		return trips;
+	}
+
+	private static List<PlanElement> createTrip(String... modes) {
+		List<PlanElement> trip = new ArrayList<>();
+		for (String mode : modes) {
+			Leg leg = PopulationUtils.createLeg(mode);
+			trip.add(leg);
+			trip.add(PopulationUtils.createActivityFromCoord(mode + " interaction", new Coord(0, 0)));
+		}
+		trip.remove(trip.size() - 1);
+		return trip;
+	}
+
+	private static String identify(KelheimMainModeIdentifier identifier, List<PlanElement> trip) {
+		try {
+			return identifier.identifyMainMode(trip);
+		} catch (RuntimeException e) {
+			return "exception: " + e.getMessage();
+		}
+	}
+
+	private static String identifyLegacy(List<PlanElement> trip) {
+		try {
+			return legacyIdentifyMainMode(trip);
+		} catch (RuntimeException e) {
+			return "exception: " + e.getMessage();
+		}
+	}
+
+	/**
+	 * Former implementation of {@link KelheimMainModeIdentifier#identifyMainMode(List)}, used as reference.
+	 */
+	private static String legacyIdentifyMainMode(List<? extends PlanElement> planElements) {
+		List<String> drtModes = List.of("drt", "kexi", "av", "drt_teleportation", "avDP", "avAS");
+		List<String> modeHierarchy = new ArrayList<>(List.of("transit_walk", "walk", "bike", "bicycle", "ride", "car"));
+		modeHierarchy.addAll(drtModes);
+		modeHierarchy.add("pt");
+		modeHierarchy.add("freight");
+
+		int mainModeIndex = -1;
+		List<String> modesFound = new ArrayList<>();
+		for (PlanElement pe : planElements) {
+			if (!(pe instanceof Leg leg)) {
+				continue;
+			}
+			String mode = leg.getMode();
+			if (mode.equals(TransportMode.non_network_walk)) {
+				continue;
+			}
+			if (mode.equals(TransportMode.transit_walk)) {
+				mode = TransportMode.walk;
+			} else {
+				for (String drtMode : drtModes) {
+					if (mode.equals(drtMode + "_fallback")) {
+						mode = TransportMode.walk;
+					}
+				}
+			}
+			modesFound.add(mode);
+			int index = modeHierarchy.indexOf(mode);
+			if (index < 0) {
+				throw new RuntimeException("unknown mode=" + mode);
+			}
+			if (index > mainModeIndex) {
+				mainModeIndex = index;
+			}
+		}
+		if (mainModeIndex == -1) {
+			throw new RuntimeException("no main mode found for trip " + planElements);
+		}
+
+		String mainMode = modeHierarchy.get(mainModeIndex);
+		if (mainMode.equals(TransportMode.pt)) {
+			boolean isDrtPt = false;
+			for (String modeFound : modesFound) {
+				if (modeFound.equals(TransportMode.pt) || modeFound.equals(TransportMode.walk)) {
+					continue;
+				} else if (drtModes.contains(modeFound)) {
+					isDrtPt = true;
+				} else {
+					throw new RuntimeException("unknown intermodal pt trip");
+				}
+			}
+			return isDrtPt ? KelheimMainModeIdentifier.ANALYSIS_MAIN_MODE_PT_WITH_DRT_USED_FOR_ACCESS_OR_EGRESS : TransportMode.pt;
+		} else {
+			return mainMode;
+		}
+	}
+}
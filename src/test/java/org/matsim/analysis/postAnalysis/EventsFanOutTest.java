@@ -0,0 +1,63 @@
+package org.matsim.analysis.postAnalysis;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.events.handler.EventHandler;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class EventsFanOutTest {
+
+	@Test
+	public void allGroupsReceiveAllEventsInOrder() throws InterruptedException {
+		List<Recorder> recorders = List.of(new Recorder(), new Recorder(), new Recorder());
+		List<List<EventHandler>> groups = new ArrayList<>();
+		for (Recorder recorder : recorders) {
+			groups.add(List.of(recorder));
+		}
+
+		// a buffer much smaller than the number of events, so that the reader has to wait for the groups
+		EventsFanOut fanOut = new EventsFanOut(groups, 64);
+		Id<Link> link = Id.createLinkId("l");
+		Id<Vehicle> vehicle = Id.createVehicleId("v");
+		int n = 100_000;
+		for (int i = 0; i < n; i++) {
+			fanOut.handleEvent(new LinkEnterEvent(i, vehicle, link));
+		}
+		fanOut.finish();
+
+		for (Recorder recorder : recorders) {
+			Assert.assertEquals(n, recorder.times.size());
+			for (int i = 0; i < n; i++) {
+				Assert.assertEquals(i, recorder.times.get(i), 0);
+			}
+		}
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void failureOfGroupIsRethrown() throws InterruptedException {
+		LinkEnterEventHandler failing = event -> {
+			throw new IllegalStateException("failed");
+		};
+		EventsFanOut fanOut = new EventsFanOut(List.of(List.of(failing), List.of(new Recorder())), 16);
+		for (int i = 0; i < 100; i++) {
+			fanOut.handleEvent(new LinkEnterEvent(i, Id.createVehicleId("v"), Id.createLinkId("l")));
+		}
+		fanOut.finish();
+	}
+
+	private static final class Recorder implements LinkEnterEventHandler {
+		private final List<Double> times = new ArrayList<>();
+
+		@Override
+		public void handleEvent(LinkEnterEvent event) {
+			times.add(event.getTime());
+		}
+	}
+}
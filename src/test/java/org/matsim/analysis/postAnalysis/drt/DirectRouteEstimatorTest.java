@@ -0,0 +1,95 @@
+package org.matsim.analysis.postAnalysis.drt;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class DirectRouteEstimatorTest {
+
+	private static final int GRID_SIZE = 20;
+	private static final int NUMBER_OF_TRIPS = 2000;
+
+	/**
+	 * Routes the same trips with one and with several threads, the results need to be exactly the same.
+	 */
+	@Test
+	public void sameRoutesForAnyNumberOfThreads() throws InterruptedException {
+		Network network = createGrid();
+		// time dependent, so that the departure time of each trip matters
+		TravelTime travelTime = (link, time, person, vehicle) -> link.getLength() / link.getFreespeed() * (1 + ((int) (time / 3600) % 3) * 0.5);
+		Config config = ConfigUtils.createConfig();
+		config.routing().setRoutingRandomness(0);
+		Vehicle vehicle = VehicleUtils.createVehicle(Id.createVehicleId("av"),
+			VehicleUtils.createVehicleType(Id.create("av", VehicleType.class)));
+
+		List<Link> links = new ArrayList<>(network.getLinks().values());
+		Random random = new Random(4711);
+		List<DirectRouteEstimator.Trip> trips = new ArrayList<>();
+		for (int i = 0; i < NUMBER_OF_TRIPS; i++) {
+			trips.add(new DirectRouteEstimator.Trip(links.get(random.nextInt(links.size())), links.get(random.nextInt(links.size())),
+				random.nextInt(24 * 3600)));
+		}
+
+		DirectRouteEstimator.DirectRoute[] serial;
+		try (DirectRouteEstimator estimator = new DirectRouteEstimator(network, travelTime, config, 1)) {
+			serial = estimator.estimate(trips, vehicle);
+		}
+		DirectRouteEstimator.DirectRoute[] parallel;
+		try (DirectRouteEstimator estimator = new DirectRouteEstimator(network, travelTime, config, 4)) {
+			parallel = estimator.estimate(trips, vehicle);
+		}
+
+		Assert.assertEquals(NUMBER_OF_TRIPS, serial.length);
+		for (DirectRouteEstimator.DirectRoute route : serial) {
+			Assert.assertTrue(route.distance() > 0);
+		}
+		// records compare their doubles exactly
+		Assert.assertArrayEquals(serial, parallel);
+	}
+
+	/**
+	 * Grid with links in both directions and different free speeds, so that there are few ties between routes.
+	 */
+	private static Network createGrid() {
+		Network network = NetworkUtils.createNetwork();
+		Node[][] nodes = new Node[GRID_SIZE][GRID_SIZE];
+		for (int x = 0; x < GRID_SIZE; x++) {
+			for (int y = 0; y < GRID_SIZE; y++) {
+				nodes[x][y] = NetworkUtils.createAndAddNode(network, Id.createNodeId(x + "_" + y), new Coord(x * 200, y * 200));
+			}
+		}
+		for (int x = 0; x < GRID_SIZE; x++) {
+			for (int y = 0; y < GRID_SIZE; y++) {
+				if (x + 1 < GRID_SIZE) {
+					addLinks(network, nodes[x][y], nodes[x + 1][y], 5 + (x * 7 + y * 3) % 11);
+				}
+				if (y + 1 < GRID_SIZE) {
+					addLinks(network, nodes[x][y], nodes[x][y + 1], 5 + (x * 5 + y * 13) % 11);
+				}
+			}
+		}
+		return network;
+	}
+
+	private static void addLinks(Network network, Node a, Node b, double freespeed) {
+		Id<Link> forward = Id.createLinkId(a.getId() + "-" + b.getId());
+		Id<Link> backward = Id.createLinkId(b.getId() + "-" + a.getId());
+		NetworkUtils.createAndAddLink(network, forward, a, b, 200, freespeed, 1000, 1);
+		NetworkUtils.createAndAddLink(network, backward, b, a, 200, freespeed + 1, 1000, 1);
+	}
+}
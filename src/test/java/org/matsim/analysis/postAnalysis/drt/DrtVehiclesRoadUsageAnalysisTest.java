@@ -0,0 +1,291 @@
+package org.matsim.analysis.postAnalysis.drt;
+
+import org.apache.commons.lang.mutable.MutableInt;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.fleet.FleetSpecification;
+import org.matsim.contrib.dvrp.fleet.FleetSpecificationImpl;
+import org.matsim.contrib.dvrp.fleet.ImmutableDvrpVehicleSpecification;
+import org.matsim.contrib.dvrp.optimizer.Request;
+import org.matsim.contrib.dvrp.passenger.PassengerDroppedOffEvent;
+import org.matsim.contrib.dvrp.passenger.PassengerDroppedOffEventHandler;
+import org.matsim.contrib.dvrp.passenger.PassengerPickedUpEvent;
+import org.matsim.contrib.dvrp.passenger.PassengerPickedUpEventHandler;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.EventHandler;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class DrtVehiclesRoadUsageAnalysisTest {
+
+	private static final Logger log = LogManager.getLogger(DrtVehiclesRoadUsageAnalysisTest.class);
+
+	private static final int NUMBER_OF_LINKS = 1000;
+	private static final int FLEET_SIZE = 200;
+	private static final int NUMBER_OF_CARS = 2000;
+	private static final int NUMBER_OF_EVENTS = 20_000;
+	private static final int NUMBER_OF_BENCHMARK_EVENTS = 500_000;
+
+	/**
+	 * Replays the same events through the former recorder and the current one, which need to produce the same counts.
+	 */
+	@Test
+	public void sameCountsAsFormerRecorder() {
+		compareWithFormerRecorder(NUMBER_OF_EVENTS);
+	}
+
+	/**
+	 * Times the replay of many events through both recorders. Only runs with -Dbenchmark=true.
+	 */
+	@Test
+	public void replayBenchmark() {
+		Assume.assumeTrue("Benchmark, run with -Dbenchmark=true", Boolean.getBoolean("benchmark"));
+		compareWithFormerRecorder(NUMBER_OF_BENCHMARK_EVENTS);
+	}
+
+	private static void compareWithFormerRecorder(int numberOfEvents) {
+		Network network = NetworkUtils.createNetwork();
+		Node previous = NetworkUtils.createAndAddNode(network, Id.createNodeId(0), new Coord(0, 0));
+		for (int i = 1; i <= NUMBER_OF_LINKS; i++) {
+			Node node = NetworkUtils.createAndAddNode(network, Id.createNodeId(i), new Coord(i * 100, 0));
+			Link link = NetworkUtils.createAndAddLink(network, Id.createLinkId(i), previous, node, 100, 10, 1000, 1);
+			// every tenth link does not allow drt
+			link.setAllowedModes(i % 10 == 0 ? Set.of(TransportMode.car) : Set.of(TransportMode.car, TransportMode.drt));
+			previous = node;
+		}
+
+		FleetSpecification fleet = new FleetSpecificationImpl();
+		List<String> vehicleIdStrings = new ArrayList<>();
+		for (int i = 0; i < FLEET_SIZE; i++) {
+			fleet.addVehicleSpecification(ImmutableDvrpVehicleSpecification.newBuilder()
+					.id(Id.create("drt_" + i, DvrpVehicle.class))
+					.startLinkId(Id.createLinkId(1))
+					.capacity(8)
+					.serviceBeginTime(0)
+					.serviceEndTime(30 * 3600)
+					.build());
+			vehicleIdStrings.add("drt_" + i);
+		}
+
+		List<Event> events = createEvents(numberOfEvents);
+
+		LegacyRecorder legacy = new LegacyRecorder(network, 3600, TransportMode.drt, vehicleIdStrings);
+		long legacyTime = replay(events, legacy);
+
+		DrtVehiclesRoadUsageAnalysis.VehicleLinkUsageRecorder recorder = new DrtVehiclesRoadUsageAnalysis.VehicleLinkUsageRecorder(
+				network, 3600, 86400, TransportMode.drt, Map.of(TransportMode.drt, fleet));
+		long time = replay(events, recorder);
+
+		log.info("Replayed " + events.size() + " events: former recorder " + legacyTime + " ms, current recorder " + time + " ms");
+
+		for (Link link : network.getLinks().values()) {
+			Map<Integer, MutableInt> vehicles = legacy.vehicleRoadUsageRecordMap.get(link.getId().toString());
+			Map<Integer, MutableInt> passengers = legacy.passengerRoadUsageMap.get(link.getId().toString());
+			for (int i = 0; i < recorder.getNumberOfTimeBins(); i++) {
+				Assert.assertEquals(vehicles == null ? 0 : vehicles.get(i).intValue(), recorder.getVehicleRoadUsage(0, link.getId(), i));
+				Assert.assertEquals(passengers == null ? 0 : passengers.get(i).intValue(), recorder.getPassengerRoadUsage(0, link.getId(), i));
+			}
+		}
+	}
+
+	@Test
+	public void multipleModesAndHorizon() {
+		Network network = NetworkUtils.createNetwork();
+		Node a = NetworkUtils.createAndAddNode(network, Id.createNodeId("a"), new Coord(0, 0));
+		Node b = NetworkUtils.createAndAddNode(network, Id.createNodeId("b"), new Coord(100, 0));
+		Link link = NetworkUtils.createAndAddLink(network, Id.createLinkId("ab"), a, b, 100, 10, 1000, 1);
+		link.setAllowedModes(Set.of(TransportMode.car, TransportMode.drt));
+
+		Map<String, FleetSpecification> fleets = new LinkedHashMap<>();
+		for (String mode : List.of("drt", "av")) {
+			FleetSpecification fleet = new FleetSpecificationImpl();
+			fleet.addVehicleSpecification(ImmutableDvrpVehicleSpecification.newBuilder()
+					.id(Id.create(mode + "_vehicle", DvrpVehicle.class))
+					.startLinkId(link.getId())
+					.capacity(4)
+					.serviceBeginTime(0)
+					.serviceEndTime(30 * 3600)
+					.build());
+			fleets.put(mode, fleet);
+		}
+
+		DrtVehiclesRoadUsageAnalysis.VehicleLinkUsageRecorder recorder = new DrtVehiclesRoadUsageAnalysis.VehicleLinkUsageRecorder(
+				network, 3600, 30 * 3600, TransportMode.drt, fleets);
+		Assert.assertEquals(30, recorder.getNumberOfTimeBins());
+
+		Id<Request> requestId = Id.create("request", Request.class);
+		Id<Person> personId = Id.createPersonId("passenger");
+		recorder.handleEvent(new PassengerPickedUpEvent(3000, "av", requestId, personId, Id.create("av_vehicle", DvrpVehicle.class)));
+		recorder.handleEvent(new LinkEnterEvent(3600, Id.createVehicleId("av_vehicle"), link.getId()));
+		recorder.handleEvent(new LinkEnterEvent(26 * 3600, Id.createVehicleId("drt_vehicle"), link.getId()));
+		recorder.handleEvent(new LinkEnterEvent(31 * 3600, Id.createVehicleId("drt_vehicle"), link.getId()));
+		recorder.handleEvent(new LinkEnterEvent(5000, Id.createVehicleId("car"), link.getId()));
+
+		Assert.assertEquals(List.of("drt", "av"), recorder.getModes());
+		Assert.assertEquals(1, recorder.getVehicleRoadUsage(1, link.getId(), 1));
+		Assert.assertEquals(1, recorder.getPassengerRoadUsage(1, link.getId(), 1));
+		Assert.assertEquals(0, recorder.getVehicleRoadUsage(0, link.getId(), 1));
+		Assert.assertEquals(1, recorder.getVehicleRoadUsage(0, link.getId(), 26));
+		Assert.assertEquals(1, recorder.getEventsAfterHorizon());
+	}
+
+	/**
+	 * Too many counters fail with a clear message instead of an overflowing array size.
+	 */
+	@Test
+	public void tooManyTimeBins() {
+		Network network = NetworkUtils.createNetwork();
+		Node a = NetworkUtils.createAndAddNode(network, Id.createNodeId("a"), new Coord(0, 0));
+		Node b = NetworkUtils.createAndAddNode(network, Id.createNodeId("b"), new Coord(100, 0));
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("ab"), a, b, 100, 10, 1000, 1).setAllowedModes(Set.of(TransportMode.drt));
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("ba"), b, a, 100, 10, 1000, 1).setAllowedModes(Set.of(TransportMode.drt));
+
+		Assert.assertThrows(IllegalArgumentException.class, () -> new DrtVehiclesRoadUsageAnalysis.VehicleLinkUsageRecorder(
+				network, 1, 3e9, TransportMode.drt, Map.of(TransportMode.drt, new FleetSpecificationImpl())));
+	}
+
+	/**
+	 * Deterministic mix of drt vehicles picking up, moving and dropping off passengers and private cars, until shortly before midnight.
+	 */
+	private static List<Event> createEvents(int numberOfEvents) {
+		List<Event> events = new ArrayList<>(numberOfEvents);
+		int[] occupancy = new int[FLEET_SIZE];
+		Id<Request> requestId = Id.create("request", Request.class);
+		Id<Person> personId = Id.createPersonId("passenger");
+		for (int i = 0; i < numberOfEvents; i++) {
+			double time = i * (86000.0 / numberOfEvents);
+			Id<Link> linkId = Id.createLinkId(1 + (int) ((i * 7919L) % NUMBER_OF_LINKS));
+			if (i % 3 == 0) {
+				Id<Vehicle> car = Id.createVehicleId("car_" + (i * 31) % NUMBER_OF_CARS);
+				events.add(i % 2 == 0 ? new LinkEnterEvent(time, car, linkId) :
+						new VehicleEntersTrafficEvent(time, personId, linkId, car, TransportMode.car, 1));
+				continue;
+			}
+
+			int v = (i * 13) % FLEET_SIZE;
+			Id<DvrpVehicle> dvrpVehicleId = Id.create("drt_" + v, DvrpVehicle.class);
+			if (i % 11 == 0 && occupancy[v] < 8) {
+				occupancy[v]++;
+				events.add(new PassengerPickedUpEvent(time, TransportMode.drt, requestId, personId, dvrpVehicleId));
+			} else if (i % 13 == 0 && occupancy[v] > 0) {
+				occupancy[v]--;
+				events.add(new PassengerDroppedOffEvent(time, TransportMode.drt, requestId, personId, dvrpVehicleId));
+			} else if (i % 17 == 0) {
+				events.add(new VehicleEntersTrafficEvent(time, personId, linkId, Id.createVehicleId("drt_" + v), TransportMode.drt, 1));
+			} else {
+				events.add(new LinkEnterEvent(time, Id.createVehicleId("drt_" + v), linkId));
+			}
+		}
+		return events;
+	}
+
+	private static long replay(List<Event> events, EventHandler handler) {
+		EventsManager manager = EventsUtils.createEventsManager();
+		manager.addHandler(handler);
+		manager.initProcessing();
+		long start = System.currentTimeMillis();
+		for (Event event : events) {
+			manager.processEvent(event);
+		}
+		manager.finishProcessing();
+		return System.currentTimeMillis() - start;
+	}
+
+	/**
+	 * The recorder before the counters were stored in arrays, with a linear search of the fleet vehicles.
+	 */
+	private static final class LegacyRecorder implements LinkEnterEventHandler, VehicleEntersTrafficEventHandler,
+			PassengerPickedUpEventHandler, PassengerDroppedOffEventHandler {
+		private final Map<String, Map<Integer, MutableInt>> vehicleRoadUsageRecordMap = new HashMap<>();
+		private final Map<String, MutableInt> vehiclesOccupancyTracker = new HashMap<>();
+		private final Map<String, Map<Integer, MutableInt>> passengerRoadUsageMap = new HashMap<>();
+		private final int timeBinSize;
+		private final List<String> vehicleIdStrings;
+
+		LegacyRecorder(Network network, int timeBinSize, String mode, List<String> vehicleIdStrings) {
+			this.timeBinSize = timeBinSize;
+			this.vehicleIdStrings = vehicleIdStrings;
+			for (Link link : network.getLinks().values()) {
+				if (link.getAllowedModes().contains(mode)) {
+					Map<Integer, MutableInt> counterMap = new HashMap<>();
+					Map<Integer, MutableInt> counterMap1 = new HashMap<>();
+					for (int i = 0; i < 86400 / timeBinSize; i++) {
+						counterMap.put(i, new MutableInt(0));
+						counterMap1.put(i, new MutableInt(0));
+					}
+					vehicleRoadUsageRecordMap.put(link.getId().toString(), counterMap);
+					passengerRoadUsageMap.put(link.getId().toString(), counterMap1);
+				}
+			}
+			for (String vehicleIdString : vehicleIdStrings) {
+				vehiclesOccupancyTracker.put(vehicleIdString, new MutableInt(0));
+			}
+		}
+
+		@Override
+		public void handleEvent(LinkEnterEvent event) {
+			if (vehicleIdStrings.contains(event.getVehicleId().toString())) {
+				String linkIdString = event.getLinkId().toString();
+				double time = event.getTime();
+				if (time <= 86400 && vehicleRoadUsageRecordMap.containsKey(linkIdString)) {
+					int timeBin = (int) (time / timeBinSize);
+					vehicleRoadUsageRecordMap.get(linkIdString).get(timeBin).increment();
+					int passengerOnBoard = vehiclesOccupancyTracker.get(event.getVehicleId().toString()).intValue();
+					for (int i = 0; i < passengerOnBoard; i++) {
+						passengerRoadUsageMap.get(linkIdString).get(timeBin).increment();
+					}
+				}
+			}
+		}
+
+		@Override
+		public void handleEvent(VehicleEntersTrafficEvent event) {
+			if (vehicleIdStrings.contains(event.getVehicleId().toString())) {
+				String linkIdString = event.getLinkId().toString();
+				double time = event.getTime();
+				if (time <= 86400 && vehicleRoadUsageRecordMap.containsKey(linkIdString)) {
+					int timeBin = (int) (time / timeBinSize);
+					vehicleRoadUsageRecordMap.get(linkIdString).get(timeBin).increment();
+				}
+			}
+		}
+
+		@Override
+		public void handleEvent(PassengerDroppedOffEvent event) {
+			if (vehicleIdStrings.contains(event.getVehicleId().toString())) {
+				vehiclesOccupancyTracker.get(event.getVehicleId().toString()).decrement();
+			}
+		}
+
+		@Override
+		public void handleEvent(PassengerPickedUpEvent event) {
+			if (vehicleIdStrings.contains(event.getVehicleId().toString())) {
+				vehiclesOccupancyTracker.get(event.getVehicleId().toString()).increment();
+			}
+		}
+	}
+}
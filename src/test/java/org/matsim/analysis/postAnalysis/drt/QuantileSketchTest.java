@@ -0,0 +1,60 @@
+package org.matsim.analysis.postAnalysis.drt;
+
+import org.apache.commons.math.stat.StatUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QuantileSketchTest {
+
+	@Test
+	public void exactBelowLimit() {
+		QuantileSketch sketch = new QuantileSketch(1, 3600, 100);
+		double[] values = new double[100];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (i * 37) % 101 + 0.5;
+			sketch.add(values[i]);
+		}
+
+		Assert.assertTrue(sketch.isExact());
+		Assert.assertEquals(StatUtils.mean(values), sketch.mean(), 1e-9);
+		Assert.assertEquals(StatUtils.percentile(values, 50), sketch.percentile(50), 0);
+		Assert.assertEquals(StatUtils.percentile(values, 95), sketch.percentile(95), 0);
+	}
+
+	@Test
+	public void histogramAboveLimit() {
+		QuantileSketch sketch = new QuantileSketch(1, 3600, 100);
+		for (int i = 0; i < 1000; i++) {
+			sketch.add(i);
+		}
+
+		Assert.assertFalse(sketch.isExact());
+		Assert.assertEquals(1000, sketch.getCount());
+		Assert.assertEquals(499.5, sketch.mean(), 1e-9);
+		Assert.assertEquals(500, sketch.percentile(50), 1);
+		Assert.assertEquals(950, sketch.percentile(95), 1);
+	}
+
+	@Test
+	public void merge() {
+		QuantileSketch all = new QuantileSketch(1, 3600, 100);
+		QuantileSketch first = new QuantileSketch(1, 3600, 100);
+		QuantileSketch second = new QuantileSketch(1, 3600, 100);
+		for (int i = 0; i < 300; i++) {
+			all.add(i);
+			(i % 3 == 0 ? first : second).add(i);
+		}
+		first.merge(second);
+
+		Assert.assertEquals(all.getCount(), first.getCount());
+		Assert.assertEquals(all.mean(), first.mean(), 1e-9);
+		Assert.assertEquals(all.percentile(95), first.percentile(95), 0);
+	}
+
+	@Test
+	public void empty() {
+		QuantileSketch sketch = new QuantileSketch(1, 3600);
+		Assert.assertTrue(Double.isNaN(sketch.mean()));
+		Assert.assertTrue(Double.isNaN(sketch.percentile(95)));
+	}
+}
@@ -0,0 +1,30 @@
+package org.matsim.analysis.postAnalysis.drt;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.matsim.api.core.v01.Coord;
+
+import java.util.List;
+
+public class ZoneIndexTest {
+
+	@Test
+	public void findZones() {
+		GeometryFactory factory = new GeometryFactory();
+		List<Geometry> zones = List.of(
+				factory.toGeometry(new Envelope(0, 10, 0, 10)),
+				factory.toGeometry(new Envelope(5, 15, 0, 10)),
+				factory.toGeometry(new Envelope(20, 30, 0, 10)));
+		ZoneIndex index = new ZoneIndex(zones);
+
+		Assert.assertEquals(3, index.size());
+		Assert.assertArrayEquals(new int[]{0}, index.findZones(new Coord(2, 2)));
+		Assert.assertArrayEquals(new int[]{0, 1}, index.findZones(new Coord(7, 2)));
+		Assert.assertArrayEquals(new int[]{2}, index.findZones(new Coord(25, 5)));
+		Assert.assertArrayEquals(new int[0], index.findZones(new Coord(17, 5)));
+		Assert.assertArrayEquals(new int[0], index.findZones(new Coord(100, 100)));
+	}
+}
@@ -0,0 +1,163 @@
+package org.matsim.analysis.postAnalysis.events;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.PersonEntersVehicleEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.drt.util.DrtEventsReaders;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.optimizer.Request;
+import org.matsim.contrib.dvrp.passenger.PassengerPickedUpEvent;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.algorithms.EventWriterXML;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.core.events.handler.EventHandler;
+import org.matsim.testcases.MatsimTestUtils;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ColumnarEventsTest {
+	private static final Logger log = LogManager.getLogger(ColumnarEventsTest.class);
+
+	@Rule
+	public MatsimTestUtils utils = new MatsimTestUtils();
+
+	@Test
+	public void sameEventsAsXml() throws IOException {
+		Path eventsFile = writeEvents(10_000);
+		Assert.assertFalse(ColumnarEvents.isUpToDate(eventsFile));
+		ColumnarEvents.convert(eventsFile);
+		Assert.assertTrue(ColumnarEvents.isUpToDate(eventsFile));
+
+		Recorder xml = new Recorder();
+		EventsManager xmlManager = EventsUtils.createEventsManager();
+		xmlManager.addHandler(xml);
+		DrtEventsReaders.createEventsReader(xmlManager).readFile(eventsFile.toString());
+
+		Recorder columnar = new Recorder();
+		read(eventsFile, columnar);
+
+		Assert.assertEquals(10_000, xml.events.size());
+		Assert.assertEquals(xml.events, columnar.events);
+	}
+
+	/**
+	 * Reads only link enter events, from a file that spans several chunks.
+	 */
+	@Test
+	public void skipsEventsNotNeeded() throws IOException {
+		int n = 2 * ColumnarEventsWriter.CHUNK_SIZE + 1000;
+		Path eventsFile = writeEvents(n);
+		ColumnarEvents.convert(eventsFile);
+
+		List<Double> times = new ArrayList<>();
+		LinkEnterEventHandler handler = event -> times.add(event.getTime());
+		read(eventsFile, handler);
+
+		// every second event is a link enter event, in order of time
+		Assert.assertEquals(n / 2, times.size());
+		for (int i = 1; i < times.size(); i++) {
+			Assert.assertTrue(times.get(i - 1) <= times.get(i));
+		}
+	}
+
+	/**
+	 * Logs the read times of the xml and the columnar events, with all events and with only link enter events. Only runs with
+	 * -Dbenchmark=true.
+	 */
+	@Test
+	public void readThroughput() throws IOException {
+		Assume.assumeTrue("Benchmark, run with -Dbenchmark=true", Boolean.getBoolean("benchmark"));
+		int n = 500_000;
+		Path eventsFile = writeEvents(n);
+		ColumnarEvents.convert(eventsFile);
+
+		for (int round = 0; round < 3; round++) {
+			Recorder all = new Recorder();
+			long start = System.currentTimeMillis();
+			EventsManager manager = EventsUtils.createEventsManager();
+			manager.addHandler((BasicEventHandler) event -> all.count++);
+			DrtEventsReaders.createEventsReader(manager).readFile(eventsFile.toString());
+			long xml = System.currentTimeMillis() - start;
+
+			Recorder columnar = new Recorder();
+			start = System.currentTimeMillis();
+			read(eventsFile, (BasicEventHandler) event -> columnar.count++);
+			long columnarAll = System.currentTimeMillis() - start;
+
+			Recorder linkEnter = new Recorder();
+			start = System.currentTimeMillis();
+			read(eventsFile, (LinkEnterEventHandler) event -> linkEnter.count++);
+			long columnarLinkEnter = System.currentTimeMillis() - start;
+
+			Assert.assertEquals(n, all.count);
+			Assert.assertEquals(n, columnar.count);
+			Assert.assertEquals(n / 2, linkEnter.count);
+			log.info("Read " + n + " events: xml " + xml + " ms, columnar " + columnarAll + " ms, columnar link enter events only "
+				+ columnarLinkEnter + " ms (" + Files.size(eventsFile) / 1024 + " KiB xml, "
+				+ Files.size(ColumnarEvents.getFile(eventsFile)) / 1024 + " KiB columnar)");
+		}
+	}
+
+	private static void read(Path eventsFile, EventHandler handler) {
+		EventsManager manager = EventsUtils.createEventsManager();
+		manager.addHandler(handler);
+		ColumnarEvents.read(manager, List.of(handler), eventsFile);
+	}
+
+	/**
+	 * Mix of events that are created directly by the reader and events that need a custom mapper, partly at fractions of seconds.
+	 */
+	private Path writeEvents(int n) {
+		Path eventsFile = Path.of(utils.getOutputDirectory(), "test.output_events.xml.gz");
+		EventWriterXML writer = new EventWriterXML(eventsFile.toString());
+		Id<Request> requestId = Id.create("request", Request.class);
+		for (int i = 0; i < n; i++) {
+			double time = i < n / 2 ? i / 10 : i / 10 + 0.5;
+			Id<Vehicle> vehicle = Id.createVehicleId("v" + i % 1000);
+			Id<Person> person = Id.createPersonId("p" + i % 1000);
+			Id<Link> link = Id.createLinkId("l" + i % 5000);
+			if (i % 2 == 0) {
+				writer.handleEvent(new LinkEnterEvent(time, vehicle, link));
+			} else if (i % 7 == 1) {
+				writer.handleEvent(new PassengerPickedUpEvent(time, TransportMode.drt, requestId, person, Id.create("v" + i % 1000, DvrpVehicle.class)));
+			} else if (i % 5 == 1) {
+				writer.handleEvent(new VehicleEntersTrafficEvent(time, person, link, vehicle, TransportMode.car, 1.0));
+			} else if (i % 3 == 1) {
+				writer.handleEvent(new PersonEntersVehicleEvent(time, person, vehicle));
+			} else {
+				writer.handleEvent(new LinkLeaveEvent(time, vehicle, link));
+			}
+		}
+		writer.closeFile();
+		return eventsFile;
+	}
+
+	private static final class Recorder implements BasicEventHandler {
+		private final List<String> events = new ArrayList<>();
+		private int count;
+
+		@Override
+		public void handleEvent(Event event) {
+			events.add(event.getClass().getName() + " " + event.getAttributes());
+		}
+	}
+}
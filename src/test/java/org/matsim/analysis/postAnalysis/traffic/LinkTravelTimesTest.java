@@ -0,0 +1,65 @@
+package org.matsim.analysis.postAnalysis.traffic;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.events.algorithms.EventWriterXML;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.testcases.MatsimTestUtils;
+import org.matsim.vehicles.Vehicle;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class LinkTravelTimesTest {
+	@Rule
+	public MatsimTestUtils utils = new MatsimTestUtils();
+
+	@Test
+	public void computeAndLoad() {
+		Network network = NetworkUtils.createNetwork();
+		Node a = NetworkUtils.createAndAddNode(network, Id.createNodeId("a"), new Coord(0, 0));
+		Node b = NetworkUtils.createAndAddNode(network, Id.createNodeId("b"), new Coord(1000, 0));
+		Node c = NetworkUtils.createAndAddNode(network, Id.createNodeId("c"), new Coord(2000, 0));
+		Link ab = NetworkUtils.createAndAddLink(network, Id.createLinkId("ab"), a, b, 1000, 10, 1800, 1);
+		Link bc = NetworkUtils.createAndAddLink(network, Id.createLinkId("bc"), b, c, 1000, 10, 1800, 1);
+
+		Path eventsFile = Path.of(utils.getOutputDirectory(), "test.output_events.xml");
+		Id<Vehicle> vehicle = Id.createVehicleId("v");
+		EventWriterXML writer = new EventWriterXML(eventsFile.toString());
+		writer.handleEvent(new VehicleEntersTrafficEvent(3600, Id.createPersonId("p"), ab.getId(), vehicle, TransportMode.car, 1));
+		writer.handleEvent(new LinkLeaveEvent(3601, vehicle, ab.getId()));
+		writer.handleEvent(new LinkEnterEvent(3601, vehicle, bc.getId()));
+		writer.handleEvent(new LinkLeaveEvent(3801, vehicle, bc.getId()));
+		writer.closeFile();
+
+		LinkTravelTimes computed = LinkTravelTimes.loadOrCompute(network, eventsFile);
+		Assert.assertTrue(Files.isRegularFile(LinkTravelTimes.getFile(eventsFile)));
+		Assert.assertEquals(200, computed.getLinkTravelTime(bc, 3600, null, null), 1e-3);
+		Assert.assertEquals(1, computed.getTrafficCount(ab.getId()));
+		Assert.assertEquals(1, computed.getTrafficCount(bc.getId()));
+
+		LinkTravelTimes loaded = LinkTravelTimes.loadOrCompute(network, eventsFile);
+		for (Link link : network.getLinks().values()) {
+			Assert.assertEquals(computed.getTrafficCount(link.getId()), loaded.getTrafficCount(link.getId()));
+			for (double t = 0; t < 36 * 3600; t += 900) {
+				Assert.assertEquals(computed.getLinkTravelTime(link, t, null, null), loaded.getLinkTravelTime(link, t, null, null), 0);
+			}
+		}
+
+		// links without traffic have the free speed travel time, so a changed network needs new travel times
+		Assert.assertEquals(100, loaded.getLinkTravelTime(bc, 0, null, null), 1e-3);
+		bc.setFreespeed(20);
+		LinkTravelTimes changed = LinkTravelTimes.loadOrCompute(network, eventsFile);
+		Assert.assertEquals(50, changed.getLinkTravelTime(bc, 0, null, null), 1e-3);
+	}
+}
@@ -0,0 +1,440 @@
+package org.matsim.drtFare;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.PersonMoneyEvent;
+import org.matsim.api.core.v01.events.handler.PersonMoneyEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.drt.passenger.events.DrtRequestSubmittedEvent;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.fleet.FleetSpecificationImpl;
+import org.matsim.contrib.dvrp.fleet.ImmutableDvrpVehicleSpecification;
+import org.matsim.contrib.dvrp.optimizer.Request;
+import org.matsim.contrib.dvrp.passenger.PassengerDroppedOffEvent;
+import org.matsim.contrib.dvrp.passenger.PassengerPickedUpEvent;
+import org.matsim.contrib.dvrp.passenger.PassengerRequestRejectedEvent;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class KelheimDrtFareHandlerTest {
+
+	private static final Logger log = LogManager.getLogger(KelheimDrtFareHandlerTest.class);
+
+	private static final int NUMBER_OF_REQUESTS = 10_000;
+	private static final int NUMBER_OF_BENCHMARK_REQUESTS = 1_000_000;
+	private static final double BASE_FARE = 2.0;
+	private static final int NUMBER_OF_THREADS = 8;
+
+	/**
+	 * Replays synthetic submit/drop-off pairs through the handler, which needs to charge each request once.
+	 */
+	@Test
+	public void replaySyntheticRequests() {
+		replaySynthetic(NUMBER_OF_REQUESTS);
+	}
+
+	/**
+	 * Times the replay of many requests against the former HashMap based bookkeeping. Only runs with -Dbenchmark=true.
+	 */
+	@Test
+	public void replayBenchmark() {
+		Assume.assumeTrue("Benchmark, run with -Dbenchmark=true", Boolean.getBoolean("benchmark"));
+		replaySynthetic(NUMBER_OF_BENCHMARK_REQUESTS);
+	}
+
+	private static void replaySynthetic(int numberOfRequests) {
+		Network network = createNetwork();
+		Id<Link> linkId = Id.createLinkId("l1");
+		Id<Person> personId = Id.createPersonId("p1");
+		Id<DvrpVehicle> vehicleId = Id.create("v1", DvrpVehicle.class);
+
+		DrtRequestSubmittedEvent[] submitted = new DrtRequestSubmittedEvent[numberOfRequests];
+		PassengerDroppedOffEvent[] droppedOff = new PassengerDroppedOffEvent[numberOfRequests];
+		for (int i = 0; i < numberOfRequests; i++) {
+			Id<Request> requestId = Id.create(i, Request.class);
+			submitted[i] = new DrtRequestSubmittedEvent(i, TransportMode.drt, requestId, personId, linkId, linkId, 60, 500);
+			droppedOff[i] = new PassengerDroppedOffEvent(i + 600, TransportMode.drt, requestId, personId, vehicleId);
+		}
+
+		FareSum fareSum = new FareSum();
+		EventsManager events = EventsUtils.createEventsManager();
+		events.addHandler(fareSum);
+		events.initProcessing();
+
+		KelheimDrtFareHandler handler = new KelheimDrtFareHandler(TransportMode.drt,
+				new KelheimDrtFareParams(BASE_FARE, 1.0, TransportMode.drt), network, events);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < numberOfRequests; i++) {
+			handler.handleEvent(submitted[i]);
+			handler.handleEvent(droppedOff[i]);
+		}
+		long handlerNanos = System.nanoTime() - start;
+		events.finishProcessing();
+
+		Assert.assertEquals(0, handler.getNumberOfPendingRequests());
+		Assert.assertEquals(numberOfRequests, fareSum.count);
+		Assert.assertEquals(-BASE_FARE * numberOfRequests, fareSum.sum, 1e-6);
+
+		// Former bookkeeping for comparison
+		Map<Id<Request>, Boolean> surchargeMap = new HashMap<>();
+		int surcharged = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < numberOfRequests; i++) {
+			surchargeMap.put(submitted[i].getRequestId(), false);
+			if (surchargeMap.get(droppedOff[i].getRequestId())) {
+				surcharged++;
+			}
+			surchargeMap.remove(droppedOff[i].getRequestId());
+		}
+		long mapNanos = System.nanoTime() - start;
+
+		Assert.assertEquals(0, surcharged);
+		log.info("Replayed " + numberOfRequests + " requests: handler incl. money events " + handlerNanos / 1_000_000 + " ms, " +
+				"former HashMap bookkeeping alone " + mapNanos / 1_000_000 + " ms");
+	}
+
+	/**
+	 * Feeds interleaved events of disjoint requests from several threads into one handler and compares the fares to a serial run.
+	 */
+	@Test
+	public void parallelEventsYieldSameFaresAsSerial() throws Exception {
+		Network network = createNetwork();
+		int numberOfRequests = 200_000;
+		Event[][] eventsPerThread = createRequests(numberOfRequests, NUMBER_OF_THREADS);
+
+		FareSum serial = replay(network, eventsPerThread, 1);
+		FareSum parallel = replay(network, eventsPerThread, NUMBER_OF_THREADS);
+
+		// every 10th request is rejected
+		Assert.assertEquals(numberOfRequests - numberOfRequests / 10, serial.count);
+		Assert.assertEquals(serial.count, parallel.count);
+		Assert.assertEquals(serial.sum, parallel.sum, 1e-6);
+	}
+
+	/**
+	 * In batched mode, all fares are charged at the latest at the end of the mobsim.
+	 */
+	@Test
+	public void batchedMoneyEvents() {
+		Network network = createNetwork();
+		Id<Link> linkId = Id.createLinkId("l1");
+		Id<DvrpVehicle> vehicleId = Id.create("v1", DvrpVehicle.class);
+
+		FareSum fareSum = new FareSum();
+		EventsManager events = EventsUtils.createEventsManager();
+		events.addHandler(fareSum);
+		events.initProcessing();
+
+		KelheimDrtFareParams params = new KelheimDrtFareParams(BASE_FARE, 1.0, TransportMode.drt);
+		params.setDailySubscriptionFee(5.0);
+		params.setMoneyEventsFlushInterval(900);
+		KelheimDrtFareHandler handler = new KelheimDrtFareHandler(TransportMode.drt, params, network, events);
+
+		for (int i = 0; i < 100; i++) {
+			Id<Request> requestId = Id.create("batched_" + i, Request.class);
+			Id<Person> personId = Id.createPersonId("batched_p" + i % 10);
+			handler.handleEvent(new DrtRequestSubmittedEvent(i * 60, TransportMode.drt, requestId, personId, linkId, linkId, 60, 500));
+			handler.handleEvent(new PassengerDroppedOffEvent(i * 60 + 300, TransportMode.drt, requestId, personId, vehicleId));
+		}
+		Assert.assertTrue("Fares need to be flushed during the simulation", fareSum.count > 0);
+		Assert.assertTrue("Not all fares should be flushed yet", fareSum.count < 110);
+
+		handler.notifyMobsimBeforeCleanup(null);
+		events.finishProcessing();
+
+		// 100 trips and 10 persons paying the daily fee
+		Assert.assertEquals(110, fareSum.count);
+		Assert.assertEquals(-100 * BASE_FARE - 10 * 5.0, fareSum.sum, 1e-6);
+	}
+
+	/**
+	 * In batched mode, drop offs that are processed after the end of the mobsim are charged immediately, and fares that are still
+	 * buffered at the reset are charged instead of discarded.
+	 */
+	@Test
+	public void batchedFaresAfterMobsim() {
+		KelheimDrtFareParams params = new KelheimDrtFareParams(BASE_FARE, 1.0, TransportMode.drt);
+		params.setMoneyEventsFlushInterval(3600);
+		FareList fares = new FareList();
+		KelheimDrtFareHandler handler = new KelheimDrtFareHandler(TransportMode.drt, params, createNetwork(), fares.events);
+
+		ride(handler, "late_r1", "late_p1", 0, 100);
+		Assert.assertEquals(0, fares.amounts.size());
+		handler.notifyMobsimBeforeCleanup(null);
+		Assert.assertEquals(1, fares.amounts.size());
+
+		// e.g. delivered late by an asynchronous events manager
+		ride(handler, "late_r2", "late_p2", 200, 300);
+		Assert.assertEquals(2, fares.amounts.size());
+
+		// the handler was not notified about the end of the mobsim in this iteration
+		handler.reset(1);
+		ride(handler, "late_r3", "late_p3", 0, 100);
+		Assert.assertEquals(2, fares.amounts.size());
+		handler.reset(2);
+		fares.events.finishProcessing();
+		Assert.assertEquals(List.of(-BASE_FARE, -BASE_FARE, -BASE_FARE), fares.amounts);
+	}
+
+	/**
+	 * The minimum fare is charged if base, time and distance fare sum up to less, otherwise the sum is charged.
+	 */
+	@Test
+	public void minFarePerTrip() {
+		KelheimDrtFareParams params = new KelheimDrtFareParams(BASE_FARE, 1.0, TransportMode.drt);
+		params.setMinFarePerTrip(3.0);
+		params.setTimeFare_h(3.6);
+		FareList fares = new FareList();
+		KelheimDrtFareHandler handler = new KelheimDrtFareHandler(TransportMode.drt, params, createNetwork(), fares.events);
+
+		// 100 s in the vehicle: 2.0 + 0.1 < 3.0
+		ride(handler, "min_short", "min_p1", 0, 100);
+		// 2000 s in the vehicle: 2.0 + 2.0 > 3.0
+		ride(handler, "min_long", "min_p2", 0, 2000);
+		fares.events.finishProcessing();
+
+		Assert.assertEquals(2, fares.amounts.size());
+		Assert.assertEquals(-3.0, fares.amounts.get(0), 1e-9);
+		Assert.assertEquals(-BASE_FARE - 2.0, fares.amounts.get(1), 1e-9);
+	}
+
+	/**
+	 * The time fare is charged for the time between pick up and drop off, not for the waiting time.
+	 */
+	@Test
+	public void timeFareFromPickupToDropOff() {
+		KelheimDrtFareParams params = new KelheimDrtFareParams(BASE_FARE, 1.0, TransportMode.drt);
+		params.setTimeFare_h(3.6);
+		FareList fares = new FareList();
+		KelheimDrtFareHandler handler = new KelheimDrtFareHandler(TransportMode.drt, params, createNetwork(), fares.events);
+
+		Id<Request> requestId = Id.create("time_r1", Request.class);
+		Id<Person> personId = Id.createPersonId("time_p1");
+		Id<DvrpVehicle> vehicleId = Id.create("time_v1", DvrpVehicle.class);
+		Id<Link> linkId = Id.createLinkId("l1");
+		handler.handleEvent(new DrtRequestSubmittedEvent(0, TransportMode.drt, requestId, personId, linkId, linkId, 60, 500));
+		handler.handleEvent(new PassengerPickedUpEvent(600, TransportMode.drt, requestId, personId, vehicleId));
+		handler.handleEvent(new PassengerDroppedOffEvent(1100, TransportMode.drt, requestId, personId, vehicleId));
+		fares.events.finishProcessing();
+
+		// 500 s at 0.001 per second
+		Assert.assertEquals(1, fares.amounts.size());
+		Assert.assertEquals(-BASE_FARE - 0.5, fares.amounts.get(0), 1e-9);
+	}
+
+	/**
+	 * The distance fare is charged for the distance the vehicle drove between pick up and drop off. Links of other vehicles and links
+	 * before the pick up are not counted.
+	 */
+	@Test
+	public void distanceFareFromOdometer() {
+		Network network = createNetwork();
+		KelheimDrtFareParams params = new KelheimDrtFareParams(BASE_FARE, 1.0, TransportMode.drt);
+		params.setDistanceFare_m(0.001);
+		FareList fares = new FareList();
+		KelheimDrtFareHandler handler = new KelheimDrtFareHandler(TransportMode.drt, params, network, fares.events);
+		Assert.assertTrue(handler.hasDistanceFare());
+
+		Id<DvrpVehicle> vehicleId = Id.create("dist_v1", DvrpVehicle.class);
+		Id<Vehicle> mobsimVehicleId = Id.createVehicleId("dist_v1");
+		Id<Vehicle> otherVehicleId = Id.createVehicleId("dist_car");
+		FleetSpecificationImpl fleet = new FleetSpecificationImpl();
+		fleet.addVehicleSpecification(ImmutableDvrpVehicleSpecification.newBuilder()
+				.id(vehicleId)
+				.startLinkId(Id.createLinkId("l1"))
+				.capacity(8)
+				.serviceBeginTime(0)
+				.serviceEndTime(86400)
+				.build());
+		var odometerHandler = handler.createOdometerHandler(fleet);
+
+		Id<Request> requestId = Id.create("dist_r1", Request.class);
+		Id<Person> personId = Id.createPersonId("dist_p1");
+		Id<Link> l1 = Id.createLinkId("l1");
+		Id<Link> l2 = Id.createLinkId("l2");
+		handler.handleEvent(new DrtRequestSubmittedEvent(0, TransportMode.drt, requestId, personId, l1, l2, 60, 500));
+		// driven before the pick up
+		odometerHandler.handleEvent(new LinkEnterEvent(10, mobsimVehicleId, l1));
+		handler.handleEvent(new PassengerPickedUpEvent(100, TransportMode.drt, requestId, personId, vehicleId));
+		odometerHandler.handleEvent(new LinkEnterEvent(110, mobsimVehicleId, l2));
+		odometerHandler.handleEvent(new LinkEnterEvent(120, otherVehicleId, l1));
+		odometerHandler.handleEvent(new LinkEnterEvent(200, mobsimVehicleId, l1));
+		handler.handleEvent(new PassengerDroppedOffEvent(300, TransportMode.drt, requestId, personId, vehicleId));
+		fares.events.finishProcessing();
+
+		// l2 (500 m) and l1 (1000 m) at 0.001 per meter
+		Assert.assertEquals(1, fares.amounts.size());
+		Assert.assertEquals(-BASE_FARE - 1.5, fares.amounts.get(0), 1e-9);
+	}
+
+	/**
+	 * Without a distance fare, link enter events are not needed.
+	 */
+	@Test
+	public void noOdometersWithoutDistanceFare() {
+		KelheimDrtFareHandler handler = new KelheimDrtFareHandler(TransportMode.drt,
+				new KelheimDrtFareParams(BASE_FARE, 1.0, TransportMode.drt), createNetwork(), EventsUtils.createEventsManager());
+		Assert.assertFalse(handler.hasDistanceFare());
+		Assert.assertThrows(IllegalStateException.class, () -> handler.createOdometerHandler(new FleetSpecificationImpl()));
+	}
+
+	/**
+	 * The daily subscription fee is charged once per person and iteration, at the first drop off.
+	 */
+	@Test
+	public void dailyFeeOncePerPersonAndDay() {
+		KelheimDrtFareParams params = new KelheimDrtFareParams(BASE_FARE, 1.0, TransportMode.drt);
+		params.setDailySubscriptionFee(5.0);
+		FareList fares = new FareList();
+		KelheimDrtFareHandler handler = new KelheimDrtFareHandler(TransportMode.drt, params, createNetwork(), fares.events);
+
+		ride(handler, "fee_r1", "fee_p1", 0, 100);
+		ride(handler, "fee_r2", "fee_p1", 200, 300);
+		ride(handler, "fee_r3", "fee_p2", 400, 500);
+		ride(handler, "fee_r4", "fee_p1", 600, 700);
+		Assert.assertEquals(List.of(-BASE_FARE, -5.0, -BASE_FARE, -BASE_FARE, -5.0, -BASE_FARE), fares.amounts);
+
+		// next iteration
+		handler.reset(1);
+		fares.amounts.clear();
+		ride(handler, "fee_r5", "fee_p1", 0, 100);
+		fares.events.finishProcessing();
+		Assert.assertEquals(List.of(-BASE_FARE, -5.0), fares.amounts);
+	}
+
+	private static void ride(KelheimDrtFareHandler handler, String request, String person, double pickupTime, double dropOffTime) {
+		Id<Request> requestId = Id.create(request, Request.class);
+		Id<Person> personId = Id.createPersonId(person);
+		Id<DvrpVehicle> vehicleId = Id.create("v1", DvrpVehicle.class);
+		Id<Link> linkId = Id.createLinkId("l1");
+		handler.handleEvent(new DrtRequestSubmittedEvent(pickupTime, TransportMode.drt, requestId, personId, linkId, linkId, 60, 500));
+		handler.handleEvent(new PassengerPickedUpEvent(pickupTime, TransportMode.drt, requestId, personId, vehicleId));
+		handler.handleEvent(new PassengerDroppedOffEvent(dropOffTime, TransportMode.drt, requestId, personId, vehicleId));
+	}
+
+	private static Event[][] createRequests(int numberOfRequests, int numberOfThreads) {
+		Id<Link> linkId = Id.createLinkId("l1");
+		Id<DvrpVehicle> vehicleId = Id.create("v1", DvrpVehicle.class);
+		int perThread = numberOfRequests / numberOfThreads;
+		Event[][] events = new Event[numberOfThreads][2 * perThread];
+		for (int t = 0; t < numberOfThreads; t++) {
+			for (int i = 0; i < perThread; i++) {
+				int n = t * perThread + i;
+				Id<Request> requestId = Id.create("stress_" + n, Request.class);
+				Id<Person> personId = Id.createPersonId("p" + n);
+				events[t][2 * i] = new DrtRequestSubmittedEvent(n, TransportMode.drt, requestId, personId, linkId, linkId, 60, 500);
+				events[t][2 * i + 1] = n % 10 == 0 ?
+						new PassengerRequestRejectedEvent(n + 1, TransportMode.drt, requestId, personId, "no_vehicle") :
+						new PassengerDroppedOffEvent(n + 600, TransportMode.drt, requestId, personId, vehicleId);
+			}
+		}
+		return events;
+	}
+
+	private static FareSum replay(Network network, Event[][] eventsPerThread, int numberOfThreads) throws Exception {
+		FareSum fareSum = new FareSum();
+		EventsManager events = EventsUtils.createEventsManager();
+		events.addHandler(fareSum);
+		events.initProcessing();
+		// warm up the handler lookup of the events manager before it is used concurrently
+		events.processEvent(new PersonMoneyEvent(0, Id.createPersonId("warm_up"), 0, "warm_up", null, null));
+
+		KelheimDrtFareHandler handler = new KelheimDrtFareHandler(TransportMode.drt,
+				new KelheimDrtFareParams(BASE_FARE, 1.0, TransportMode.drt), network, events);
+
+		ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		for (Event[] threadEvents : eventsPerThread) {
+			futures.add(executor.submit(() -> {
+				start.await();
+				for (Event event : threadEvents) {
+					if (event instanceof DrtRequestSubmittedEvent submitted) {
+						handler.handleEvent(submitted);
+					} else if (event instanceof PassengerDroppedOffEvent droppedOff) {
+						handler.handleEvent(droppedOff);
+					} else {
+						handler.handleEvent((PassengerRequestRejectedEvent) event);
+					}
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		events.finishProcessing();
+
+		Assert.assertEquals(0, handler.getNumberOfPendingRequests());
+		// do not count the warm up event
+		fareSum.count--;
+		return fareSum;
+	}
+
+	private static Network createNetwork() {
+		Network network = NetworkUtils.createNetwork();
+		Node n1 = NetworkUtils.createAndAddNode(network, Id.createNodeId("n1"), new Coord(0, 0));
+		Node n2 = NetworkUtils.createAndAddNode(network, Id.createNodeId("n2"), new Coord(1000, 0));
+		Link link = NetworkUtils.createAndAddLink(network, Id.createLinkId("l1"), n1, n2, 1000, 10, 600, 1);
+		link.setAllowedModes(Set.of(TransportMode.car, TransportMode.drt));
+		Node n3 = NetworkUtils.createAndAddNode(network, Id.createNodeId("n3"), new Coord(1500, 0));
+		Link link2 = NetworkUtils.createAndAddLink(network, Id.createLinkId("l2"), n2, n3, 500, 10, 600, 1);
+		link2.setAllowedModes(Set.of(TransportMode.car, TransportMode.drt));
+		return network;
+	}
+
+	/**
+	 * Amounts of the money events in the order they are charged.
+	 */
+	private static final class FareList implements PersonMoneyEventHandler {
+		private final List<Double> amounts = new ArrayList<>();
+		private final EventsManager events = EventsUtils.createEventsManager();
+
+		private FareList() {
+			events.addHandler(this);
+			events.initProcessing();
+		}
+
+		@Override
+		public void handleEvent(PersonMoneyEvent event) {
+			amounts.add(event.getAmount());
+		}
+	}
+
+	private static final class FareSum implements PersonMoneyEventHandler {
+		private double sum = 0;
+		private int count = 0;
+
+		@Override
+		public synchronized void handleEvent(PersonMoneyEvent event) {
+			sum += event.getAmount();
+			count++;
+		}
+	}
+}
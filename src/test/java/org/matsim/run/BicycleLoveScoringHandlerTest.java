@@ -0,0 +1,52 @@
+package org.matsim.run;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.PersonDepartureEvent;
+import org.matsim.api.core.v01.events.PersonScoreEvent;
+import org.matsim.api.core.v01.events.handler.PersonScoreEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.population.PopulationUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BicycleLoveScoringHandlerTest {
+
+	@Test
+	public void scoreOfBikeDepartures() {
+		Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		Person lover = population.getFactory().createPerson(Id.createPersonId("bicycleLover"));
+		lover.getAttributes().putAttribute(BicycleLoveScoringHandler.ATTRIBUTE, 1.5);
+		population.addPerson(lover);
+		Person other = population.getFactory().createPerson(Id.createPersonId("withoutAttribute"));
+		population.addPerson(other);
+
+		EventsManager events = EventsUtils.createEventsManager();
+		List<PersonScoreEvent> scores = new ArrayList<>();
+		events.addHandler((PersonScoreEventHandler) scores::add);
+		events.addHandler(new BicycleLoveScoringHandler(population, events));
+
+		Id<Link> link = Id.createLinkId("link");
+		events.initProcessing();
+		events.processEvent(new PersonDepartureEvent(10, lover.getId(), link, TransportMode.bike, TransportMode.bike));
+		events.processEvent(new PersonDepartureEvent(20, lover.getId(), link, TransportMode.car, TransportMode.car));
+		events.processEvent(new PersonDepartureEvent(30, other.getId(), link, TransportMode.bike, TransportMode.bike));
+		events.processEvent(new PersonDepartureEvent(40, Id.createPersonId("notInPopulation"), link, TransportMode.bike, TransportMode.bike));
+		events.processEvent(new PersonDepartureEvent(50, lover.getId(), link, new String("bike"), TransportMode.bike));
+		events.finishProcessing();
+
+		Assert.assertEquals(2, scores.size());
+		Assert.assertEquals(lover.getId(), scores.get(0).getPersonId());
+		Assert.assertEquals(1.5, scores.get(0).getAmount(), 0);
+		Assert.assertEquals(BicycleLoveScoringHandler.ATTRIBUTE, scores.get(0).getKind());
+		Assert.assertEquals(50, scores.get(1).getTime(), 0);
+	}
+}
@@ -0,0 +1,72 @@
+package org.matsim.run;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.nio.file.Path;
+import java.util.Set;
+
+public class BinaryNetworkFormatTest {
+	@Rule
+	public MatsimTestUtils utils = new MatsimTestUtils();
+
+	@Test
+	public void writeAndRead() throws Exception {
+		Network network = NetworkUtils.createNetwork();
+		network.setCapacityPeriod(3600);
+		network.getAttributes().putAttribute("coordinateReferenceSystem", "EPSG:25832");
+		Node a = NetworkUtils.createAndAddNode(network, Id.createNodeId("a"), new Coord(0, 0));
+		Node b = NetworkUtils.createAndAddNode(network, Id.createNodeId("b"), new Coord(100, 50, 3));
+		Link ab = NetworkUtils.createAndAddLink(network, Id.createLinkId("ab"), a, b, 111.8, 13.9, 1800, 2);
+		ab.setAllowedModes(Set.of("car", "freight"));
+		ab.getAttributes().putAttribute("type", "primary");
+		ab.getAttributes().putAttribute("allowed_speed", 13.9);
+		Link ba = NetworkUtils.createAndAddLink(network, Id.createLinkId("ba"), b, a, 111.8, 8.3, 600, 1);
+		ba.setAllowedModes(Set.of("car", "freight"));
+		ba.getAttributes().putAttribute("oneway", false);
+
+		Path file = Path.of(utils.getOutputDirectory(), "network.bin");
+		BinaryNetworkFormat.write(network, file);
+
+		Network read = NetworkUtils.createNetwork();
+		BinaryNetworkFormat.read(file, read);
+
+		Assert.assertEquals(3600, read.getCapacityPeriod(), 0);
+		Assert.assertEquals("EPSG:25832", read.getAttributes().getAttribute("coordinateReferenceSystem"));
+		Assert.assertEquals(new Coord(100, 50, 3), read.getNodes().get(b.getId()).getCoord());
+		Assert.assertFalse(read.getNodes().get(a.getId()).getCoord().hasZ());
+
+		Link readAb = read.getLinks().get(ab.getId());
+		Assert.assertEquals(a.getId(), readAb.getFromNode().getId());
+		Assert.assertEquals(b.getId(), readAb.getToNode().getId());
+		Assert.assertEquals(111.8, readAb.getLength(), 0);
+		Assert.assertEquals(13.9, readAb.getFreespeed(), 0);
+		Assert.assertEquals(1800, readAb.getCapacity(), 0);
+		Assert.assertEquals(2, readAb.getNumberOfLanes(), 0);
+		Assert.assertEquals(Set.of("car", "freight"), readAb.getAllowedModes());
+		Assert.assertEquals("primary", readAb.getAttributes().getAttribute("type"));
+		Assert.assertEquals(13.9, readAb.getAttributes().getAttribute("allowed_speed"));
+		Assert.assertEquals(false, read.getLinks().get(ba.getId()).getAttributes().getAttribute("oneway"));
+	}
+
+	@Test
+	public void unsupportedAttributes() {
+		Network network = NetworkUtils.createNetwork();
+		Node a = NetworkUtils.createAndAddNode(network, Id.createNodeId("a"), new Coord(0, 0));
+		Node b = NetworkUtils.createAndAddNode(network, Id.createNodeId("b"), new Coord(100, 0));
+		Link ab = NetworkUtils.createAndAddLink(network, Id.createLinkId("ab"), a, b, 100, 13.9, 1800, 1);
+		ab.getAttributes().putAttribute("type", "primary");
+		Assert.assertTrue(BinaryNetworkFormat.isSupported(network));
+
+		b.getAttributes().putAttribute("origin", new Coord(1, 2));
+		Assert.assertFalse(BinaryNetworkFormat.isSupported(network));
+	}
+}
@@ -0,0 +1,129 @@
+package org.matsim.run;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.api.core.v01.population.PopulationFactory;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.network.io.NetworkWriter;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.io.PopulationWriter;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.testcases.MatsimTestUtils;
+import org.matsim.vehicles.MatsimVehicleWriter;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
+import org.matsim.vehicles.Vehicles;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ParallelScenarioLoaderTest {
+	private static final int NUMBER_OF_LINKS = 2000;
+	private static final int NUMBER_OF_PERSONS = 500;
+
+	@Rule
+	public MatsimTestUtils utils = new MatsimTestUtils();
+
+	/**
+	 * The ids need to be created in the same order on every run, otherwise runs with the same seed are not reproducible.
+	 */
+	@Test
+	public void sameIdOrderOnEveryLoad() {
+		Config config = writeScenario();
+
+		List<List<String>> first = null;
+		for (int i = 0; i < 3; i++) {
+			Id.resetCaches();
+			Scenario scenario = ParallelScenarioLoader.load(config, 4, s -> {
+			});
+			Assert.assertEquals(NUMBER_OF_LINKS, scenario.getNetwork().getLinks().size());
+			Assert.assertEquals(NUMBER_OF_PERSONS, scenario.getPopulation().getPersons().size());
+			Assert.assertEquals(NUMBER_OF_PERSONS, scenario.getVehicles().getVehicles().size());
+
+			List<List<String>> order = List.of(idsByIndex(Link.class), idsByIndex(Vehicle.class), idsByIndex(VehicleType.class), idsByIndex(Person.class),
+				scenario.getNetwork().getLinks().keySet().stream().map(Object::toString).toList());
+			if (first == null) {
+				first = order;
+			} else {
+				Assert.assertEquals(first, order);
+			}
+		}
+	}
+
+	private static <T> List<String> idsByIndex(Class<T> type) {
+		List<String> ids = new ArrayList<>();
+		for (int i = 0; i < Id.getNumberOfIds(type); i++) {
+			ids.add(Id.get(i, type).toString());
+		}
+		return ids;
+	}
+
+	/**
+	 * Network, vehicles and a population whose routes refer to links and vehicles in a different order than the files define them.
+	 */
+	private Config writeScenario() {
+		Config config = ConfigUtils.createConfig();
+		Path directory = Path.of(utils.getOutputDirectory());
+
+		Network network = NetworkUtils.createNetwork();
+		Node previous = NetworkUtils.createAndAddNode(network, Id.createNodeId("n0"), new Coord(0, 0));
+		for (int i = 1; i <= NUMBER_OF_LINKS; i++) {
+			Node node = NetworkUtils.createAndAddNode(network, Id.createNodeId("n" + i), new Coord(i * 100, 0));
+			NetworkUtils.createAndAddLink(network, Id.createLinkId("l" + i), previous, node, 100, 10, 1000, 1);
+			previous = node;
+		}
+		new NetworkWriter(network).write(directory.resolve("network.xml").toString());
+
+		Vehicles vehicles = VehicleUtils.createVehiclesContainer();
+		VehicleType type = VehicleUtils.createVehicleType(Id.create(TransportMode.car, VehicleType.class));
+		vehicles.addVehicleType(type);
+		for (int i = 0; i < NUMBER_OF_PERSONS; i++) {
+			vehicles.addVehicle(VehicleUtils.createVehicle(Id.createVehicleId("v" + i), type));
+		}
+		new MatsimVehicleWriter(vehicles).writeFile(directory.resolve("vehicles.xml").toString());
+
+		Population population = PopulationUtils.createPopulation(config);
+		PopulationFactory factory = population.getFactory();
+		for (int i = NUMBER_OF_PERSONS - 1; i >= 0; i--) {
+			Person person = factory.createPerson(Id.createPersonId("p" + i));
+			Plan plan = factory.createPlan();
+			Id<Link> from = Id.createLinkId("l" + (1 + (i * 7) % NUMBER_OF_LINKS));
+			Id<Link> to = Id.createLinkId("l" + (1 + (i * 13) % NUMBER_OF_LINKS));
+			Activity home = factory.createActivityFromLinkId("home", from);
+			home.setEndTime(8 * 3600);
+			plan.addActivity(home);
+			Leg leg = factory.createLeg(TransportMode.car);
+			NetworkRoute route = RouteUtils.createLinkNetworkRouteImpl(from, to);
+			route.setVehicleId(Id.createVehicleId("v" + (NUMBER_OF_PERSONS - 1 - i)));
+			leg.setRoute(route);
+			plan.addLeg(leg);
+			plan.addActivity(factory.createActivityFromLinkId("work", to));
+			person.addPlan(plan);
+			population.addPerson(person);
+		}
+		new PopulationWriter(population).write(directory.resolve("plans.xml").toString());
+
+		config.network().setInputFile(directory.resolve("network.xml").toAbsolutePath().toString());
+		config.vehicles().setVehiclesFile(directory.resolve("vehicles.xml").toAbsolutePath().toString());
+		config.plans().setInputFile(directory.resolve("plans.xml").toAbsolutePath().toString());
+		return config;
+	}
+}